@@ -1,12 +1,21 @@
 package simpledb;
 
-import java.rmi.activation.ActivationGroup;
 import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * A grouped aggregate holds at most a fixed number of groups in memory, and
+ * spills the tuples of the other groups to disk (see
+ * {@link SpillingAggregator}).
+ * <p>
+ * If the child reads a {@link SampleScan}, directly or through Filters,
+ * Projects and joins, COUNT and SUM are scaled by the inverse of the
+ * sampling fraction to estimate their value over the whole table. If it
+ * reads one through Filters and Projects only, {@link #standardError} gives
+ * the standard error of each estimate.
  */
 public class Aggregate extends Operator {
 
@@ -19,6 +28,18 @@ public class Aggregate extends Operator {
     private Type aggFieldType;
     private Aggregator aggregator;
     private DbIterator aggIt;
+    //内存中最多保存的group数
+    private final int maxGroups;
+    //APPROX_QUANTILE估计的分位数
+    private final double quantile;
+    //child因采样返回的比例, 没有采样时为1
+    private double fraction = 1;
+    //child直接读的样本, 没有时为null
+    private SampleScan sample;
+    //样本上的COUNT/SUM: 每个group {当前页号, 当前页的和, 各页的和, 各页的和的平方和}
+    private Map<Field, double[]> pageTotals;
+    //getTupleDesc的结果, 换child前不变
+    private TupleDesc td;
 
     /**
      * Constructor.
@@ -39,25 +60,52 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, SpillingAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for an aggregate that holds at most maxGroups groups in
+     * memory.
+     *
+     * @param maxGroups
+     *            the number of groups to hold in memory; tuples of other
+     *            groups are spilled to disk
+     * @see #Aggregate(DbIterator, int, int, Aggregator.Op)
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        this(child, afield, gfield, aop, maxGroups, Aggregator.DEFAULT_QUANTILE);
+    }
+
+    /**
+     * Constructor for an aggregate that holds at most maxGroups groups in
+     * memory and, for APPROX_QUANTILE, estimates the given quantile.
+     *
+     * @param quantile
+     *            the quantile APPROX_QUANTILE estimates, between 0 and 1
+     * @see #Aggregate(DbIterator, int, int, Aggregator.Op, int)
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups,
+                     double quantile) {
 	// some code goes here
         this.child = child;
+        this.maxGroups = maxGroups;
+        this.quantile = quantile;
         this.aggFieldIndex = afield;
         this.gbFieldIndex = gfield;
         this.operator = aop;
         gbFieldType = (gfield == Aggregator.NO_GROUPING) ? null : child.getTupleDesc().getFieldType(gfield);
         aggFieldType = child.getTupleDesc().getFieldType(afield);
-        if (aggFieldType == Type.INT_TYPE) {
-            this.aggregator = new IntegerAggregator(gfield, gbFieldType, afield, aop);
-        } else if (aggFieldType == Type.STRING_TYPE) {
-            this.aggregator = new StringAggregator(gfield, gbFieldType, afield, aop);
-        } else {
-            try {
-                throw new DbException("No such aggregation type");
-            } catch (DbException e) {
-                e.printStackTrace();
-            }
-        }
-        //this.aggIt = aggregator.iterator();
+        //检查operator是否支持该类型
+        newAggregator();
+    }
+
+    private Aggregator newAggregator() {
+        if (gbFieldIndex != Aggregator.NO_GROUPING)
+            return new SpillingAggregator(gbFieldIndex, gbFieldType, aggFieldIndex, aggFieldType,
+                    operator, maxGroups, quantile);
+        if (aggFieldType == Type.STRING_TYPE)
+            return new StringAggregator(gbFieldIndex, gbFieldType, aggFieldIndex, operator);
+        return new IntegerAggregator(gbFieldIndex, gbFieldType, aggFieldIndex, operator, quantile);
     }
 
     /**
@@ -117,13 +165,94 @@ public class Aggregate extends Operator {
 	// some code goes here
         this.child.open();
         super.open();
-        while (child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
+        aggregator = newAggregator();
+        fraction = SampleScan.fractionOf(child);
+        sample = sampleOf(child);
+        pageTotals = sample != null && SampleScan.scales(operator) ? new HashMap<Field, double[]>() : null;
+        try {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                aggregator.mergeTupleIntoGroup(t);
+                if (pageTotals != null)
+                    addToPageTotal(t);
+            }
+        } catch (RuntimeException e) {
+            deleteSpills();
+            throw e;
+        }
+        if (pageTotals != null) {
+            for (double[] totals : pageTotals.values())
+                endPage(totals);
         }
         aggIt = aggregator.iterator();
         aggIt.open();
     }
 
+    private static SampleScan sampleOf(DbIterator it) {
+        while (it instanceof Filter || it instanceof Project)
+            it = ((Operator) it).getChildren()[0];
+        return it instanceof SampleScan ? (SampleScan) it : null;
+    }
+
+    private void addToPageTotal(Tuple t) {
+        Field group = gbFieldIndex == Aggregator.NO_GROUPING ? null : t.getField(gbFieldIndex);
+        double[] totals = pageTotals.get(group);
+        if (totals == null) {
+            totals = new double[]{-1, 0, 0, 0};
+            pageTotals.put(group, totals);
+        }
+        int page = t.getRecordId().getPageId().pageNumber();
+        if (page != totals[0]) {
+            endPage(totals);
+            totals[0] = page;
+        }
+        totals[1] += operator == Aggregator.Op.COUNT ? 1 : t.getInt(aggFieldIndex);
+    }
+
+    private static void endPage(double[] totals) {
+        totals[2] += totals[1];
+        totals[3] += totals[1] * totals[1];
+        totals[1] = 0;
+    }
+
+    /**
+     * @return the fraction of its result the child returns because it reads
+     *         {@link SampleScan}s, or 1 if it reads none
+     */
+    public double sampleFraction() {
+        return SampleScan.fractionOf(child);
+    }
+
+    /**
+     * Returns the standard error of the estimate of a COUNT or SUM over the
+     * whole table computed from a sample of its pages, treating the page
+     * totals of the group as a simple random sample of those of the table.
+     * The estimate is within about two standard errors of the exact value
+     * with 95% confidence. Must be called after {@link #open}.
+     *
+     * @param group the group, or null if there is no grouping
+     * @return the standard error, 0 if the child does not read a sample or
+     *         the whole table was sampled, and NaN if it cannot be estimated:
+     *         for other aggregates, from a single page, or over a join
+     */
+    public double standardError(Field group) {
+        if (sample == null)
+            return fraction == 1 ? 0 : Double.NaN;
+        if (pageTotals == null)
+            return Double.NaN;
+        int n = sample.sampledPages(), total = sample.tablePages();
+        if (n >= total)
+            return 0;
+        if (n < 2)
+            return Double.NaN;
+        double[] totals = pageTotals.get(group);
+        if (totals == null)
+            return 0;
+        double mean = totals[2] / n;
+        double variance = Math.max(0, (totals[3] - n * mean * mean) / (n - 1));
+        return total * Math.sqrt((1 - (double) n / total) * variance / n);
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -133,10 +262,17 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
-        if (aggIt.hasNext()) {
-            return aggIt.next();
-        }
-        return null;
+        if (!aggIt.hasNext())
+            return null;
+        Tuple t = aggIt.next();
+        if (fraction == 1 || !SampleScan.scales(operator))
+            return t;
+        int i = gbFieldIndex == Aggregator.NO_GROUPING ? 0 : 1;
+        Tuple scaled = new Tuple(t.getTupleDesc());
+        for (int j = 0; j < i; j++)
+            scaled.setField(j, t.getField(j));
+        scaled.setInt(i, SampleScan.scaleUp(t.getInt(i), fraction));
+        return scaled;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -157,30 +293,40 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	// some code goes here
-        Type[] typeArr;
-        String[] nameArr;
-
-        if (this.aggFieldIndex == Aggregator.NO_GROUPING) {
-            typeArr = new Type[1];
-            nameArr = new String[1];
-            typeArr[0] = child.getTupleDesc().getFieldType(this.aggFieldIndex);
-            nameArr[0] = this.operator.toString() + " (" + child.getTupleDesc().getFieldName(this.aggFieldIndex) + ")";
-        } else {
-            typeArr = new Type[2];
-            nameArr = new String[2];
-            typeArr[0] = child.getTupleDesc().getFieldType(this.gbFieldIndex);
-            nameArr[0] = child.getTupleDesc().getFieldName(this.gbFieldIndex);
-            typeArr[1] = child.getTupleDesc().getFieldType(this.aggFieldIndex);
-            nameArr[1] = this.operator.toString() + " (" + child.getTupleDesc().getFieldName(this.aggFieldIndex) + ")";
-        }
+        if (td == null)
+            td = resultTupleDesc(child.getTupleDesc(), aggFieldIndex, gbFieldIndex, operator);
+        return td;
+    }
 
-        return new TupleDesc(typeArr, nameArr);
+    /**
+     * @return the TupleDesc of the result of aggregating field afield of
+     *         tuples of type childTd with aop, grouped by field gfield or
+     *         not grouped if gfield is {@link Aggregator#NO_GROUPING}, as
+     *         described in {@link #getTupleDesc}
+     */
+    static TupleDesc resultTupleDesc(TupleDesc childTd, int afield, int gfield, Aggregator.Op aop) {
+        //MIN和MAX的结果与输入同类型, 其余的都是整数
+        Type aggType = aop == Aggregator.Op.MIN || aop == Aggregator.Op.MAX
+                ? childTd.getFieldType(afield) : Type.INT_TYPE;
+        String aggName = nameOfAggregatorOp(aop) + " (" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            return new TupleDesc(new Type[]{aggType}, new String[]{aggName});
+        return new TupleDesc(new Type[]{childTd.getFieldType(gfield), aggType},
+                new String[]{childTd.getFieldName(gfield), aggName});
     }
 
     public void close() {
 	// some code goes here
         super.close();
-        aggIt.close();
+        if (aggIt != null)
+            aggIt.close();
+        deleteSpills();
+        child.close();
+    }
+
+    private void deleteSpills() {
+        if (aggregator instanceof SpillingAggregator)
+            ((SpillingAggregator) aggregator).deleteSpills();
     }
 
     @Override
@@ -193,6 +339,7 @@ public class Aggregate extends Operator {
     public void setChildren(DbIterator[] children) {
 	// some code goes here
         this.child = children[0];
+        this.td = null;
     }
     
 }
@@ -9,6 +9,10 @@ import java.io.Serializable;
 public interface Aggregator extends Serializable {
     static final int NO_GROUPING = -1;
 
+    /** The quantile APPROX_QUANTILE computes unless another is given: the
+        median. */
+    static final double DEFAULT_QUANTILE = 0.5;
+
     /**
      * SUM_COUNT and SC_AVG will
      * only be used in lab7, you are not required
@@ -25,7 +29,18 @@ public interface Aggregator extends Serializable {
          * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
          * will be used to compute distributed avg in lab7.
          * */
-        SC_AVG;
+        SC_AVG,
+        /**
+         * APPROX_COUNT_DISTINCT: estimate the number of distinct values with
+         * a {@link HyperLogLog} sketch of fixed size per group.
+         * */
+        APPROX_COUNT_DISTINCT,
+        /**
+         * APPROX_QUANTILE: estimate a quantile of the values, the median
+         * unless the aggregator is given another, with a
+         * {@link QuantileSketch} of fixed size per group.
+         * */
+        APPROX_QUANTILE;
 
         /**
          * Interface to access operations by a string containing an integer
@@ -63,6 +78,10 @@ public interface Aggregator extends Serializable {
         		return "count";
         	if (this==SC_AVG)
     			return "sc_avg";
+        	if (this==APPROX_COUNT_DISTINCT)
+        		return "approx_count_distinct";
+        	if (this==APPROX_QUANTILE)
+        		return "approx_quantile";
         	throw new IllegalStateException("impossible to reach here");
         }
     }
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.nio.channels.FileChannel;
 
 import simpledb.Predicate.Op;
@@ -19,13 +21,23 @@ import simpledb.Predicate.Op;
  * @see simpledb.BTreeRootPtrPage#BTreeRootPtrPage
  * @author Becca Taft
  */
-public class BTreeFile implements DbFile {
+public class BTreeFile implements IndexFile {
 
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
 
+	// Short-term latches, independent of transaction locks. Operations that only change the
+	// contents of a single leaf hold the tree latch shared and the leaf's latch exclusively,
+	// so writers on different leaves run in parallel; splits and merges hold the tree latch
+	// exclusively. The structure version is bumped by every split or merge so that readers
+	// walking the leaves know when to re-descend from the root.
+	private final ReentrantReadWriteLock treeLatch = new ReentrantReadWriteLock();
+	private final ConcurrentHashMap<PageId, ReentrantReadWriteLock> leafLatches =
+			new ConcurrentHashMap<PageId, ReentrantReadWriteLock>();
+	private volatile long structureVersion = 0;
+
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
 	 *
@@ -176,6 +188,13 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Returns true: the leaf pages keep the tuples in sorted order of the key
+	 */
+	public boolean isKeyOrdered() {
+		return true;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -208,15 +227,8 @@ public class BTreeFile implements DbFile {
 			if (f == null) {
 				return findLeafPage(tid, dirtypages, it.next().getLeftChild(), Permissions.READ_ONLY, f);
 			}
-			//需要实现compare
-			BTreeEntry comp = null;
-			do {
-				comp = it.next();
-				if (comp.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
-					return findLeafPage(tid, dirtypages, comp.getLeftChild(), perm, f);
-				}
-			} while (it.hasNext());
-			return findLeafPage(tid, dirtypages, comp.getRightChild(), perm, f);
+			//二分查找第一个 >= f 的key
+			return findLeafPage(tid, dirtypages, page.findChild(f), perm, f);
 		} else {
 			throw new DbException("invalid type");
 		}
@@ -603,6 +615,196 @@ public class BTreeFile implements DbFile {
 		}
 	}
 
+	/**
+	 * Returns the latch protecting the contents of the given leaf page.
+	 */
+	private ReentrantReadWriteLock leafLatch(PageId pid) {
+		ReentrantReadWriteLock latch = leafLatches.get(pid);
+		if(latch == null) {
+			leafLatches.putIfAbsent(pid, new ReentrantReadWriteLock());
+			latch = leafLatches.get(pid);
+		}
+		return latch;
+	}
+
+	/**
+	 * Fetch a page with read-write permission and mark it dirty before any other thread can evict
+	 * it from the buffer pool, so that changes made after the caller releases its latches are
+	 * never lost to a concurrent eviction and re-read.
+	 *
+	 * @see #getPage(TransactionId, HashMap, BTreePageId, Permissions)
+	 */
+	private Page getDirtiedPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid)
+			throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		synchronized(bp) {
+			Page p = getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+			p.markDirty(true, tid);
+			return p;
+		}
+	}
+
+	/**
+	 * A copy of the tuples on one leaf page, taken while holding the leaf's latch, along with the
+	 * right sibling pointer and structure version at that time.
+	 */
+	static class LeafSnapshot {
+		final ArrayList<Tuple> tuples;
+		final BTreePageId rightSiblingId;
+		final long version;
+		BTreePageId parentId;
+		// number of leaves the caller may still read before more are read ahead
+		int readAheadIn;
+
+		LeafSnapshot(ArrayList<Tuple> tuples, BTreePageId rightSiblingId, long version) {
+			this.tuples = tuples;
+			this.rightSiblingId = rightSiblingId;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Copy the tuples of a leaf page whose key is greater than or equal to from, or all
+	 * of them if from is null. The tuples themselves are copied, so later changes to the
+	 * page do not show through the snapshot. The caller must hold the tree latch.
+	 */
+	private LeafSnapshot snapshotLeaf(BTreeLeafPage page, Field from) {
+		ReentrantReadWriteLock latch = leafLatch(page.getId());
+		latch.readLock().lock();
+		try {
+			ArrayList<Tuple> tuples = new ArrayList<Tuple>(page.getMaxTuples() - page.getNumEmptySlots());
+			Iterator<Tuple> it = from == null ? page.iterator() : page.iterator(from);
+			while(it.hasNext()) {
+				// writers change the page's tuples in place, e.g. their RecordIds when they move
+				Tuple t = it.next();
+				Tuple copy = new Tuple(t.getTupleDesc());
+				for(int i = 0; i < t.getTupleDesc().numFields(); i++) {
+					copy.setField(i, t, i);
+				}
+				copy.setRecordId(t.getRecordId());
+				tuples.add(copy);
+			}
+			LeafSnapshot snap = new LeafSnapshot(tuples, page.getRightSiblingId(), structureVersion);
+			snap.parentId = page.getParentId();
+			return snap;
+		} finally {
+			latch.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Ask the buffer pool to read the leaves following page in the background, because the caller
+	 * is walking the leaf chain. The next leaves are found in the parent of page; they are requested
+	 * a window at a time, topped up halfway through each window and whenever the scan moves on to
+	 * another parent. Leaves past the upper bound of the scan are never requested. The caller must
+	 * hold the tree latch.
+	 *
+	 * @param tid - the transaction id
+	 * @param page - the leaf page the caller has just moved to
+	 * @param prev - the snapshot of the previous leaf
+	 * @param bound - the predicate ending the scan (LESS_THAN, LESS_THAN_OR_EQ or EQUALS), or null
+	 * @return the number of leaves to read before reading ahead again
+	 */
+	private int readAhead(TransactionId tid, BTreeLeafPage page, LeafSnapshot prev, IndexPredicate bound)
+			throws DbException, TransactionAbortedException {
+		BTreePageId parentId = page.getParentId();
+		if(prev.readAheadIn > 0 && parentId.equals(prev.parentId)) {
+			return prev.readAheadIn - 1;
+		}
+		int window = Database.getBufferPool().readAheadWindow();
+		if(window == 0 || parentId.pgcateg() != BTreePageId.INTERNAL) {
+			return Integer.MAX_VALUE;
+		}
+		BTreeInternalPage parent = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, parentId, Permissions.READ_ONLY);
+		Op op = null;
+		Field f = null;
+		if(bound != null) {
+			op = bound.getOp() == Op.EQUALS ? Op.LESS_THAN_OR_EQ : bound.getOp();
+			f = bound.getField();
+		}
+		Database.getBufferPool().prefetchPages(parent.getChildrenAfter(page.getId(), window, op, f));
+		return window / 2;
+	}
+
+	/**
+	 * Find the left-most leaf page possibly containing the key field f (or the left-most leaf if
+	 * f is null) and return a snapshot of its tuples. Used by the BTreeFile iterators so that
+	 * they never read a page while another thread is modifying it.
+	 *
+	 * @param tid - the transaction id
+	 * @param f - the field to search for
+	 * @return a snapshot of the leaf page
+	 */
+	LeafSnapshot readLeaf(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		treeLatch.readLock().lock();
+		try {
+			BTreePageId rootId = getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+			if(rootId == null) { // empty tree
+				return new LeafSnapshot(new ArrayList<Tuple>(), null, structureVersion);
+			}
+			// tuples with smaller keys than f are never needed by the caller
+			return snapshotLeaf(findLeafPage(tid, rootId, Permissions.READ_ONLY, f), f);
+		} catch (IOException e) {
+			throw new DbException("failed to read the root of the B+ tree: " + e.getMessage());
+		} finally {
+			treeLatch.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Return a snapshot of the leaf following prev. If no page has been split or merged since prev
+	 * was taken, this simply follows its right sibling pointer. Otherwise the tuples may have moved,
+	 * so it descends again from the root to the first leaf that can hold lastKey, and drops the
+	 * tuples the caller has already consumed: those with keys less than lastKey, and the first
+	 * dupCount tuples with key lastKey.
+	 *
+	 * @param tid - the transaction id
+	 * @param prev - the snapshot the caller has consumed
+	 * @param lastKey - the key of the last tuple consumed, or null if none
+	 * @param dupCount - the number of tuples with key lastKey consumed so far
+	 * @param bound - the predicate ending the caller's scan, used to limit read-ahead, or null
+	 * @return the next snapshot, or null if there are no more leaf pages
+	 */
+	LeafSnapshot readNextLeaf(TransactionId tid, LeafSnapshot prev, Field lastKey, int dupCount,
+			IndexPredicate bound) throws DbException, TransactionAbortedException {
+		if(prev.rightSiblingId == null) {
+			return null;
+		}
+		treeLatch.readLock().lock();
+		try {
+			if(prev.version == structureVersion) {
+				BTreeLeafPage page = (BTreeLeafPage) Database.getBufferPool().getPage(
+						tid, prev.rightSiblingId, Permissions.READ_ONLY);
+				LeafSnapshot snap = snapshotLeaf(page, null);
+				snap.readAheadIn = readAhead(tid, page, prev, bound);
+				return snap;
+			}
+
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+					tid, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+			BTreeLeafPage page = findLeafPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY, lastKey);
+			while(true) {
+				LeafSnapshot snap = snapshotLeaf(page, lastKey);
+				int start = 0;
+				while(lastKey != null && dupCount > 0 && start < snap.tuples.size()
+						&& snap.tuples.get(start).getField(keyField).equals(lastKey)) {
+					start++;
+					dupCount--;
+				}
+				if(start < snap.tuples.size() || snap.rightSiblingId == null) {
+					ArrayList<Tuple> rest = new ArrayList<Tuple>(snap.tuples.subList(start, snap.tuples.size()));
+					return new LeafSnapshot(rest, snap.rightSiblingId, snap.version);
+				}
+				page = (BTreeLeafPage) Database.getBufferPool().getPage(
+						tid, snap.rightSiblingId, Permissions.READ_ONLY);
+			}
+		} finally {
+			treeLatch.readLock().unlock();
+		}
+	}
+
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order.
 	 * May cause pages to split if the page where tuple t belongs is full.
@@ -615,6 +817,69 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		// first try to insert into the leaf without changing the structure of the tree
+		ArrayList<Page> dirtyPagesArr = insertTupleOptimistic(tid, t);
+		if(dirtyPagesArr != null) {
+			return dirtyPagesArr;
+		}
+
+		treeLatch.writeLock().lock();
+		try {
+			dirtyPagesArr = insertTupleExclusive(tid, t);
+			structureVersion++;
+			return dirtyPagesArr;
+		} finally {
+			treeLatch.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Insert a tuple into the leaf page where it belongs if that page has an empty slot, holding
+	 * the tree latch shared and the leaf latch exclusively, so inserts into different leaves can
+	 * proceed concurrently.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return the dirtied leaf page, or null if the insert requires a split and must be retried
+	 * with the tree latch held exclusively
+	 */
+	private ArrayList<Page> insertTupleOptimistic(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		treeLatch.readLock().lock();
+		try {
+			BTreePageId rootId = getRootPtrPage(tid, dirtypages).getRootId();
+			if(rootId == null) {
+				return null;
+			}
+			BTreePageId leafId = findLeafPage(tid, dirtypages, rootId, Permissions.READ_ONLY,
+					t.getField(keyField)).getId();
+
+			ReentrantReadWriteLock latch = leafLatch(leafId);
+			latch.writeLock().lock();
+			try {
+				BTreeLeafPage leafPage = (BTreeLeafPage) getDirtiedPage(tid, dirtypages, leafId);
+				if(leafPage.getNumEmptySlots() == 0) {
+					return null;
+				}
+				leafPage.insertTuple(t);
+			} finally {
+				latch.writeLock().unlock();
+			}
+		} finally {
+			treeLatch.readLock().unlock();
+		}
+		return new ArrayList<Page>(dirtypages.values());
+	}
+
+	/**
+	 * Insert a tuple into this BTreeFile, splitting pages as needed. The caller must hold the
+	 * tree latch exclusively.
+	 *
+	 * @see #insertTuple(TransactionId, Tuple)
+	 */
+	private ArrayList<Page> insertTupleExclusive(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
 		// get a read lock on the root pointer page and use it to locate the root page
@@ -990,10 +1255,54 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
-
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(),
 				BTreePageId.LEAF);
+
+		// first try to delete from the leaf without changing the structure of the tree
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		treeLatch.readLock().lock();
+		try {
+			ReentrantReadWriteLock latch = leafLatch(pageId);
+			latch.writeLock().lock();
+			try {
+				// the page is only marked dirty once the tuple is deleted, under the buffer pool's
+				// monitor as in getDirtiedPage, so that it cannot be evicted in between
+				synchronized(Database.getBufferPool()) {
+					BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+					int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+					if(page.getNumEmptySlots() + 1 <= maxEmptySlots) {
+						page.deleteTuple(t);
+						page.markDirty(true, tid);
+						return new ArrayList<Page>(dirtypages.values());
+					}
+				}
+			} finally {
+				latch.writeLock().unlock();
+			}
+		} finally {
+			treeLatch.readLock().unlock();
+		}
+
+		treeLatch.writeLock().lock();
+		try {
+			ArrayList<Page> dirtyPagesArr = deleteTupleExclusive(tid, t, pageId);
+			structureVersion++;
+			return dirtyPagesArr;
+		} finally {
+			treeLatch.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Delete a tuple from this BTreeFile, stealing from or merging with sibling pages as needed.
+	 * The caller must hold the tree latch exclusively.
+	 *
+	 * @see #deleteTuple(TransactionId, Tuple)
+	 */
+	private ArrayList<Page> deleteTupleExclusive(TransactionId tid, Tuple t, BTreePageId pageId)
+			throws DbException, IOException, TransactionAbortedException {
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+
 		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
 		page.deleteTuple(t);
 
@@ -1247,13 +1556,81 @@ public class BTreeFile implements DbFile {
 
 }
 
+/**
+ * Helper class that walks the tuples of a BTreeFile in key order, one leaf snapshot at a time,
+ * remembering the last key consumed so that it can resume correctly after pages are split or
+ * merged by concurrent writers.
+ * @see BTreeFile#readNextLeaf(TransactionId, BTreeFile.LeafSnapshot, Field, int, IndexPredicate)
+ */
+class BTreeLeafCursor {
+
+	private final BTreeFile f;
+	private final TransactionId tid;
+	private final IndexPredicate bound;
+	private BTreeFile.LeafSnapshot snap = null;
+	private int pos = 0;
+	private Field lastKey = null;
+	private int dupCount = 0;
+
+	BTreeLeafCursor(BTreeFile f, TransactionId tid) {
+		this(f, tid, null);
+	}
+
+	/**
+	 * @param bound - the predicate that ends the caller's scan, LESS_THAN, LESS_THAN_OR_EQ or
+	 * EQUALS, so that no leaves past it are read ahead; null if the caller scans to the end
+	 */
+	BTreeLeafCursor(BTreeFile f, TransactionId tid, IndexPredicate bound) {
+		this.f = f;
+		this.tid = tid;
+		this.bound = bound;
+	}
+
+	/**
+	 * Position the cursor on the left-most leaf page possibly containing the key field key,
+	 * or on the left-most leaf page if key is null.
+	 */
+	void open(Field key) throws DbException, TransactionAbortedException {
+		snap = f.readLeaf(tid, key);
+		pos = 0;
+		lastKey = null;
+		dupCount = 0;
+	}
+
+	/**
+	 * @return the next tuple in key order, or null if none exists
+	 */
+	Tuple next() throws DbException, TransactionAbortedException {
+		while(snap != null && pos == snap.tuples.size()) {
+			snap = f.readNextLeaf(tid, snap, lastKey, dupCount, bound);
+			pos = 0;
+		}
+		if(snap == null) {
+			return null;
+		}
+		Tuple t = snap.tuples.get(pos++);
+		Field key = t.getField(f.keyField());
+		if(lastKey != null && key.equals(lastKey)) {
+			dupCount++;
+		}
+		else {
+			lastKey = key;
+			dupCount = 1;
+		}
+		return t;
+	}
+
+	void close() {
+		snap = null;
+	}
+}
+
 /**
  * Helper class that implements the Java Iterator for tuples on a BTreeFile
  */
 class BTreeFileIterator extends AbstractDbFileIterator {
 
-	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+	BTreeLeafCursor cursor = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1272,11 +1649,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-		it = curp.iterator();
+		cursor = new BTreeLeafCursor(f, tid);
+		cursor.open(null);
 	}
 
 	/**
@@ -1287,26 +1661,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	@Override
 	protected Tuple readNext() throws TransactionAbortedException, DbException {
-		if (it != null && !it.hasNext())
-			it = null;
-
-		while (it == null && curp != null) {
-			BTreePageId nextp = curp.getRightSiblingId();
-			if(nextp == null) {
-				curp = null;
-			}
-			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
-				if (!it.hasNext())
-					it = null;
-			}
-		}
-
-		if (it == null)
+		if (cursor == null)
 			return null;
-		return it.next();
+		return cursor.next();
 	}
 
 	/**
@@ -1322,8 +1679,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
-		it = null;
-		curp = null;
+		if (cursor != null)
+			cursor.close();
+		cursor = null;
 	}
 }
 
@@ -1333,8 +1691,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
  */
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
-	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+	BTreeLeafCursor cursor = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1357,17 +1714,20 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
+		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.LESS_THAN
+				|| ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+			cursor = new BTreeLeafCursor(f, tid, ipred);
+		}
+		else {
+			cursor = new BTreeLeafCursor(f, tid);
+		}
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			cursor.open(ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			cursor.open(null);
 		}
-		it = curp.iterator();
 	}
 
 	/**
@@ -1379,35 +1739,24 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	@Override
 	protected Tuple readNext() throws TransactionAbortedException, DbException,
 			NoSuchElementException {
-		while (it != null) {
+		if (cursor == null)
+			return null;
 
-			while (it.hasNext()) {
-				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
-				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
-					return null;
-				}
-				else if(ipred.getOp() == Op.EQUALS &&
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
-					return null;
-				}
+		Tuple t;
+		while ((t = cursor.next()) != null) {
+			if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+				return t;
 			}
-
-			BTreePageId nextp = curp.getRightSiblingId();
-			// if there are no more pages to the right, end the iteration
-			if(nextp == null) {
+			else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+				// if the predicate was not satisfied and the operation is less than, we have
+				// hit the end
 				return null;
 			}
-			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+			else if(ipred.getOp() == Op.EQUALS &&
+					t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
+				// if the tuple is now greater than the field passed in and the operation
+				// is equals, we have reached the end
+				return null;
 			}
 		}
 
@@ -1427,6 +1776,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
-		it = null;
+		if (cursor != null)
+			cursor.close();
+		cursor = null;
 	}
-}
\ No newline at end of file
+}
@@ -21,6 +21,9 @@ public class BTreeInternalPage extends BTreePage {
 	
 	private int childCategory; // either leaf or internal
 
+	// the used slots in key order (slot 0 first), rebuilt lazily after the header changes
+	private int[] slotDirectory = null;
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -569,15 +572,87 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		// start from 1 because the first key slot is not used
-		// since a node with m keys has m+1 pointers
-		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
+		int cnt = numSlots - 1;
+		// the first key slot is not used since a node with m keys has m+1 pointers,
+		// so only count the used slots from 1
+		int[] dir = getSlotDirectory();
+		for(int i=0; i<dir.length; i++)
+			if(dir[i] != 0)
+				cnt--;
 		return cnt;
 	}
 
+	/**
+	 * Returns the used slots on this page in key order. The array is cached until
+	 * a slot is filled or cleared, and must not be modified by the caller.
+	 */
+	private int[] getSlotDirectory() {
+		int[] dir = slotDirectory;
+		if(dir == null) {
+			int cnt = 0;
+			for(int i=0; i<numSlots; i++)
+				if(isSlotUsed(i))
+					cnt++;
+			dir = new int[cnt];
+			cnt = 0;
+			for(int i=0; i<numSlots; i++)
+				if(isSlotUsed(i))
+					dir[cnt++] = i;
+			slotDirectory = dir;
+		}
+		return dir;
+	}
+
+	/**
+	 * Find the child page that may contain the left-most tuple with key f: the left
+	 * child of the first entry whose key is greater than or equal to f, or the right
+	 * child of the last entry if there is none. The entry is found by binary search.
+	 *
+	 * @param f - the key to search for
+	 * @return the id of the child page, or null if the page has no entries
+	 */
+	public BTreePageId findChild(Field f) {
+		int[] dir = getSlotDirectory();
+		if(dir.length < 2)
+			return null;
+		// dir[0] holds the left-most child and no key
+		int lo = 1, hi = dir.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(keys[dir[mid]].compare(Op.LESS_THAN, f))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return new BTreePageId(pid.getTableId(), children[dir[lo - 1]], childCategory);
+	}
+
+	/**
+	 * Return the ids of up to n children that follow the given child, in key order. Used to read
+	 * ahead of a scan walking the leaf chain. If bound is not null, stops at the first child whose
+	 * smallest possible key, the key of the entry to its left, does not satisfy bound, since a scan
+	 * with that upper bound never reaches it.
+	 *
+	 * @param child - the id of a child of this page
+	 * @param n - the maximum number of ids to return
+	 * @param op - the operator of the upper bound
+	 * @param bound - the upper bound of the scan, or null if there is none
+	 * @return the ids of the following children, or an empty list if child is not on this page
+	 */
+	public ArrayList<BTreePageId> getChildrenAfter(BTreePageId child, int n, Op op, Field bound) {
+		int[] dir = getSlotDirectory();
+		ArrayList<BTreePageId> ids = new ArrayList<BTreePageId>();
+		int i = 0;
+		while(i < dir.length && children[dir[i]] != child.pageNumber())
+			i++;
+		for(i++; i < dir.length && ids.size() < n; i++) {
+			if(bound != null && !keys[dir[i]].compare(op, bound))
+				break;
+			ids.add(new BTreePageId(pid.getTableId(), children[dir[i]], childCategory));
+		}
+		return ids;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -595,6 +670,7 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+		slotDirectory = null;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -19,6 +19,9 @@ public class BTreeLeafPage extends BTreePage {
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
+	// the used slots in key order, rebuilt lazily after the header changes
+	private int[] slotDirectory = null;
+
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
@@ -323,16 +326,9 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		int[] dir = getSlotDirectory();
+		int after = upperBound(dir, t.getField(keyField));
+		int lessOrEqKey = after == 0 ? -1 : dir[after - 1];
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -445,11 +441,60 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return numSlots - getSlotDirectory().length;
+	}
+
+	/**
+	 * Returns the used slots on this page in key order. The array is cached until
+	 * a slot is filled or cleared, and must not be modified by the caller.
+	 */
+	private int[] getSlotDirectory() {
+		int[] dir = slotDirectory;
+		if(dir == null) {
+			int cnt = 0;
+			for(int i=0; i<numSlots; i++)
+				if(isSlotUsed(i))
+					cnt++;
+			dir = new int[cnt];
+			cnt = 0;
+			for(int i=0; i<numSlots; i++)
+				if(isSlotUsed(i))
+					dir[cnt++] = i;
+			slotDirectory = dir;
+		}
+		return dir;
+	}
+
+	/**
+	 * Binary search for the first position in the slot directory whose key is
+	 * greater than or equal to f.
+	 */
+	private int lowerBound(int[] dir, Field f) {
+		int lo = 0, hi = dir.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(tuples[dir[mid]].getField(keyField).compare(Predicate.Op.LESS_THAN, f))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Binary search for the first position in the slot directory whose key is
+	 * greater than f.
+	 */
+	private int upperBound(int[] dir, Field f) {
+		int lo = 0, hi = dir.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(tuples[dir[mid]].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, f))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
 	}
 
 	/**
@@ -469,6 +514,7 @@ public class BTreeLeafPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+		slotDirectory = null;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -483,6 +529,19 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @return an iterator over the tuples on this page whose key is greater than or equal
+	 * to f, in key order. The first such tuple is found by binary search.
+	 * (calling remove on this iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator(Field f) {
+		BTreeLeafPageIterator it = new BTreeLeafPageIterator(this);
+		int[] dir = getSlotDirectory();
+		int first = lowerBound(dir, f);
+		it.curTuple = first < dir.length ? dir[first] : numSlots;
+		return it;
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
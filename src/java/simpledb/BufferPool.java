@@ -4,10 +4,15 @@ import javax.xml.crypto.Data;
 import java.io.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -31,6 +36,20 @@ public class BufferPool {
      constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Maximum number of pages a sequential scan asks to have read ahead of
+     the page it is on. The window is further limited to a quarter of the
+     buffer pool, so that read-ahead never crowds out the pages in use. */
+    public static final int READ_AHEAD_PAGES = 16;
+
+    /** Background thread that performs read-ahead for all buffer pools. A
+     single thread keeps the reads of a scan in file order. */
+    private static final ExecutorService readAheadExecutor =
+            Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "simpledb-read-ahead");
+                t.setDaemon(true);
+                return t;
+            });
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -38,11 +57,17 @@ public class BufferPool {
      */
     public Map<PageId, Page> bufferPool;
     public int maxPages;
+    //正在预读的页面
+    private final ConcurrentHashMap<PageId, FutureTask<Void>> prefetching;
+    //预读进来但还没有被访问过的页面, 淘汰时优先保留
+    private final Set<PageId> readAhead;
 
     public BufferPool(int numPages) {
         // some code goes here
-        bufferPool = new HashMap<PageId, Page>();
+        bufferPool = new ConcurrentHashMap<PageId, Page>();
         maxPages = numPages;
+        prefetching = new ConcurrentHashMap<PageId, FutureTask<Void>>();
+        readAhead = ConcurrentHashMap.newKeySet();
     }
 
     public static int getPageSize() {
@@ -78,16 +103,38 @@ public class BufferPool {
             throws TransactionAbortedException, DbException {
         // some code goes here
         //直接找到
-        if (bufferPool.containsKey(pid)) return bufferPool.get(pid);
-        //没有找到
-        //eviction
-        while (bufferPool.size() >= maxPages) {
-            this.evictPage();
+        Page page = bufferPool.get(pid);
+        if (page != null) {
+            if (!readAhead.isEmpty()) readAhead.remove(pid);
+            return page;
+        }
+        //页面正在被预读, 等预读完成, 而不是再读一次
+        FutureTask<Void> pending = prefetching.get(pid);
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // the page is read below
+            }
+        }
+        //没有找到, 加锁后再检查一次, 避免两个线程读入同一页面的两个副本
+        synchronized (this) {
+            page = bufferPool.get(pid);
+            if (page != null) {
+                readAhead.remove(pid);
+                return page;
+            }
+            //eviction
+            while (bufferPool.size() >= maxPages) {
+                this.evictPage();
+            }
+            //adding
+            page = Database.getCatalog().getDatabaseFile((pid.getTableId())).readPage(pid);
+            bufferPool.put(pid, page);
+            return page;
         }
-        //adding
-        Page page = Database.getCatalog().getDatabaseFile((pid.getTableId())).readPage(pid);
-        bufferPool.putIfAbsent(pid, page);
-        return page;
         /**
          if (bufferPool.size() >= maxPages) throw new DbException("insuffient space");
          //添加页面
@@ -101,6 +148,57 @@ public class BufferPool {
          */
     }
 
+    /**
+     * @return the number of pages a sequential scan should keep read ahead of
+     *         the page it is on, or 0 if this buffer pool is too small for
+     *         read-ahead
+     */
+    public int readAheadWindow() {
+        return Math.min(READ_AHEAD_PAGES, maxPages / 4);
+    }
+
+    /**
+     * Asks for the specified pages to be read into the buffer pool in the
+     * background, because a scan is about to request them. Pages that are
+     * already cached or being read are skipped. Read-ahead does not acquire
+     * any locks; the scan still calls {@link #getPage} for every page, which
+     * waits for a read in progress rather than reading the page again.
+     *
+     * @param pids the ids of the pages to read, in the order they will be used
+     */
+    public void prefetchPages(List<? extends PageId> pids) {
+        DbFile file = null;
+        for (PageId pid : pids) {
+            if (bufferPool.containsKey(pid) || prefetching.containsKey(pid))
+                continue;
+            if (file == null || file.getId() != pid.getTableId())
+                file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            final DbFile f = file;
+            FutureTask<Void> task = new FutureTask<Void>(() -> readAheadPage(f, pid), null);
+            if (prefetching.putIfAbsent(pid, task) == null)
+                readAheadExecutor.execute(task);
+        }
+    }
+
+    /** Reads one page on the read-ahead thread and caches it if there is room. */
+    private void readAheadPage(DbFile file, PageId pid) {
+        try {
+            Page page = file.readPage(pid);
+            synchronized (this) {
+                if (!bufferPool.containsKey(pid)) {
+                    if (bufferPool.size() >= maxPages)
+                        this.evictPage();
+                    bufferPool.put(pid, page);
+                    readAhead.add(pid);
+                }
+            }
+        } catch (DbException | RuntimeException e) {
+            // read-ahead is only a hint; getPage reads the page when it is needed
+        } finally {
+            prefetching.remove(pid);
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -166,14 +264,9 @@ public class BufferPool {
         // not necessary for lab1
         ArrayList<Page> pages = Database.getCatalog().
                 getDatabaseFile(tableId).insertTuple(tid, t);
-        for (Page page : pages) {
-            PageId id = page.getId();
-            while (!bufferPool.containsKey(id) && bufferPool.size() >= maxPages) {
-                this.evictPage();
-            }
-            page.markDirty(true, tid);
-            bufferPool.putIfAbsent(id, page);
-        }
+        cacheDirtyPages(tid, pages);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.insertEntry(tid, t);
     }
 
     /**
@@ -193,10 +286,30 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        int tableId = t.getRecordId().getPageId().getTableId();
-        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> modifiedPage = table.deleteTuple(tid, t);
-        modifiedPage.get(0).markDirty(true, tid);
+        // the index entries are found through the tuple's RecordId, which the delete clears
+        RecordId rid = t.getRecordId();
+        int tableId = rid.getPageId().getTableId();
+        ArrayList<Page> pages = Database.getCatalog().
+                getDatabaseFile(tableId).deleteTuple(tid, t);
+        cacheDirtyPages(tid, pages);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.deleteEntry(tid, t, rid);
+    }
+
+    /**
+     * Marks the pages dirtied by an insert or delete as dirty and makes sure
+     * they are cached, evicting clean pages to make room if necessary.
+     */
+    private synchronized void cacheDirtyPages(TransactionId tid, ArrayList<Page> pages)
+            throws DbException {
+        for (Page page : pages) {
+            PageId id = page.getId();
+            while (!bufferPool.containsKey(id) && bufferPool.size() >= maxPages) {
+                this.evictPage();
+            }
+            page.markDirty(true, tid);
+            bufferPool.putIfAbsent(id, page);
+        }
     }
 
     /**
@@ -260,12 +373,16 @@ public class BufferPool {
      */
     private synchronized  void evictPage() throws DbException {
         //逻辑：选择位于中间的页面，try flush and then evict from the map
+        //预读但尚未使用的页面只在没有其他干净页面时才淘汰
         PageId clean = null;
+        PageId cleanReadAhead = null;
         for (PageId id : bufferPool.keySet()) {
             if (bufferPool.get(id).isDirty() == null) {
-                clean = id;
+                if (readAhead.contains(id)) cleanReadAhead = id;
+                else clean = id;
             }
         }
+        if (clean == null) clean = cleanReadAhead;
         if (clean == null) throw new DbException("no page can be evicted");
         try {
             flushPage(clean);
@@ -273,5 +390,6 @@ public class BufferPool {
             e.printStackTrace();
         }
         bufferPool.remove(clean);
+        readAhead.remove(clean);
     }
 }
\ No newline at end of file
@@ -1,15 +1,9 @@
 package simpledb;
 
-import javafx.scene.control.Tab;
-
-import javax.swing.text.html.HTMLDocument;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.lang.reflect.Array;
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -39,19 +33,25 @@ public class Catalog {
      * Constructor.
      * Creates a new, empty catalog.
      */
-    public ArrayList<Table> tables;
-    public ArrayList<Integer> ids;
-    public ArrayList<String> names;
+    //按id和名称各建一个哈希表, 查找O(1); 修改时加锁保持两个表一致, 读不加锁
+    private final ConcurrentHashMap<Integer, Table> byId;
+    private final ConcurrentHashMap<String, Table> byName;
+    //每个表上的二级索引, 按表id
+    private final ConcurrentHashMap<Integer, List<SecondaryIndex>> indexes;
 
     public Catalog() {
         // some code goes here
-        tables = new ArrayList<Table>();
-        ids = new ArrayList<Integer>();
-        names = new ArrayList<String>();
+        byId = new ConcurrentHashMap<Integer, Table>();
+        byName = new ConcurrentHashMap<String, Table>();
+        indexes = new ConcurrentHashMap<Integer, List<SecondaryIndex>>();
     }
 
+    /**
+     * @return an iterator over the tables of the catalog, in no particular
+     *         order
+     */
     public Iterator<Table> iterator() {
-        return tables.iterator();
+        return byId.values().iterator();
     }
 
     /**
@@ -63,29 +63,22 @@ public class Catalog {
      * conflict exists, use the last table to be added as the table for a given name.
      * @param pkeyField the name of the primary key field
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
-        if (names.contains(name)) {
-            setTable(names.indexOf(name), file, name, pkeyField);
-        } else if (ids.contains(file.getId())) {
-            setTable(ids.indexOf(file.getId()), file, name, pkeyField);
-        } else {
-            tables.add(new Table(file, name, pkeyField));
-            ids.add(new Integer(file.getId()));
-            names.add(name);
-        }
+        //同名或同id的旧表被替换, 两个表里的旧条目都要删掉
+        Table old = byName.get(name);
+        if (old != null)
+            byId.remove(old.file.getId());
+        old = byId.get(file.getId());
+        if (old != null)
+            byName.remove(old.name);
+        Table table = new Table(file, name, pkeyField);
+        byId.put(file.getId(), table);
+        byName.put(name, table);
     }
 
     public void addTable(DbFile file, String name) {
-        if (names.contains(name)) {
-            setTable(names.indexOf(name), file, name, "");
-        } else if (ids.contains(file.getId())) {
-            setTable(ids.indexOf(file.getId()), file, name, "");
-        } else {
-            tables.add(new Table(file, name, ""));
-            ids.add(new Integer(file.getId()));
-            names.add(name);
-        }
+        addTable(file, name, "");
     }
 
     /**
@@ -96,22 +89,14 @@ public class Catalog {
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      */
     public void addTable(DbFile file) {
-        String name = (UUID.randomUUID()).toString();
-        if (names.contains(name)) {
-            setTable(names.indexOf(name), file, name, "");
-        } else if (ids.contains(file.getId())) {
-            setTable(ids.indexOf(file.getId()), file, name, "");
-        } else {
-            tables.add(new Table(file, name, ""));
-            ids.add(new Integer(file.getId()));
-            names.add(name);
-        }
+        addTable(file, (UUID.randomUUID()).toString());
     }
 
-    public void setTable(int index, DbFile file, String name, String pkeyField) {
-        tables.set(index, new Table(file, name, ""));
-        ids.set(index, new Integer(file.getId()));
-        names.set(index, name);
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table table = byId.get(tableid);
+        if (table == null)
+            throw new NoSuchElementException("no table with id " + tableid);
+        return table;
     }
 
     /**
@@ -120,14 +105,10 @@ public class Catalog {
      */
     public int getTableId(String name) {
         // some code goes here
-        Iterator<Table> it = this.iterator();
-        while(it.hasNext()) {
-            Table table = it.next();
-            if (table.name.equals(name)) {
-                return table.file.getId();
-            }
-        }
-        throw new NoSuchElementException();
+        Table table = name == null ? null : byName.get(name);
+        if (table == null)
+            throw new NoSuchElementException("no table named " + name);
+        return table.file.getId();
     }
 
     /**
@@ -138,14 +119,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) {
         // some code goes here
-        Iterator<Table> it = this.iterator();
-        while (it.hasNext()) {
-            Table table = it.next();
-            if (table.file.getId() == tableid) {
-                return table.file.getTupleDesc();
-            }
-        }
-        throw new NoSuchElementException();
+        return getTable(tableid).file.getTupleDesc();
     }
 
     /**
@@ -156,53 +130,67 @@ public class Catalog {
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        Iterator<Table> it = this.iterator();
-        while (it.hasNext()) {
-            Table table = it.next();
-            if (table.file.getId() == tableid) {
-                return table.file;
-            }
-        }
-        throw new NoSuchElementException();
+        return getTable(tableid).file;
     }
 
     public String getPrimaryKey(int tableid) {
         // some code goes here
-        Iterator<Table> it = this.iterator();
-        while (it.hasNext()) {
-            Table table = it.next();
-            if (table.file.getId() == tableid) {
-                return table.pkeyField;
-            }
+        return getTable(tableid).pkeyField;
+    }
+
+    /**
+     * Add a secondary index to the catalog. The BTreeFile holding its entries
+     * is added as a table under the given name, and the index is maintained by
+     * every subsequent insert into or delete from the indexed table.
+     * @param index the index to add
+     * @param name the name of the table holding the index entries
+     */
+    public void addIndex(SecondaryIndex index, String name) {
+        addTable(index.getFile(), name);
+        List<SecondaryIndex> list = indexes.get(index.getTableId());
+        if (list == null) {
+            list = new CopyOnWriteArrayList<SecondaryIndex>();
+            List<SecondaryIndex> prev = indexes.putIfAbsent(index.getTableId(), list);
+            if (prev != null)
+                list = prev;
         }
-        throw new NoSuchElementException();
+        list.add(index);
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table, or an empty list
+     * if it has none.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> list = indexes.get(tableid);
+        return list == null ? Collections.<SecondaryIndex>emptyList() : list;
     }
 
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
-        return null;
+        return byId.keySet().iterator();
     }
 
     public String getTableName(int id) {
         // some code goes here
-        Iterator<Table> it = this.iterator();
-        while (it.hasNext()) {
-            Table table = it.next();
-            if (table.file.getId() == id) {
-                return table.name;
-            }
-        }
-        throw new NoSuchElementException();
+        return getTable(id).name;
     }
     
     /** Delete all tables from the catalog */
-    public void clear() {
+    public synchronized void clear() {
         // some code goes here
-        this.tables.clear();
+        this.byId.clear();
+        this.byName.clear();
+        this.indexes.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form name (field type [pk], ...) [compressed]; a
+     * table marked compressed stores its pages in the format of a
+     * CompressedPageFile.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -240,10 +228,19 @@ public class Catalog {
                         }
                     }
                 }
+                //表选项在括号之后, 目前只有compressed: 按压缩格式存储页面
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                boolean compressed = false;
+                if (options.toLowerCase().equals("compressed"))
+                    compressed = true;
+                else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, compressed);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -255,5 +252,139 @@ public class Catalog {
             System.exit(0);
         }
     }
-}
 
+    //二进制catalog文件的格式版本, 以及每个表的存储格式
+    private static final int CATALOG_MAGIC = 0x53444243;
+    private static final int CATALOG_VERSION = 1;
+    private static final int HEAP = 0, COMPRESSED_HEAP = 1, COLUMNAR = 2, SLOTTED = 3, BTREE = 4, HASH = 5;
+
+    /**
+     * Writes the catalog to a binary file that {@link #loadCatalog} reads
+     * back: for each table its name, primary key, schema, storage format and
+     * data file, and its TableStats if they have been computed, so that a
+     * database can be opened without parsing a schema or rescanning tables
+     * for statistics. Data files in the same folder as the catalog file are
+     * stored by name, so the folder can be moved. Secondary indexes are not
+     * saved.
+     * @param catalogFile the file to write
+     */
+    public void saveCatalog(String catalogFile) throws IOException {
+        File base = new File(catalogFile).getAbsoluteFile().getParentFile();
+        ArrayList<Table> tables = new ArrayList<Table>(byId.values());
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(catalogFile)));
+        try {
+            dos.writeInt(CATALOG_MAGIC);
+            dos.writeInt(CATALOG_VERSION);
+            dos.writeInt(tables.size());
+            for (Table table : tables) {
+                File f;
+                int kind;
+                int key = -1;
+                if (table.file instanceof HeapFile) {
+                    f = ((HeapFile) table.file).getFile();
+                    kind = ((HeapFile) table.file).isCompressed() ? COMPRESSED_HEAP : HEAP;
+                } else if (table.file instanceof ColumnarHeapFile) {
+                    f = ((ColumnarHeapFile) table.file).getFile();
+                    kind = COLUMNAR;
+                } else if (table.file instanceof SlottedHeapFile) {
+                    f = ((SlottedHeapFile) table.file).getFile();
+                    kind = SLOTTED;
+                } else if (table.file instanceof BTreeFile) {
+                    f = ((BTreeFile) table.file).getFile();
+                    kind = BTREE;
+                    key = ((BTreeFile) table.file).keyField();
+                } else if (table.file instanceof HashIndexFile) {
+                    f = ((HashIndexFile) table.file).getFile();
+                    kind = HASH;
+                    key = ((HashIndexFile) table.file).keyField();
+                } else {
+                    throw new IOException("cannot save table " + table.name + " of type "
+                            + table.file.getClass().getSimpleName());
+                }
+                f = f.getAbsoluteFile();
+                dos.writeUTF(table.name);
+                dos.writeUTF(table.pkeyField == null ? "" : table.pkeyField);
+                dos.writeByte(kind);
+                dos.writeInt(key);
+                dos.writeUTF(base.equals(f.getParentFile()) ? f.getName() : f.getPath());
+                TupleDesc td = table.file.getTupleDesc();
+                dos.writeInt(td.numFields());
+                for (int i = 0; i < td.numFields(); i++) {
+                    dos.writeByte(td.getFieldType(i).ordinal());
+                    dos.writeBoolean(td.getFieldName(i) != null);
+                    if (td.getFieldName(i) != null)
+                        dos.writeUTF(td.getFieldName(i));
+                }
+                TableStats stats = TableStats.getTableStats(table.name);
+                dos.writeBoolean(stats != null);
+                if (stats != null)
+                    stats.write(dos);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Reads a catalog written by {@link #saveCatalog}, adding its tables to
+     * this catalog and their statistics to TableStats. The files of heap
+     * file tables, compressed or not, are not opened until their pages are
+     * first read, and are kept open through {@link Database#getFileHandles}
+     * within its limit on open files. Columnar, slotted, B+ tree and hash
+     * index files are opened as they are loaded, and do not count toward
+     * that limit.
+     * @param catalogFile the file to read
+     * @throws IOException if the file cannot be read or is not a catalog
+     */
+    public void loadCatalog(String catalogFile) throws IOException {
+        File base = new File(catalogFile).getAbsoluteFile().getParentFile();
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile)));
+        try {
+            if (dis.readInt() != CATALOG_MAGIC || dis.readInt() != CATALOG_VERSION)
+                throw new IOException(catalogFile + " is not a catalog file");
+            int n = dis.readInt();
+            for (int t = 0; t < n; t++) {
+                String name = dis.readUTF();
+                String pkey = dis.readUTF();
+                int kind = dis.readByte();
+                int key = dis.readInt();
+                File f = new File(dis.readUTF());
+                if (!f.isAbsolute())
+                    f = new File(base, f.getPath());
+                Type[] types = new Type[dis.readInt()];
+                String[] names = new String[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = Type.values()[dis.readByte()];
+                    names[i] = dis.readBoolean() ? dis.readUTF() : null;
+                }
+                TupleDesc td = new TupleDesc(types, names);
+                DbFile file;
+                switch (kind) {
+                case HEAP:
+                case COMPRESSED_HEAP:
+                    file = new HeapFile(f, td, kind == COMPRESSED_HEAP);
+                    break;
+                case COLUMNAR:
+                    file = new ColumnarHeapFile(f, td);
+                    break;
+                case SLOTTED:
+                    file = new SlottedHeapFile(f, td);
+                    break;
+                case BTREE:
+                    file = new BTreeFile(f, key, td);
+                    break;
+                case HASH:
+                    file = new HashIndexFile(f, key, td);
+                    break;
+                default:
+                    throw new IOException("unknown storage format " + kind + " of table " + name);
+                }
+                addTable(file, name, pkey);
+                if (dis.readBoolean())
+                    TableStats.setTableStats(name, TableStats.read(dis, td));
+            }
+        } finally {
+            dis.close();
+        }
+    }
+}
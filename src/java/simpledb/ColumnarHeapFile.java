@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnarHeapFile is an implementation of a DbFile that stores a collection
+ * of tuples in no particular order, like a HeapFile, but on PaxPages, which
+ * group the values on each page by field. Pages are identified by
+ * HeapPageIds, so the BufferPool, SeqScan and the log treat a
+ * ColumnarHeapFile like a HeapFile. Scans that only read a few fields of a
+ * wide table decode much less data than on a HeapFile.
+ * <p>
+ * A ColumnarHeapFile can be created from a heap file with
+ * {@link HeapFileEncoder#convertToColumnar}.
+ *
+ * @see PaxPage
+ */
+public class ColumnarHeapFile implements DbFile {
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final TupleDesc td;
+
+    /**
+     * Constructs a columnar heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     */
+    public ColumnarHeapFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        try {
+            this.raf = new RandomAccessFile(f, "rw");
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("file not found", e);
+        }
+    }
+
+    /**
+     * Returns the File backing this ColumnarHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnarHeapFile, the hash of
+     * the absolute file name of the file underlying it.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            raf.getChannel().read(ByteBuffer.wrap(data),
+                    (long) pid.pageNumber() * BufferPool.getPageSize());
+            return new PaxPage(new HeapPageId(getId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        raf.getChannel().write(ByteBuffer.wrap(page.getPageData()),
+                (long) page.getId().pageNumber() * BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of pages in this ColumnarHeapFile.
+     */
+    public int numPages() {
+        try {
+            return (int) (raf.length() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> modified = new ArrayList<Page>();
+        for (int i = 0; i < numPages(); i++) {
+            PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() == 0)
+                continue;
+            page.insertTuple(t);
+            page.markDirty(true, tid);
+            modified.add(page);
+            return modified;
+        }
+        HeapPageId pid = new HeapPageId(getId(), numPages());
+        raf.getChannel().write(ByteBuffer.wrap(PaxPage.createEmptyPageData()),
+                (long) pid.pageNumber() * BufferPool.getPageSize());
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        page.markDirty(true, tid);
+        modified.add(page);
+        return modified;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || rid.getPageId().pageNumber() >= numPages())
+            throw new DbException("tuple is not in this table");
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(page);
+        return modified;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new ColumnarFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over all the tuples in this file that only decodes
+     * the specified fields from each page. The i-th field of the returned
+     * tuples is field fields[i] of this file's TupleDesc.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param fields the indexes of the fields to read, or null for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return new ColumnarFileIterator(tid, fields);
+    }
+
+    /**
+     * @return the TupleDesc of the tuples returned by
+     *         {@link #iterator(TransactionId, int[])} for the given fields
+     */
+    public TupleDesc getProjectedTupleDesc(int[] fields) {
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Iterates over the pages of the file in order, reading the pages ahead
+     * of the scan like the HeapFile iterator does.
+     */
+    private class ColumnarFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final int[] fields;
+        private final TupleDesc projectedTd;
+
+        private Iterator<Tuple> it = null;
+        private int pgNo;
+        private int numPages;
+        // pages numbered below readAheadTo have been requested already
+        private int readAheadTo;
+
+        ColumnarFileIterator(TransactionId tid, int[] fields) {
+            this.tid = tid;
+            this.fields = fields;
+            this.projectedTd = fields == null ? null : getProjectedTupleDesc(fields);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            numPages = numPages();
+            readAheadTo = 0;
+            pgNo = -1;
+            it = Collections.<Tuple>emptyIterator();
+        }
+
+        private void readAhead() {
+            int window = Database.getBufferPool().readAheadWindow();
+            if (pgNo == 0 || window == 0 || pgNo + window / 2 < readAheadTo)
+                return;
+            int end = Math.min(numPages, pgNo + 1 + window);
+            ArrayList<HeapPageId> pids = new ArrayList<HeapPageId>();
+            for (int i = Math.max(readAheadTo, pgNo + 1); i < end; i++)
+                pids.add(new HeapPageId(getId(), i));
+            readAheadTo = end;
+            if (!pids.isEmpty())
+                Database.getBufferPool().prefetchPages(pids);
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (it == null)
+                return null;
+            while (!it.hasNext()) {
+                if (pgNo + 1 >= numPages) {
+                    numPages = numPages();
+                    if (pgNo + 1 >= numPages)
+                        return null;
+                }
+                pgNo++;
+                PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pgNo), Permissions.READ_ONLY);
+                it = fields == null ? page.iterator() : page.iterator(fields, projectedTd);
+                readAhead();
+            }
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            it = null;
+        }
+    }
+}
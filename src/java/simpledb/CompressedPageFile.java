@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * CompressedPageFile stores the pages of a compressed HeapFile, each encoded
+ * by a PageCompressor, so that a page takes only as many bytes on disk as
+ * its compressed form.
+ * <p>
+ * The file is a sequence of records, one per page: the page number, the
+ * capacity of the record, the length of the compressed page, and capacity
+ * bytes holding it. A page that is written again is overwritten in place if
+ * it still fits in its record; otherwise a new record, a quarter larger
+ * than the page, is appended, and only then is the old record marked dead
+ * (page number -1). The page directory is rebuilt by reading the record
+ * headers when the file is opened: the last record of a page wins, and a
+ * record cut off by the end of the file is ignored, so a failure while a
+ * page moves leaves one of its two copies.
+ * <p>
+ * The file is opened through {@link Database#getFileHandles}, so it counts
+ * toward the limit on open files and may be closed while it is not in use.
+ *
+ * @see PageCompressor
+ * @see HeapFile
+ */
+public class CompressedPageFile {
+
+    // page number, capacity and length
+    private static final int RECORD_HEADER = 12;
+
+    private final File file;
+    private final PageCompressor compressor;
+    private final int pageSize;
+
+    // offset and capacity of the record of each page, or -1 if the page has
+    // no record
+    private long[] offsets = new long[16];
+    private int[] capacities = new int[16];
+    private int numPages = 0;
+    private long end = 0;
+
+    /**
+     * Opens a compressed page file, creating it if it does not exist.
+     *
+     * @param f the file to store the pages in
+     * @param types the types of the fields of the table
+     * @param pageSize the size of the pages before compression
+     */
+    public CompressedPageFile(File f, Type[] types, int pageSize) throws IOException {
+        this.file = f;
+        this.compressor = new PageCompressor(types);
+        this.pageSize = pageSize;
+        Arrays.fill(offsets, -1);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        RandomAccessFile raf = Database.getFileHandles().acquire(this, file);
+        try {
+            long length = raf.length();
+            while (end + RECORD_HEADER <= length) {
+                header.clear();
+                raf.getChannel().read(header, end);
+                int pgNo = header.getInt(0);
+                int capacity = header.getInt(4);
+                if (capacity < 0 || end + RECORD_HEADER + capacity > length)
+                    break;
+                if (pgNo >= 0)
+                    setRecord(pgNo, end, capacity);
+                end += RECORD_HEADER + capacity;
+            }
+        } finally {
+            Database.getFileHandles().release(this);
+        }
+    }
+
+    private void setRecord(int pgNo, long offset, int capacity) {
+        if (pgNo >= offsets.length) {
+            int n = Math.max(2 * offsets.length, pgNo + 1);
+            int old = offsets.length;
+            offsets = Arrays.copyOf(offsets, n);
+            capacities = Arrays.copyOf(capacities, n);
+            Arrays.fill(offsets, old, n, -1);
+        }
+        offsets[pgNo] = offset;
+        capacities[pgNo] = capacity;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /**
+     * @return the number of pages in the file
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the total size in bytes of the file on disk
+     */
+    public synchronized long diskSize() {
+        return end;
+    }
+
+    /**
+     * Read and decompress a page.
+     *
+     * @return the bytes of the page, or the bytes of an empty page if the
+     *         page has never been written
+     */
+    public byte[] readPage(int pgNo) throws IOException {
+        byte[] data;
+        synchronized (this) {
+            long offset = pgNo < numPages ? offsets[pgNo] : -1;
+            if (offset < 0)
+                return new byte[pageSize];
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            RandomAccessFile raf = Database.getFileHandles().acquire(this, file);
+            try {
+                raf.getChannel().read(header, offset);
+                data = new byte[header.getInt(8)];
+                raf.getChannel().read(ByteBuffer.wrap(data), offset + RECORD_HEADER);
+            } finally {
+                Database.getFileHandles().release(this);
+            }
+        }
+        return compressor.decompress(data, pageSize);
+    }
+
+    /**
+     * Compress and write a page.
+     *
+     * @param pgNo the number of the page
+     * @param page the bytes of the page
+     */
+    public void writePage(int pgNo, byte[] page) throws IOException {
+        byte[] data = compressor.compress(page);
+        synchronized (this) {
+            RandomAccessFile raf = Database.getFileHandles().acquire(this, file);
+            try {
+                writeRecord(raf, pgNo, data);
+            } finally {
+                Database.getFileHandles().release(this);
+            }
+        }
+    }
+
+    // writes the compressed page data as the record of page pgNo
+    private void writeRecord(RandomAccessFile raf, int pgNo, byte[] data) throws IOException {
+        long offset = pgNo < numPages ? offsets[pgNo] : -1;
+        if (offset >= 0 && data.length <= capacities[pgNo]) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            header.putInt(pgNo).putInt(capacities[pgNo]).putInt(data.length).flip();
+            raf.getChannel().write(header, offset);
+            raf.getChannel().write(ByteBuffer.wrap(data), offset + RECORD_HEADER);
+            return;
+        }
+        // a page that outgrew its record is being updated, so leave room
+        // for it to grow a little before it moves again
+        int capacity = offset >= 0 ? data.length + data.length / 4 : data.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + capacity);
+        record.putInt(pgNo).putInt(capacity).putInt(data.length).put(data).clear();
+        raf.getChannel().write(record, end);
+        if (offset >= 0) {
+            // the old record is too small: mark it dead once the new
+            // one is written, which wins over it when the file is opened
+            raf.getChannel().write(ByteBuffer.wrap(new byte[]{-1, -1, -1, -1}), offset);
+        }
+        setRecord(pgNo, end, capacity);
+        end += RECORD_HEADER + capacity;
+    }
+
+    /**
+     * Close the underlying file if it is open.
+     */
+    public void close() {
+        Database.getFileHandles().close(this);
+    }
+}
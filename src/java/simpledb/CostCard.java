@@ -3,6 +3,9 @@ import java.util.Vector;
 
 /** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
     cost and cardinality of the optimal plan represented by plan.
+    <p>
+    A plan may also be a tree: a base table, with no join, or the join of
+    two smaller plans, left and right, which need not be base tables.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
@@ -11,4 +14,16 @@ public class CostCard {
     public int card;
     /** The optimal subplan */
     public Vector<LogicalJoinNode> plan;
+    /** The outer subplan of join, or null for a base table */
+    public CostCard left;
+    /** The inner subplan of join, or null for a base table */
+    public CostCard right;
+    /** The join of left and right, with its t1Alias in left, or null for a base table */
+    public LogicalJoinNode join;
+    /** Whether join is costed as an {@link IndexNestedLoopJoin} rather than a nested-loop {@link Join} */
+    public boolean indexJoin;
+    /** Whether one of the joins of the subplan is on a primary key */
+    public boolean hasPkey;
+    /** The tables of the subplan, as a bitmask of their numbers in the join graph */
+    long tables;
 }
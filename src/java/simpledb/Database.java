@@ -22,6 +22,9 @@ public class Database {
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
+    // shared by every instance, so files stay bounded across reset()
+    private static final FileHandlePool _files = new FileHandlePool(FileHandlePool.DEFAULT_MAX_OPEN);
+
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
@@ -46,6 +49,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the pool of open table files */
+    public static FileHandlePool getFileHandles() {
+        return _files;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
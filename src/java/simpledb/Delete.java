@@ -14,6 +14,8 @@ public class Delete extends Operator {
     private DbIterator child;
     private int count;
     private boolean completed;
+    // the single count field of the result
+    private final TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE});
     /**
      * Constructor specifying the transaction that this delete belongs to as
      * well as the child to read from.
@@ -33,7 +35,7 @@ public class Delete extends Operator {
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return new TupleDesc(new Type[]{Type.INT_TYPE});
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
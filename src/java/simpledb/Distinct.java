@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Distinct returns each distinct tuple of its child once, comparing all of
+ * their fields, as SELECT DISTINCT does. Tuples are returned as soon as they
+ * are first seen, so the first results arrive without reading the whole
+ * child.
+ * <p>
+ * The tuples seen are kept in an open addressing hash table of 64-bit
+ * fingerprints of their fields, next to the tuples themselves; a tuple is
+ * only compared field by field with those that have the same fingerprint.
+ * At most maxTuples tuples are kept. Once there are that many, a tuple that
+ * is not in the table is written to one of several spill files chosen by
+ * its fingerprint, and after the child is exhausted the distinct tuples of
+ * each spill file are returned in turn. All copies of a tuple are thus in
+ * the table or in a single spill file.
+ */
+public class Distinct extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    // spill files are not split again after this many levels
+    private static final int MAX_LEVEL = 4;
+
+    private DbIterator child;
+    private final int maxTuples;
+    private final int level;
+
+    // the fingerprint of each slot, and the tuple in it, or null
+    private long[] fingerprints;
+    private Tuple[] seen;
+    private int size;
+    private boolean childDone;
+    private SpillFile[] spills;
+    // the Distinct of the spill file being returned, and the next one
+    private Distinct spillDistinct;
+    private int nextSpill;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     */
+    public Distinct(DbIterator child) {
+        this(child, SpillingAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for a Distinct that holds at most maxTuples tuples in
+     * memory.
+     *
+     * @param maxTuples
+     *            the number of distinct tuples to hold in memory; other
+     *            tuples are spilled to disk
+     * @see #Distinct(DbIterator)
+     */
+    public Distinct(DbIterator child, int maxTuples) {
+        this(child, maxTuples, 0);
+    }
+
+    private Distinct(DbIterator child, int maxTuples, int level) {
+        this.child = child;
+        this.maxTuples = Math.max(maxTuples, 1);
+        this.level = level;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        super.open();
+        reset();
+    }
+
+    private void reset() {
+        deleteSpills();
+        fingerprints = new long[64];
+        seen = new Tuple[64];
+        size = 0;
+        childDone = false;
+        nextSpill = 0;
+    }
+
+    private long fingerprint(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        long h = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < td.numFields(); i++) {
+            int v = td.getFieldType(i) == Type.INT_TYPE ? t.getInt(i) : t.getField(i).hashCode();
+            h = (h ^ v) * 0xff51afd7ed558ccdL;
+            h ^= h >>> 32;
+        }
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static boolean sameFields(Tuple a, Tuple b) {
+        TupleDesc td = a.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                if (a.getInt(i) != b.getInt(i))
+                    return false;
+            } else if (!a.getField(i).equals(b.getField(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the slot of a tuple equal to t, or the empty slot it would go in
+    private int slot(long fp, Tuple t) {
+        int mask = seen.length - 1;
+        int i = (int) fp & mask;
+        while (seen[i] != null && (fingerprints[i] != fp || !sameFields(seen[i], t)))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldFingerprints = fingerprints;
+        Tuple[] oldSeen = seen;
+        fingerprints = new long[2 * oldSeen.length];
+        seen = new Tuple[2 * oldSeen.length];
+        int mask = seen.length - 1;
+        for (int j = 0; j < oldSeen.length; j++) {
+            if (oldSeen[j] == null)
+                continue;
+            int i = (int) oldFingerprints[j] & mask;
+            while (seen[i] != null)
+                i = (i + 1) & mask;
+            fingerprints[i] = oldFingerprints[j];
+            seen[i] = oldSeen[j];
+        }
+    }
+
+    private void spill(Tuple t, long fp) throws IOException {
+        if (spills == null)
+            spills = new SpillFile[SpillingAggregator.PARTITIONS];
+        int h = ((int) (fp >>> 32) ^ (level * 0x9E3779B9)) * 0x85EBCA6B;
+        h ^= h >>> 15;
+        int p = Math.floorMod(h, spills.length);
+        if (spills[p] == null)
+            spills[p] = new SpillFile(getTupleDesc());
+        spills[p].add(t);
+    }
+
+    /**
+     * Returns the next tuple of the child that has not been returned yet,
+     * and then the distinct tuples of each spill file.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException, TransactionAbortedException, DbException {
+        while (!childDone) {
+            if (!child.hasNext()) {
+                childDone = true;
+                break;
+            }
+            Tuple t = child.next();
+            long fp = fingerprint(t);
+            int i = slot(fp, t);
+            if (seen[i] != null)
+                continue;
+            if (size >= maxTuples && level < MAX_LEVEL) {
+                try {
+                    spill(t, fp);
+                } catch (IOException e) {
+                    deleteSpills();
+                    throw new DbException("failed to spill distinct tuples: " + e);
+                }
+                continue;
+            }
+            fingerprints[i] = fp;
+            seen[i] = t;
+            if (++size * 2 > seen.length)
+                grow();
+            return t;
+        }
+        // the tuples held are no longer needed
+        fingerprints = null;
+        seen = null;
+        while (true) {
+            if (spillDistinct != null && spillDistinct.hasNext())
+                return spillDistinct.next();
+            closeSpillDistinct();
+            while (spills != null && nextSpill < spills.length && spills[nextSpill] == null)
+                nextSpill++;
+            if (spills == null || nextSpill == spills.length)
+                return null;
+            DbIterator spilled;
+            try {
+                spilled = spills[nextSpill++].iterator();
+            } catch (IOException e) {
+                throw new DbException("failed to read spilled distinct tuples: " + e);
+            }
+            spillDistinct = new Distinct(spilled, maxTuples, level + 1);
+            spillDistinct.open();
+        }
+    }
+
+    private void closeSpillDistinct() {
+        if (spillDistinct != null)
+            spillDistinct.close();
+        spillDistinct = null;
+    }
+
+    private void deleteSpills() {
+        closeSpillDistinct();
+        if (spills == null)
+            return;
+        for (SpillFile f : spills) {
+            if (f != null)
+                f.delete();
+        }
+        spills = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        reset();
+    }
+
+    public void close() {
+        super.close();
+        deleteSpills();
+        fingerprints = null;
+        seen = null;
+        child.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
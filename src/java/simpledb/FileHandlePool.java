@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * FileHandlePool keeps a bounded number of RandomAccessFiles open on behalf
+ * of the DbFiles of the catalog, so that a database with thousands of tables
+ * does not open a file per table at startup, nor hold that many open.
+ * <p>
+ * A file is opened the first time its owner acquires it, and stays open
+ * until it is the least recently used of more than maxOpen open files.
+ * Acquired files are pinned and are never closed until they are released,
+ * so the pool may briefly hold more than maxOpen files if they are all in
+ * use. Handles are kept per owner, not per path, so a DbFile created for a
+ * file that was deleted and written again opens the new file.
+ *
+ * @see Database#getFileHandles
+ * @Threadsafe
+ */
+public class FileHandlePool {
+
+    /** Default number of files kept open. */
+    public static final int DEFAULT_MAX_OPEN = 256;
+
+    private static class Handle {
+        final RandomAccessFile raf;
+        int pins = 0;
+
+        Handle(RandomAccessFile raf) {
+            this.raf = raf;
+        }
+    }
+
+    private final int maxOpen;
+    // open files by owner, least recently used first
+    private final LinkedHashMap<Object, Handle> open =
+            new LinkedHashMap<Object, Handle>(16, 0.75f, true);
+
+    /**
+     * @param maxOpen the number of files to keep open when they are not in
+     *        use
+     */
+    public FileHandlePool(int maxOpen) {
+        this.maxOpen = Math.max(maxOpen, 1);
+    }
+
+    /**
+     * Return the open file of owner, opening f for reading and writing (and
+     * creating it) if it is not open. Every call must be followed by a call
+     * to {@link #release}.
+     *
+     * @param owner the object the file is opened for, usually a DbFile
+     * @param f the file to open
+     */
+    public synchronized RandomAccessFile acquire(Object owner, File f) throws IOException {
+        Handle h = open.get(owner);
+        if (h == null) {
+            evict(maxOpen - 1);
+            h = new Handle(new RandomAccessFile(f, "rw"));
+            open.put(owner, h);
+        }
+        h.pins++;
+        return h.raf;
+    }
+
+    /**
+     * Unpin the file of owner, allowing it to be closed when it is evicted.
+     */
+    public synchronized void release(Object owner) {
+        Handle h = open.get(owner);
+        if (h != null && h.pins > 0)
+            h.pins--;
+    }
+
+    /**
+     * Close the file of owner if it is open and not in use.
+     */
+    public synchronized void close(Object owner) {
+        Handle h = open.get(owner);
+        if (h != null && h.pins == 0) {
+            open.remove(owner);
+            closeQuietly(h);
+        }
+    }
+
+    /**
+     * @return the number of files currently open
+     */
+    public synchronized int numOpen() {
+        return open.size();
+    }
+
+    // close unpinned files, least recently used first, until at most n are open
+    private void evict(int n) {
+        Iterator<Handle> it = open.values().iterator();
+        while (open.size() > n && it.hasNext()) {
+            Handle h = it.next();
+            if (h.pins == 0) {
+                it.remove();
+                closeQuietly(h);
+            }
+        }
+    }
+
+    private static void closeQuietly(Handle h) {
+        try {
+            h.raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
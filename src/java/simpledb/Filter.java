@@ -12,6 +12,8 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
 
     private Predicate p;
+    // compares two fields of each tuple instead, if p is null
+    private JoinPredicate jp;
     private DbIterator child;
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -28,6 +30,25 @@ public class Filter extends Operator {
         this.child = child;
     }
 
+    /**
+     * Constructor for a filter that compares two fields of each tuple, such
+     * as a join predicate between two tables that child has already joined.
+     *
+     * @param jp
+     *            The predicate to filter tuples with; field1 and field2 are
+     *            both fields of the child's tuples
+     * @param child
+     *            The child operator
+     */
+    public Filter(JoinPredicate jp, DbIterator child) {
+        this.jp = jp;
+        this.child = child;
+    }
+
+    /**
+     * @return the predicate, or null if this filter compares two fields of
+     *         each tuple
+     */
     public Predicate getPredicate() {
         // some code goes here
         return this.p;
@@ -70,7 +91,7 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()) {
             Tuple tuple = child.next();
-            if (p.filter(tuple)) {
+            if (p != null ? p.filter(tuple) : jp.filter(tuple, tuple)) {
                 return tuple;
             }
         }
@@ -0,0 +1,274 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashBucketPage stores the tuples of one bucket of a HashIndexFile. A bucket
+ * is a primary page reached through the directory, followed by a chain of
+ * overflow pages when more tuples hash to it than fit on one page and
+ * splitting the bucket cannot separate them.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage extends HashPage {
+
+	private final TupleDesc td;
+	private final int keyField;
+	private final int numSlots;
+	private final byte header[];
+	private final Tuple tuples[];
+	// HashIndexFile.hash of the key of the tuple in each used slot, so that
+	// lookups compare ints and only call equals on likely matches
+	private final int keyHashes[];
+
+	private int localDepth;
+	private int overflowPage; // next page of the bucket or 0
+
+	/**
+	 * Create a HashBucketPage from a set of bytes of data read from disk.
+	 * The format of a HashBucketPage is the local depth of the bucket, the
+	 * page number of the next overflow page (0 if there is none), a set of
+	 * header bytes indicating the slots of the page that are in use, and the
+	 * tuple slots, as on a HeapPage.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param key - the field which the file is hashed on
+	 */
+	public HashBucketPage(HashPageId id, byte[] data, int key) throws IOException {
+		super(id);
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.keyField = key;
+		this.numSlots = getMaxTuples(td);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		localDepth = dis.readInt();
+		overflowPage = dis.readInt();
+
+		header = new byte[getHeaderSize()];
+		for (int i = 0; i < header.length; i++)
+			header[i] = dis.readByte();
+
+		tuples = new Tuple[numSlots];
+		keyHashes = new int[numSlots];
+		try {
+			for (int i = 0; i < tuples.length; i++) {
+				tuples[i] = readNextTuple(dis, i);
+				if (tuples[i] != null)
+					keyHashes[i] = HashIndexFile.hash(tuples[i].getField(keyField));
+			}
+		} catch (NoSuchElementException e) {
+			e.printStackTrace();
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	protected HashPage parse(byte[] data) throws IOException {
+		return new HashBucketPage(pid, data, keyField);
+	}
+
+	/**
+	 * @return the number of tuples that fit on a bucket page of a table with
+	 *         the given TupleDesc
+	 */
+	public static int getMaxTuples(TupleDesc td) {
+		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+		// localDepth and overflowPage take 2 ints
+		int extraBits = 2 * INDEX_SIZE * 8;
+		return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerTupleIncludingHeader;
+	}
+
+	private int getHeaderSize() {
+		return (numSlots + 7) / 8;
+	}
+
+	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+		if (!isSlotUsed(slotId)) {
+			for (int i = 0; i < td.getSize(); i++) {
+				try {
+					dis.readByte();
+				} catch (IOException e) {
+					throw new NoSuchElementException("error reading empty tuple");
+				}
+			}
+			return null;
+		}
+
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slotId));
+		try {
+			for (int j = 0; j < td.numFields(); j++)
+				t.setField(j, td.getFieldType(j).parse(dis));
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+		return t;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 * <p>
+	 * The invariant here is that it should be possible to pass the byte
+	 * array generated by getPageData to the HashBucketPage constructor and
+	 * have it produce an identical HashBucketPage object.
+	 *
+	 * @see #HashBucketPage
+	 * @return A byte array correspond to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(localDepth);
+			dos.writeInt(overflowPage);
+			dos.write(header);
+			for (int i = 0; i < tuples.length; i++) {
+				if (!isSlotUsed(i)) {
+					dos.write(new byte[td.getSize()]);
+					continue;
+				}
+				for (int j = 0; j < td.numFields(); j++)
+					tuples[i].getField(j).serialize(dos);
+			}
+			dos.write(new byte[len - 2 * INDEX_SIZE - header.length - td.getSize() * tuples.length]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/** @return the number of hash bits shared by all keys in this bucket */
+	public int getLocalDepth() {
+		return localDepth;
+	}
+
+	public void setLocalDepth(int localDepth) {
+		this.localDepth = localDepth;
+	}
+
+	/**
+	 * @return the id of the next overflow page of this bucket, or null if
+	 *         this is the last page of the bucket
+	 */
+	public HashPageId getOverflowId() {
+		if (overflowPage == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), overflowPage, HashPageId.BUCKET);
+	}
+
+	public void setOverflowId(HashPageId id) {
+		overflowPage = id == null ? 0 : id.pageNumber();
+	}
+
+	/**
+	 * Adds the specified tuple to the page; the tuple is updated to reflect
+	 * that it is now stored on this page.
+	 * @throws DbException if the page is full or the tupledesc is mismatched
+	 * @param t The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch, in addition to the page");
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				markSlotUsed(i, true);
+				tuples[i] = t;
+				keyHashes[i] = HashIndexFile.hash(t.getField(keyField));
+				t.setRecordId(new RecordId(pid, i));
+				return;
+			}
+		}
+		throw new DbException("called insertTuple on page with no empty slots.");
+	}
+
+	/**
+	 * Delete the specified tuple from the page; the tuple is updated to
+	 * reflect that it is no longer stored on any page.
+	 * @throws DbException if this tuple is not on this page, or tuple slot is
+	 *         already empty.
+	 * @param t The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !pid.equals(rid.getPageId()))
+			throw new DbException("tried to delete tuple on invalid page or table");
+		if (!isSlotUsed(rid.tupleno()))
+			throw new DbException("tried to delete null tuple.");
+		markSlotUsed(rid.tupleno(), false);
+		tuples[rid.tupleno()] = null;
+		t.setRecordId(null);
+	}
+
+	/**
+	 * Remove every tuple from this page.
+	 * @return the removed tuples
+	 */
+	public ArrayList<Tuple> removeAll() {
+		ArrayList<Tuple> removed = new ArrayList<Tuple>();
+		for (int i = 0; i < numSlots; i++) {
+			if (isSlotUsed(i)) {
+				removed.add(tuples[i]);
+				markSlotUsed(i, false);
+				tuples[i] = null;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Add the tuples on this page whose key equals the given key to result.
+	 *
+	 * @param key - the key to look for
+	 * @param h - HashIndexFile.hash(key)
+	 * @param result - the list to add the matching tuples to
+	 */
+	public void findTuples(Field key, int h, List<Tuple> result) {
+		for (int i = 0; i < numSlots; i++) {
+			if (keyHashes[i] == h && isSlotUsed(i) && tuples[i].getField(keyField).equals(key))
+				result.add(tuples[i]);
+		}
+	}
+
+	/**
+	 * Returns the number of empty slots on this page.
+	 */
+	public int getNumEmptySlots() {
+		int cnt = 0;
+		for (int i = 0; i < numSlots; i++)
+			if (!isSlotUsed(i))
+				cnt++;
+		return cnt;
+	}
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		return (header[i / 8] & (1 << (i % 8))) != 0;
+	}
+
+	private void markSlotUsed(int i, boolean value) {
+		if (value)
+			header[i / 8] |= 1 << (i % 8);
+		else
+			header[i / 8] &= (0xFF ^ (1 << (i % 8)));
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator() {
+		ArrayList<Tuple> used = new ArrayList<Tuple>();
+		for (int i = 0; i < numSlots; i++)
+			if (isSlotUsed(i))
+				used.add(tuples[i]);
+		return Collections.unmodifiableList(used).iterator();
+	}
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage stores a run of consecutive entries of the extendible
+ * hashing directory of a HashIndexFile. Each entry is the page number of the
+ * primary bucket page for the hash values ending in the entry's index.
+ *
+ * @see HashIndexFile
+ */
+public class HashDirectoryPage extends HashPage {
+
+	private final int[] entries;
+
+	/**
+	 * Create a HashDirectoryPage from a set of bytes of data read from disk.
+	 * The format of a HashDirectoryPage is getNumEntries() bucket page numbers.
+	 */
+	public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+		super(id);
+		entries = new int[getNumEntries()];
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		for (int i = 0; i < entries.length; i++)
+			entries[i] = dis.readInt();
+		dis.close();
+		setBeforeImage();
+	}
+
+	protected HashPage parse(byte[] data) throws IOException {
+		return new HashDirectoryPage(pid, data);
+	}
+
+	/**
+	 * @return the number of directory entries on each directory page
+	 */
+	public static int getNumEntries() {
+		return BufferPool.getPageSize() / INDEX_SIZE;
+	}
+
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			for (int e : entries)
+				dos.writeInt(e);
+			dos.write(new byte[BufferPool.getPageSize() - entries.length * INDEX_SIZE]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/** @return the page number of the bucket in entry i of this page */
+	public int getBucket(int i) {
+		return entries[i];
+	}
+
+	public void setBucket(int i, int pageNo) {
+		entries[i] = pageNo;
+	}
+}
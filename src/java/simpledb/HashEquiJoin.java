@@ -131,16 +131,8 @@ public class HashEquiJoin extends Operator {
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        // combined tuple, sharing the slots of both tuples
+        return Tuple.merge(t1, t2, comboTD);
 
     }
 
@@ -185,6 +177,7 @@ public class HashEquiJoin extends Operator {
         // some code goes here
         this.child1 = children[0];
         this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
     
 }
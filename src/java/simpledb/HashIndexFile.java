@@ -0,0 +1,611 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * HashIndexFile is an implementation of a DbFile that stores tuples in the
+ * buckets of an extendible hash table on one key field. It answers equality
+ * lookups on the key with one directory page and one bucket page, instead of
+ * the root-to-leaf descent of a BTreeFile, but cannot answer range predicates
+ * any faster than a full scan.
+ * <p>
+ * Page 0 is a HashMetaPage holding the global depth of the directory and the
+ * page numbers of the HashDirectoryPages. Directory entry i points to the
+ * bucket holding the keys whose hash ends in the low global-depth bits of i.
+ * When a bucket fills up it is split in two on the next hash bit, doubling
+ * the directory first if the bucket already uses every bit of it. A bucket
+ * whose keys cannot be separated by splitting, because they are duplicates
+ * or collide in all the bits the directory can use, grows a chain of
+ * overflow pages instead. Buckets are never merged.
+ * <p>
+ * Structural changes hold a file-wide latch exclusively, and lookups hold it
+ * shared, so a lookup never sees a bucket in the middle of a split.
+ *
+ * @see HashMetaPage
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ */
+public class HashIndexFile implements IndexFile {
+
+	private final File f;
+	private final RandomAccessFile raf;
+	private final TupleDesc td;
+	private final int tableid;
+	private final int keyField;
+
+	private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
+	/**
+	 * Constructs a hash index file backed by the specified file, creating an
+	 * empty hash table with a single bucket if the file is empty.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this file
+	 * @param key - the field the tuples are hashed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public HashIndexFile(File f, int key, TupleDesc td) {
+		this.f = f;
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+		try {
+			this.raf = new RandomAccessFile(f, "rw");
+			if (raf.length() == 0)
+				writeEmptyTable();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Writes a meta page, one directory page and one empty bucket. */
+	private void writeEmptyTable() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		// meta page: global depth 0, one directory page at page 1
+		dos.writeInt(0);
+		dos.writeInt(1);
+		dos.writeInt(1);
+		dos.write(new byte[BufferPool.getPageSize() - 3 * Type.INT_TYPE.getLen()]);
+		// directory page: entry 0 points to the bucket at page 2
+		dos.writeInt(2);
+		dos.write(new byte[BufferPool.getPageSize() - Type.INT_TYPE.getLen()]);
+		// empty bucket with local depth 0
+		dos.write(HashPage.createEmptyPageData());
+		dos.flush();
+		raf.getChannel().write(ByteBuffer.wrap(baos.toByteArray()), 0);
+	}
+
+	/**
+	 * Returns the File backing this HashIndexFile on disk.
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashIndexFile, the hash of the
+	 * absolute file name of the file underlying it.
+	 */
+	public int getId() {
+		return tableid;
+	}
+
+	/**
+	 * Returns the TupleDesc of the table stored in this DbFile.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Returns the index of the field that this file is hashed on
+	 */
+	public int keyField() {
+		return keyField;
+	}
+
+	/**
+	 * Returns false: tuples are returned in the order of the buckets
+	 */
+	public boolean isKeyOrdered() {
+		return false;
+	}
+
+	/**
+	 * Returns the number of pages in this HashIndexFile.
+	 */
+	public int numPages() {
+		try {
+			return (int) (raf.length() / BufferPool.getPageSize());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Read a page from the file on disk. This should not be called directly
+	 * but should be called from the BufferPool via getPage()
+	 *
+	 * @param pid - the id of the page to read from disk
+	 * @return the page constructed from the contents on disk
+	 */
+	public Page readPage(PageId pid) {
+		HashPageId id = (HashPageId) pid;
+		byte[] data = new byte[BufferPool.getPageSize()];
+		try {
+			int retval = raf.getChannel().read(ByteBuffer.wrap(data),
+					(long) id.pageNumber() * BufferPool.getPageSize());
+			if (retval < data.length)
+				throw new IllegalArgumentException("Read past end of table");
+			switch (id.pgcateg()) {
+				case HashPageId.META:
+					return new HashMetaPage(id, data);
+				case HashPageId.DIRECTORY:
+					return new HashDirectoryPage(id, data);
+				default:
+					return new HashBucketPage(id, data, keyField);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write a page to disk. This should not be called directly but should
+	 * be called from the BufferPool when pages are flushed to disk
+	 *
+	 * @param page - the page to write to disk
+	 */
+	public void writePage(Page page) throws IOException {
+		raf.getChannel().write(ByteBuffer.wrap(page.getPageData()),
+				(long) page.getId().pageNumber() * BufferPool.getPageSize());
+	}
+
+	/**
+	 * Mixes the hash code of a key so that consecutive integer keys spread
+	 * over the low bits used to index the directory.
+	 */
+	static int hash(Field key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * @return the largest global depth the directory pages listed on the meta
+	 *         page can hold
+	 */
+	private static int maxDepth() {
+		long entries = (long) HashMetaPage.getMaxDirectoryPages() * HashDirectoryPage.getNumEntries();
+		return Math.min(30, 63 - Long.numberOfLeadingZeros(entries));
+	}
+
+	private HashMetaPage getMetaPage(TransactionId tid, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		return (HashMetaPage) Database.getBufferPool().getPage(tid,
+				new HashPageId(tableid, 0, HashPageId.META), perm);
+	}
+
+	private HashBucketPage getBucketPage(TransactionId tid, HashPageId id, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		return (HashBucketPage) Database.getBufferPool().getPage(tid, id, perm);
+	}
+
+	/**
+	 * Fetch a page that is about to be modified, and mark it dirty right away
+	 * so that the buffer pool does not evict it while the operation fetches
+	 * other pages.
+	 */
+	private Page getDirtiedPage(TransactionId tid, PageId id, HashMap<PageId, Page> dirtypages)
+			throws DbException, TransactionAbortedException {
+		Page p = dirtypages.get(id);
+		if (p == null) {
+			p = Database.getBufferPool().getPage(tid, id, Permissions.READ_WRITE);
+			p.markDirty(true, tid);
+			dirtypages.put(id, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Append an empty page of the given category to the file and return it,
+	 * marked dirty.
+	 */
+	private Page allocatePage(TransactionId tid, int pgcateg, HashMap<PageId, Page> dirtypages)
+			throws DbException, IOException, TransactionAbortedException {
+		int pgNo = numPages();
+		raf.getChannel().write(ByteBuffer.wrap(HashPage.createEmptyPageData()),
+				(long) pgNo * BufferPool.getPageSize());
+		return getDirtiedPage(tid, new HashPageId(tableid, pgNo, pgcateg), dirtypages);
+	}
+
+	/**
+	 * @return the id of the directory page holding directory entry e, and the
+	 *         entry's slot on that page
+	 */
+	private HashPageId directoryPageId(HashMetaPage meta, int e) {
+		return meta.getDirectoryPageId(e / HashDirectoryPage.getNumEntries());
+	}
+
+	private static int directorySlot(int e) {
+		return e % HashDirectoryPage.getNumEntries();
+	}
+
+	/**
+	 * @return the id of the primary page of the bucket for hash value h
+	 */
+	private HashPageId findBucket(TransactionId tid, HashMetaPage meta, int h, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		int e = h & ((1 << meta.getGlobalDepth()) - 1);
+		HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+				directoryPageId(meta, e), perm);
+		return new HashPageId(tableid, dir.getBucket(directorySlot(e)), HashPageId.BUCKET);
+	}
+
+	private void setDirectoryEntry(TransactionId tid, HashMetaPage meta, int e, int pgNo,
+			HashMap<PageId, Page> dirtypages) throws DbException, TransactionAbortedException {
+		HashDirectoryPage dir = (HashDirectoryPage) getDirtiedPage(tid, directoryPageId(meta, e), dirtypages);
+		dir.setBucket(directorySlot(e), pgNo);
+	}
+
+	/**
+	 * Insert a tuple into this HashIndexFile, splitting its bucket or adding
+	 * an overflow page to it if it is full.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		int h = hash(t.getField(keyField));
+		latch.writeLock().lock();
+		try {
+			while (true) {
+				HashMetaPage meta = getMetaPage(tid, Permissions.READ_ONLY);
+				HashPageId bucketId = findBucket(tid, meta, h, Permissions.READ_ONLY);
+				if (insertIntoChain(tid, bucketId, t, false, dirtypages))
+					break;
+				HashBucketPage bucket = getBucketPage(tid, bucketId, Permissions.READ_ONLY);
+				if (bucket.getLocalDepth() < maxDepth() && canSplit(tid, bucketId, h)) {
+					splitBucket(tid, bucketId, h, dirtypages);
+				}
+				else {
+					insertIntoChain(tid, bucketId, t, true, dirtypages);
+					break;
+				}
+			}
+		} finally {
+			latch.writeLock().unlock();
+		}
+		return new ArrayList<Page>(dirtypages.values());
+	}
+
+	/**
+	 * Insert t into the first page of the bucket starting at bucketId with an
+	 * empty slot. If every page is full, append an overflow page for t if
+	 * grow is set, or return false otherwise.
+	 */
+	private boolean insertIntoChain(TransactionId tid, HashPageId bucketId, Tuple t, boolean grow,
+			HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+		HashPageId id = bucketId;
+		HashBucketPage page = null;
+		while (id != null) {
+			page = getBucketPage(tid, id, Permissions.READ_ONLY);
+			if (page.getNumEmptySlots() > 0) {
+				((HashBucketPage) getDirtiedPage(tid, id, dirtypages)).insertTuple(t);
+				return true;
+			}
+			id = page.getOverflowId();
+		}
+		if (!grow)
+			return false;
+		HashBucketPage overflow = (HashBucketPage) allocatePage(tid, HashPageId.BUCKET, dirtypages);
+		((HashBucketPage) getDirtiedPage(tid, page.getId(), dirtypages)).setOverflowId(overflow.getId());
+		overflow.insertTuple(t);
+		return true;
+	}
+
+	/**
+	 * @return true if splitting the bucket starting at bucketId would separate
+	 *         some of its keys, or the key with hash h, from the others
+	 */
+	private boolean canSplit(TransactionId tid, HashPageId bucketId, int h)
+			throws DbException, TransactionAbortedException {
+		int mask = (1 << maxDepth()) - 1;
+		for (HashPageId id = bucketId; id != null; ) {
+			HashBucketPage page = getBucketPage(tid, id, Permissions.READ_ONLY);
+			Iterator<Tuple> it = page.iterator();
+			while (it.hasNext()) {
+				if ((hash(it.next().getField(keyField)) & mask) != (h & mask))
+					return true;
+			}
+			id = page.getOverflowId();
+		}
+		return false;
+	}
+
+	/**
+	 * Split the bucket starting at bucketId, whose keys share the low hash
+	 * bits of h, on its next hash bit. The tuples with that bit set move to a
+	 * new bucket; the directory is doubled first if the bucket already uses
+	 * every bit of it.
+	 */
+	private void splitBucket(TransactionId tid, HashPageId bucketId, int h,
+			HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+		HashMetaPage meta = getMetaPage(tid, Permissions.READ_ONLY);
+		HashBucketPage bucket = (HashBucketPage) getDirtiedPage(tid, bucketId, dirtypages);
+		int depth = bucket.getLocalDepth();
+		if (depth == meta.getGlobalDepth()) {
+			meta = (HashMetaPage) getDirtiedPage(tid, meta.getId(), dirtypages);
+			doubleDirectory(tid, meta, dirtypages);
+		}
+
+		HashBucketPage sibling = (HashBucketPage) allocatePage(tid, HashPageId.BUCKET, dirtypages);
+		bucket.setLocalDepth(depth + 1);
+		sibling.setLocalDepth(depth + 1);
+
+		// point the entries whose bit `depth` is set at the new bucket
+		int low = h & ((1 << depth) - 1);
+		for (int e = low | (1 << depth); e < (1 << meta.getGlobalDepth()); e += 1 << (depth + 1))
+			setDirectoryEntry(tid, meta, e, sibling.getId().pageNumber(), dirtypages);
+
+		// take every tuple out of the old bucket's pages, keeping the emptied
+		// overflow pages chained to it, and put each back where it now belongs
+		ArrayList<Tuple> moved = new ArrayList<Tuple>();
+		for (HashPageId id = bucketId; id != null; ) {
+			HashBucketPage page = (HashBucketPage) getDirtiedPage(tid, id, dirtypages);
+			moved.addAll(page.removeAll());
+			id = page.getOverflowId();
+		}
+		for (Tuple m : moved) {
+			HashPageId target = ((hash(m.getField(keyField)) >>> depth) & 1) == 0 ? bucketId : sibling.getId();
+			insertIntoChain(tid, target, m, true, dirtypages);
+		}
+	}
+
+	/**
+	 * Double the directory, so that entry e + 2^depth points to the same
+	 * bucket as entry e, adding directory pages as needed.
+	 */
+	private void doubleDirectory(TransactionId tid, HashMetaPage meta, HashMap<PageId, Page> dirtypages)
+			throws DbException, IOException, TransactionAbortedException {
+		int n = 1 << meta.getGlobalDepth();
+		int perPage = HashDirectoryPage.getNumEntries();
+		while ((long) meta.getNumDirectoryPages() * perPage < 2L * n)
+			meta.addDirectoryPage((HashPageId) allocatePage(tid, HashPageId.DIRECTORY, dirtypages).getId());
+		for (int e = 0; e < n; e++) {
+			HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+					directoryPageId(meta, e), Permissions.READ_ONLY);
+			setDirectoryEntry(tid, meta, e + n, dir.getBucket(directorySlot(e)), dirtypages);
+		}
+		meta.setGlobalDepth(meta.getGlobalDepth() + 1);
+	}
+
+	/**
+	 * Delete a tuple from this HashIndexFile. Buckets are not merged when they
+	 * become empty.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to delete
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !(rid.getPageId() instanceof HashPageId)
+				|| rid.getPageId().getTableId() != tableid)
+			throw new DbException("tuple is not stored in this file");
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		latch.writeLock().lock();
+		try {
+			HashBucketPage page = (HashBucketPage) getDirtiedPage(tid, rid.getPageId(), dirtypages);
+			page.deleteTuple(t);
+		} finally {
+			latch.writeLock().unlock();
+		}
+		return new ArrayList<Page>(dirtypages.values());
+	}
+
+	/**
+	 * Return the tuples of the bucket holding key, whose key equals it.
+	 */
+	ArrayList<Tuple> lookup(TransactionId tid, Field key)
+			throws DbException, TransactionAbortedException {
+		ArrayList<Tuple> result = new ArrayList<Tuple>();
+		int h = hash(key);
+		latch.readLock().lock();
+		try {
+			HashMetaPage meta = getMetaPage(tid, Permissions.READ_ONLY);
+			for (HashPageId id = findBucket(tid, meta, h, Permissions.READ_ONLY); id != null; ) {
+				HashBucketPage page = getBucketPage(tid, id, Permissions.READ_ONLY);
+				page.findTuples(key, h, result);
+				id = page.getOverflowId();
+			}
+		} finally {
+			latch.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Return the ids of the primary pages of all buckets, in directory order.
+	 */
+	ArrayList<HashPageId> bucketIds(TransactionId tid)
+			throws DbException, TransactionAbortedException {
+		ArrayList<HashPageId> ids = new ArrayList<HashPageId>();
+		HashSet<Integer> seen = new HashSet<Integer>();
+		latch.readLock().lock();
+		try {
+			HashMetaPage meta = getMetaPage(tid, Permissions.READ_ONLY);
+			int n = 1 << meta.getGlobalDepth();
+			for (int e = 0; e < n; e++) {
+				HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+						directoryPageId(meta, e), Permissions.READ_ONLY);
+				int pgNo = dir.getBucket(directorySlot(e));
+				if (seen.add(pgNo))
+					ids.add(new HashPageId(tableid, pgNo, HashPageId.BUCKET));
+			}
+		} finally {
+			latch.readLock().unlock();
+		}
+		return ids;
+	}
+
+	/**
+	 * Return a copy of the tuples of the bucket starting at bucketId.
+	 */
+	ArrayList<Tuple> readBucket(TransactionId tid, HashPageId bucketId)
+			throws DbException, TransactionAbortedException {
+		ArrayList<Tuple> result = new ArrayList<Tuple>();
+		latch.readLock().lock();
+		try {
+			for (HashPageId id = bucketId; id != null; ) {
+				HashBucketPage page = getBucketPage(tid, id, Permissions.READ_ONLY);
+				Iterator<Tuple> it = page.iterator();
+				while (it.hasNext())
+					result.add(it.next());
+				id = page.getOverflowId();
+			}
+		} finally {
+			latch.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Get a read lock on the file, and return an iterator over the tuples
+	 * matching the predicate. EQUALS predicates are answered by looking up a
+	 * single bucket; any other predicate scans the whole file.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new HashSearchIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this file, one bucket at a time in
+	 * directory order.
+	 *
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashFileIterator(this, tid);
+	}
+
+}
+
+/**
+ * Helper class that implements the DbFileIterator for all tuples of a
+ * HashIndexFile
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+	private final HashIndexFile f;
+	private final TransactionId tid;
+	private ArrayList<HashPageId> buckets = null;
+	private int nextBucket;
+	private Iterator<Tuple> it;
+
+	public HashFileIterator(HashIndexFile f, TransactionId tid) {
+		this.f = f;
+		this.tid = tid;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		buckets = f.bucketIds(tid);
+		nextBucket = 0;
+		it = null;
+	}
+
+	@Override
+	protected Tuple readNext() throws DbException, TransactionAbortedException {
+		if (buckets == null)
+			return null;
+		while (it == null || !it.hasNext()) {
+			if (nextBucket >= buckets.size())
+				return null;
+			it = f.readBucket(tid, buckets.get(nextBucket++)).iterator();
+		}
+		return it.next();
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	public void close() {
+		super.close();
+		buckets = null;
+		it = null;
+	}
+}
+
+/**
+ * Helper class that implements the DbFileIterator for search tuples on a
+ * HashIndexFile
+ */
+class HashSearchIterator extends AbstractDbFileIterator {
+
+	private final HashIndexFile f;
+	private final TransactionId tid;
+	private final IndexPredicate ipred;
+	private DbFileIterator scan = null;
+	private Iterator<Tuple> it = null;
+
+	public HashSearchIterator(HashIndexFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (ipred.getOp() == Predicate.Op.EQUALS) {
+			it = f.lookup(tid, ipred.getField()).iterator();
+		}
+		else {
+			scan = f.iterator(tid);
+			scan.open();
+		}
+	}
+
+	@Override
+	protected Tuple readNext() throws DbException, TransactionAbortedException {
+		if (it != null)
+			return it.hasNext() ? it.next() : null;
+		if (scan == null)
+			return null;
+		while (scan.hasNext()) {
+			Tuple t = scan.next();
+			if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField()))
+				return t;
+		}
+		return null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	public void close() {
+		super.close();
+		if (scan != null)
+			scan.close();
+		scan = null;
+		it = null;
+	}
+}
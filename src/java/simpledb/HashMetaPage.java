@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is the first page of a HashIndexFile. It stores the global
+ * depth of the extendible hashing directory and the page numbers of the
+ * directory pages, in order.
+ *
+ * @see HashIndexFile
+ */
+public class HashMetaPage extends HashPage {
+
+	private int globalDepth;
+	private int[] dirPages;
+
+	/**
+	 * Create a HashMetaPage from a set of bytes of data read from disk.
+	 * The format of a HashMetaPage is the global depth, the number of
+	 * directory pages, and the page number of each directory page.
+	 */
+	public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+		super(id);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		globalDepth = dis.readInt();
+		int n = dis.readInt();
+		dirPages = new int[n];
+		for (int i = 0; i < n; i++)
+			dirPages[i] = dis.readInt();
+		dis.close();
+		setBeforeImage();
+	}
+
+	protected HashPage parse(byte[] data) throws IOException {
+		return new HashMetaPage(pid, data);
+	}
+
+	/**
+	 * @return the largest number of directory pages a meta page can list
+	 */
+	public static int getMaxDirectoryPages() {
+		return BufferPool.getPageSize() / INDEX_SIZE - 2;
+	}
+
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(globalDepth);
+			dos.writeInt(dirPages.length);
+			for (int p : dirPages)
+				dos.writeInt(p);
+			dos.write(new byte[BufferPool.getPageSize() - (dirPages.length + 2) * INDEX_SIZE]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/** @return the number of hash bits used to index the directory */
+	public int getGlobalDepth() {
+		return globalDepth;
+	}
+
+	public void setGlobalDepth(int globalDepth) {
+		this.globalDepth = globalDepth;
+	}
+
+	/** @return the number of directory pages */
+	public int getNumDirectoryPages() {
+		return dirPages.length;
+	}
+
+	/** @return the id of the i-th directory page */
+	public HashPageId getDirectoryPageId(int i) {
+		return new HashPageId(pid.getTableId(), dirPages[i], HashPageId.DIRECTORY);
+	}
+
+	/**
+	 * Append a directory page to the list of directory pages.
+	 * @throws DbException if the list is full
+	 */
+	public void addDirectoryPage(HashPageId id) throws DbException {
+		if (dirPages.length >= getMaxDirectoryPages())
+			throw new DbException("hash directory is full");
+		int[] pages = new int[dirPages.length + 1];
+		System.arraycopy(dirPages, 0, pages, 0, dirPages.length);
+		pages[dirPages.length] = id.pageNumber();
+		dirPages = pages;
+	}
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Each instance of HashPage stores data for one page of a HashIndexFile and
+ * implements the Page interface that is used by BufferPool. This class holds
+ * the dirty flag and before image shared by the meta, directory and bucket
+ * pages.
+ *
+ * @see HashIndexFile
+ * @see BufferPool
+ */
+public abstract class HashPage implements Page {
+	protected volatile boolean dirty = false;
+	protected volatile TransactionId dirtier = null;
+
+	protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+	protected final HashPageId pid;
+
+	byte[] oldData;
+	private final Object oldDataLock=new Object();
+
+	public HashPage(HashPageId id) {
+		this.pid = id;
+	}
+
+	/**
+	 * Construct a page of the same kind as this one from the given bytes.
+	 */
+	protected abstract HashPage parse(byte[] data) throws IOException;
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashPage getBeforeImage(){
+		try {
+			byte[] oldDataRef = null;
+			synchronized(oldDataLock)
+			{
+				oldDataRef = oldData;
+			}
+			return parse(oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			oldData = getPageData().clone();
+		}
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction
+	 * that did the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashPage of any kind.
+	 * Used to add new, empty pages to the file.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		int len = BufferPool.getPageSize();
+		return new byte[len]; //all 0
+	}
+}
@@ -4,6 +4,7 @@ import javax.xml.crypto.Data;
 import java.awt.image.AreaAveragingScaleFilter;
 import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.security.Permission;
 import java.util.*;
 
@@ -27,17 +28,65 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public File file;
-    public RandomAccessFile raf;
     public TupleDesc tupleDesc;
+    //文件路径的hash, 构造时算一次
+    private final int id;
+    //每页INT_TYPE字段的最小/最大值, 扫描时跳过不可能匹配的页面
+    private final ZoneMap zoneMap;
+    //是否压缩存储; 压缩页面文件第一次使用时才打开
+    private final boolean compress;
+    private CompressedPageFile compressed;
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * storing its pages compressed. readPage and writePage decode and encode
+     * compressed pages, so the rest of the system sees ordinary HeapPages.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     * @param compress
+     *            whether f stores its pages compressed, in the format of a
+     *            CompressedPageFile
+     * @see PageCompressor
+     */
+    public HeapFile(File f, TupleDesc td, boolean compress) {
         // some code goes here
+        //不在这里打开文件: 读写页面时才从Database.getFileHandles()取
         this.file = f;
-        try {
-            this.raf = new RandomAccessFile(file, "rw");
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+        this.id = f.getAbsoluteFile().hashCode();
+        this.compress = compress;
         this.tupleDesc = td;
+        this.zoneMap = new ZoneMap(td);
+    }
+
+    /**
+     * @return true if this file stores its pages compressed
+     */
+    public boolean isCompressed() {
+        return compress;
+    }
+
+    /**
+     * @return the CompressedPageFile holding the pages of this file, opening
+     *         it the first time it is needed
+     */
+    private synchronized CompressedPageFile compressedPages() throws IOException {
+        if (compressed == null)
+            compressed = new CompressedPageFile(file, tupleDesc.getFieldTypeArr(), BufferPool.getPageSize());
+        return compressed;
+    }
+
+    /**
+     * @return the per-page min/max summary of this file's INT_TYPE fields
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
     }
 
     /**
@@ -61,7 +110,7 @@ public class HeapFile implements DbFile {
      */
     public int getId() {
         // some code goes here
-        return this.file.getAbsoluteFile().hashCode();
+        return id;
     }
 
     /**
@@ -77,13 +126,23 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        long offset = BufferPool.getPageSize() * pid.pageNumber();
+        //按位置读取, 不移动文件指针, 预读线程可以和扫描线程同时读
+        long offset = (long) BufferPool.getPageSize() * pid.pageNumber();
         byte[] readInfo = new byte[BufferPool.getPageSize()];
         try {
-            raf.seek(offset);
-            raf.read(readInfo, 0, readInfo.length);
+            if (compress) {
+                readInfo = compressedPages().readPage(pid.pageNumber());
+            } else {
+                RandomAccessFile raf = Database.getFileHandles().acquire(this, file);
+                try {
+                    raf.getChannel().read(ByteBuffer.wrap(readInfo), offset);
+                } finally {
+                    Database.getFileHandles().release(this);
+                }
+            }
             HeapPageId hid = new HeapPageId(getId(), pid.pageNumber());
-            Page pg = new HeapPage(hid, readInfo);
+            HeapPage pg = new HeapPage(hid, readInfo);
+            zoneMap.addPage(pg);
             return pg;
         } catch (FileNotFoundException e) {
             throw new IllegalArgumentException("file not found");
@@ -96,9 +155,18 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        raf.seek(page.getId().pageNumber() * BufferPool.getPageSize());
+        long offset = (long) page.getId().pageNumber() * BufferPool.getPageSize();
         byte[] data = page.getPageData();
-        raf.write(data);
+        if (compress) {
+            compressedPages().writePage(page.getId().pageNumber(), data);
+            return;
+        }
+        RandomAccessFile raf = Database.getFileHandles().acquire(this, file);
+        try {
+            raf.getChannel().write(ByteBuffer.wrap(data), offset);
+        } finally {
+            Database.getFileHandles().release(this);
+        }
     }
 
     /**
@@ -107,10 +175,13 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // some code goes here
         try {
-            return (int) Math.ceil(raf.length() / BufferPool.getPageSize());
+            if (compress)
+                return compressedPages().numPages();
         } catch (IOException e) {
             throw new IllegalArgumentException("cannot read");
         }
+        //文件还没创建时length()为0
+        return (int) (file.length() / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
@@ -125,6 +196,7 @@ public class HeapFile implements DbFile {
             try {
                 page.insertTuple(t);
                 page.markDirty(true, tid);
+                zoneMap.addTuple(i, t);
                 modified.add(page);
                 inserted = true;
                 break;
@@ -139,6 +211,7 @@ public class HeapFile implements DbFile {
             newPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
             newPage.insertTuple(t);
             newPage.markDirty(true, tid);
+            zoneMap.addTuple(heapPageId.pageNumber(), t);
             modified.add(newPage);
         }
         return modified;
@@ -155,6 +228,8 @@ public class HeapFile implements DbFile {
         if (pageId.pageNumber() < this.numPages()) {
             HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
             page.deleteTuple(t);
+            //删除可能缩小范围, 按页面当前内容重新计算
+            zoneMap.summarize(page);
             modifiedPages.add(page);
         }
         if (modifiedPages == null)
@@ -168,6 +243,73 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, Permissions.READ_ONLY);
     }
 
+    /**
+     * Returns an iterator over all the tuples in this file that only decodes
+     * the specified fields from each page. The i-th field of the returned
+     * tuples is field fields[i] of this file's TupleDesc.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param fields the indexes of the fields to read, or null for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        if (fields == null)
+            return iterator(tid);
+        return new HeapFileIterator(tid, Permissions.READ_ONLY, fields, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples in this file that only decodes the
+     * specified fields, and skips the pages whose zone map summary shows
+     * that none of their tuples satisfy all of the given predicates. Tuples
+     * on the pages that are read are returned whether they match or not, so
+     * the predicates must still be applied above the scan.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param fields the indexes of the fields to read, or null for all of them
+     * @param preds predicates on this file's TupleDesc, or null to read every
+     *        page
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] preds) {
+        if (preds == null || preds.length == 0)
+            return iterator(tid, fields);
+        return new HeapFileIterator(tid, Permissions.READ_ONLY, fields, preds);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages startPage (inclusive)
+     * to endPage (exclusive) of this file, decoding and skipping pages as
+     * {@link #iterator(TransactionId, int[], Predicate[])} does. Disjoint
+     * page ranges can be scanned in parallel.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param fields the indexes of the fields to read, or null for all of them
+     * @param preds predicates on this file's TupleDesc, or null to read every
+     *        page
+     * @param startPage the first page to read
+     * @param endPage the page after the last page to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] preds,
+                                   int startPage, int endPage) {
+        if (preds != null && preds.length == 0)
+            preds = null;
+        return new HeapFileIterator(tid, Permissions.READ_ONLY, fields, preds, startPage, endPage);
+    }
+
+    /**
+     * @return the TupleDesc of the tuples returned by
+     *         {@link #iterator(TransactionId, int[])} for the given fields
+     */
+    public TupleDesc getProjectedTupleDesc(int[] fields) {
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = tupleDesc.getFieldType(fields[i]);
+            names[i] = tupleDesc.getFieldName(fields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
     //创建private类型
     //heapfile基本结构：包含多个page
     private class HeapFileIterator implements DbFileIterator{
@@ -178,25 +320,87 @@ public class HeapFile implements DbFile {
         public HeapPage currPage;
         public Iterator<Tuple> it;//当前页面iterator
         public boolean open;
+        //fields to decode from each page, or null for all of them
+        private final int[] fields;
+        private final TupleDesc projectedTd;
+        //用于按zone map跳过页面的谓词, 为null时读取所有页面
+        private final Predicate[] preds;
+
+        //扫描的页面范围[startPage, endPage)
+        private final int startPage, endPage;
+        //文件页数, 打开时读取一次, 扫到末尾时再检查是否有新追加的页面
+        private int numPages;
+        //编号小于readAheadTo的页面都已经请求预读
+        private int readAheadTo;
 
         //constructor
         public HeapFileIterator(TransactionId tid, Permissions perm) {
+            this(tid, perm, null, null);
+        }
+
+        public HeapFileIterator(TransactionId tid, Permissions perm, int[] fields, Predicate[] preds) {
+            this(tid, perm, fields, preds, 0, Integer.MAX_VALUE);
+        }
+
+        public HeapFileIterator(TransactionId tid, Permissions perm, int[] fields, Predicate[] preds,
+                                int startPage, int endPage) {
             this.tid = tid;
+            this.startPage = startPage;
+            this.endPage = endPage;
             this.perm = perm;
+            this.fields = fields;
+            this.preds = preds;
+            this.projectedTd = fields == null ? null : getProjectedTupleDesc(fields);
             currPos = 0;
             open = false;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            //基本逻辑
-            //获取当前页面(BufferPool.getPage())
-            //获取当前页面的iterator
+            numPages = numPages();
+            readAheadTo = 0;
+            currPos = startPage;
+            //空文件也读取第0页
+            boolean inRange = currPos < endPage && (currPos == 0 || currPos < numPages);
+            if (inRange && mayMatch(currPos))
+                loadPage();
+            else
+                it = Collections.<Tuple>emptyIterator();
+            open = true;
+        }
+
+        private boolean mayMatch(int pgNo) {
+            return preds == null || zoneMap.mayMatch(pgNo, preds);
+        }
+
+        //基本逻辑
+        //获取当前页面(BufferPool.getPage())
+        //获取当前页面的iterator
+        private void loadPage() throws DbException, TransactionAbortedException {
             currPage = (HeapPage) Database.getBufferPool().
                     getPage(tid, new HeapPageId(getId(), currPos), perm);
-            it = currPage.iterator();
-            open = true;
+            it = fields == null ? currPage.iterator() : currPage.iterator(fields, projectedTd);
+        }
 
+        /**
+         * Once the scan has moved past its first page it is reading the file
+         * sequentially, so keep the next pages requested from the buffer pool
+         * ahead of it. The window is topped up when the scan is halfway
+         * through the pages requested last.
+         */
+        private void readAhead() {
+            int window = Database.getBufferPool().readAheadWindow();
+            if (window == 0 || currPos + window / 2 < readAheadTo)
+                return;
+            int end = Math.min(Math.min(numPages, endPage), currPos + 1 + window);
+            ArrayList<HeapPageId> pids = new ArrayList<HeapPageId>();
+            for (int i = Math.max(readAheadTo, currPos + 1); i < end; i++) {
+                if (mayMatch(i))
+                    pids.add(new HeapPageId(getId(), i));
+            }
+            readAheadTo = end;
+            if (!pids.isEmpty())
+                Database.getBufferPool().prefetchPages(pids);
         }
 
         @Override
@@ -206,12 +410,19 @@ public class HeapFile implements DbFile {
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if (!open) return false;
             if (it.hasNext()) return true;
-            while (currPos < numPages()-1) {
+            while (true) {
+                if (currPos >= endPage - 1) return false;
+                if (currPos >= numPages - 1) {
+                    numPages = numPages();
+                    if (currPos >= numPages - 1) return false;
+                }
                 currPos++;
-                open();
+                if (!mayMatch(currPos))
+                    continue;
+                loadPage();
+                readAhead();
                 if (it.hasNext()) return true;
             }
-            return false;
         }
 
         @Override
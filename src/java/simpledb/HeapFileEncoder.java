@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -223,4 +224,175 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * binary page file in the format of a ColumnarHeapFile.
+   *
+   * @see #convertToColumnar(File, File, int, Type[])
+   * @param tuples the tuples - a list of tuples, each represented by a list of integers that are
+   *        the field values for that tuple.
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input tuple
+   * @throws IOException if the temporary/output file can't be opened
+   */
+  public static void convertToColumnar(ArrayList<ArrayList<Integer>> tuples, File outFile,
+                 int npagebytes, int numFields) throws IOException {
+      File tempHeap = File.createTempFile("tempTable", ".dat");
+      tempHeap.deleteOnExit();
+      convert(tuples, tempHeap, npagebytes, numFields);
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      convertToColumnar(tempHeap, outFile, npagebytes, ts);
+  }
+
+  /** Convert a heap file into a binary page file in the format of a
+   * ColumnarHeapFile. Both formats hold the same number of tuple slots per
+   * page, so each heap page becomes one PaxPage with the same header and the
+   * slots' field values regrouped by field.
+   *
+   * @see HeapPage
+   * @see PaxPage
+   * @param heapFile The heap file to read pages from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in both files
+   * @param typeAr the types of the fields of the table
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertToColumnar(File heapFile, File outFile, int npagebytes,
+                 Type[] typeAr) throws IOException {
+      int nrecbytes = 0;
+      int[] offsets = new int[typeAr.length];
+      for (int i = 0; i < typeAr.length; i++) {
+          offsets[i] = nrecbytes;
+          nrecbytes += typeAr[i].getLen();
+      }
+      int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+      int nheaderbytes = (nrecords + 7) / 8;
+
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      byte[] in = new byte[npagebytes];
+      long npages = heapFile.length() / npagebytes;
+      for (long p = 0; p < npages; p++) {
+          is.readFully(in);
+          byte[] out = new byte[npagebytes];
+          System.arraycopy(in, 0, out, 0, nheaderbytes);
+          int column = nheaderbytes;
+          for (int j = 0; j < typeAr.length; j++) {
+              int len = typeAr[j].getLen();
+              for (int i = 0; i < nrecords; i++)
+                  System.arraycopy(in, nheaderbytes + i * nrecbytes + offsets[j], out, column + i * len, len);
+              column += nrecords * len;
+          }
+          os.write(out);
+      }
+      is.close();
+      os.close();
+  }
+
+  /** Convert a heap file into a binary page file in the format of a
+   * SlottedHeapFile, storing the tuples of the heap file in order, each in
+   * the variable-length format of its fields' types.
+   *
+   * @see HeapPage
+   * @see SlottedPage
+   * @param heapFile The heap file to read pages from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in both files
+   * @param typeAr the types of the fields of the table
+   * @throws IOException if the input/output file can't be opened or a page
+   *   of the heap file can't be parsed
+   */
+  public static void convertToSlotted(File heapFile, File outFile, int npagebytes,
+                 Type[] typeAr) throws IOException {
+      int nrecbytes = 0;
+      for (Type t : typeAr)
+          nrecbytes += t.getLen();
+      int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+      int nheaderbytes = (nrecords + 7) / 8;
+
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      byte[] in = new byte[npagebytes];
+      long npages = heapFile.length() / npagebytes;
+      ArrayList<byte[]> records = new ArrayList<byte[]>();
+      int used = 2; // the count of directory entries
+      boolean wrote = false;
+      try {
+          for (long p = 0; p < npages; p++) {
+              is.readFully(in);
+              for (int i = 0; i < nrecords; i++) {
+                  if ((in[i / 8] & (1 << (i % 8))) == 0)
+                      continue;
+                  DataInputStream rec = new DataInputStream(
+                          new ByteArrayInputStream(in, nheaderbytes + i * nrecbytes, nrecbytes));
+                  ByteArrayOutputStream baos = new ByteArrayOutputStream(nrecbytes);
+                  DataOutputStream dos = new DataOutputStream(baos);
+                  for (Type t : typeAr)
+                      t.serializeVar(t.parse(rec), dos);
+                  dos.flush();
+                  byte[] record = baos.toByteArray();
+                  if (used + 4 + record.length > npagebytes) {
+                      os.write(slottedPage(records, npagebytes));
+                      wrote = true;
+                      records.clear();
+                      used = 2;
+                  }
+                  records.add(record);
+                  used += 4 + record.length;
+              }
+          }
+      } catch (java.text.ParseException e) {
+          throw new IOException("cannot parse heap file " + heapFile, e);
+      }
+      if (!records.isEmpty() || !wrote)
+          os.write(slottedPage(records, npagebytes));
+      is.close();
+      os.close();
+  }
+
+  /** @return the bytes of a SlottedPage holding the given records */
+  private static byte[] slottedPage(ArrayList<byte[]> records, int npagebytes) {
+      byte[] page = new byte[npagebytes];
+      page[0] = (byte) (records.size() >> 8);
+      page[1] = (byte) records.size();
+      int end = npagebytes;
+      for (int i = 0; i < records.size(); i++) {
+          byte[] record = records.get(i);
+          end -= record.length;
+          System.arraycopy(record, 0, page, end, record.length);
+          page[2 + 4 * i] = (byte) (end >> 8);
+          page[3 + 4 * i] = (byte) end;
+          page[4 + 4 * i] = (byte) (record.length >> 8);
+          page[5 + 4 * i] = (byte) record.length;
+      }
+      return page;
+  }
+
+  /** Convert a heap file into a binary page file in the format of a
+   * compressed HeapFile, compressing each of its pages.
+   *
+   * @see CompressedPageFile
+   * @see PageCompressor
+   * @param heapFile The heap file to read pages from
+   * @param outFile The output file to write data to; it is overwritten
+   * @param npagebytes The number of bytes per page in the heap file
+   * @param typeAr the types of the fields of the table
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertToCompressed(File heapFile, File outFile, int npagebytes,
+                 Type[] typeAr) throws IOException {
+      new FileOutputStream(outFile).close();
+      CompressedPageFile out = new CompressedPageFile(outFile, typeAr, npagebytes);
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+      byte[] page = new byte[npagebytes];
+      long npages = heapFile.length() / npagebytes;
+      for (int p = 0; p < npages; p++) {
+          is.readFully(page);
+          out.writePage(p, page);
+      }
+      is.close();
+      out.close();
+  }
 }
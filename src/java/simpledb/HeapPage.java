@@ -20,6 +20,7 @@ public class HeapPage implements Page {
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    final byte[] data;
     boolean isDirty;
 
     byte[] oldData;
@@ -45,6 +46,7 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
+        this.data = data;
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
@@ -53,17 +55,11 @@ public class HeapPage implements Page {
         for (int i=0; i<header.length; i++)
             //1 bit header说明数据是否有效
             header[i] = dis.readByte();
+        dis.close();
 
+        // tuples are decoded lazily from data the first time they are needed,
+        // so scans that only read a few columns never parse the others
         tuples = new Tuple[numSlots];
-        //读取tuples
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -121,37 +117,75 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in slot i, decoding it from the raw page data if it has
+     * not been materialized yet, or null if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    Tuple getTuple(int slotId) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
             return null;
+        if (tuples[slotId] == null) {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
+            for (int j=0; j<td.numFields(); j++)
+                readField(slotId, j, t, j);
+            tuples[slotId] = t;
         }
+        return tuples[slotId];
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Decode a single field of the tuple in slot slotId straight from the raw
+     * page data, without touching the other fields of the tuple, and store it
+     * as field i of result. INT_TYPE fields are stored unboxed.
+     */
+    private void readField(int slotId, int field, Tuple result, int i) throws NoSuchElementException {
+        Type type = td.getFieldType(field);
+        int offset = header.length + slotId * td.getSize() + td.getFieldOffset(field);
+        if (type == Type.INT_TYPE) {
+            result.setInt(i, readInt(offset));
+            return;
+        }
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(data, offset, type.getLen()));
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            result.setField(i, type.parse(dis));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    //INT_TYPE按大端序写入
+    private int readInt(int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Computes the smallest and largest value of an INT_TYPE field over the
+     * tuples on this page, reading tuples that were never decoded straight
+     * from the raw page data.
+     *
+     * @param field the index of an INT_TYPE field of this page's TupleDesc
+     * @return {min, max}, or {Integer.MAX_VALUE, Integer.MIN_VALUE} if the
+     *         page holds no tuples
+     */
+    int[] intRange(int field) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < numSlots; i++) {
+            if ((header[i / 8] & (1 << (i % 8))) == 0)
+                continue;
+            int v;
+            if (tuples[i] != null) {
+                v = tuples[i].getInt(field);
+            } else {
+                v = readInt(header.length + i * td.getSize() + td.getFieldOffset(field));
+            }
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        return new int[]{min, max};
     }
 
     /**
@@ -196,11 +230,23 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: its bytes are unchanged
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, header.length + i * td.getSize(), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    if (td.getFieldType(j) == Type.INT_TYPE)
+                        dos.writeInt(tuples[i].getInt(j));
+                    else
+                        tuples[i].getField(j).serialize(dos);
                 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -307,36 +353,31 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int numEmpty = 0;
-        int headerBit = getHeaderSize() * 8;
-        for (int i = 0; i < headerBit; i++) {
-            if (getValidBit(i) == 0)
-                numEmpty++;
+        //按字节数1的个数，header末尾多余的bit不算空slot
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++)
+            used += Integer.bitCount(header[i] & 0xFF);
+        for (int i = numSlots / 8 * 8; i < numSlots; i++) {
+            if (getValidBit(i) == 1)
+                used++;
         }
-        return numEmpty;
+        return numSlots - used;
     }
 
     /**
-     * Returns true if associated slot on this page is filled.
+     * Returns the header bit of slot i: 1 if the slot is filled, 0 if not.
      */
     private int getValidBit(int i) {
-        int byteIndex = i / 8;
-        int bitIndex = i % 8;
         //需要将读取header bit的函数单独拆出，方便其他方法使用
-        String validNum = String.format("%8s", Integer.toBinaryString(header[byteIndex]))
-                .replace(' ', '0');
-        if (i < 100)
-            validNum = validNum.substring(validNum.length() - 8);
-        return Integer.parseInt(String.
-                valueOf(validNum.charAt(7-bitIndex)));
+        return (header[i / 8] >> (i % 8)) & 1;
     }
 
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        int validBit = getValidBit(i);
-        if (validBit == 1)
-            return true;
-        return false;
+        return getValidBit(i) == 1;
     }
 
     /**
@@ -392,8 +433,44 @@ public class HeapPage implements Page {
         }
     }
      */
+    /**
+     * @return an iterator over the tuples on this page that only decodes the
+     *         given fields; the returned tuples have schema projectedTd, whose
+     *         i-th field is field fields[i] of this page's TupleDesc.
+     * @param fields the indexes of the fields to decode, in output order
+     * @param projectedTd the TupleDesc of the returned tuples
+     */
+    public Iterator<Tuple> iterator(int[] fields, TupleDesc projectedTd) {
+        return new ProjectedHeapPageIterator(fields, projectedTd);
+    }
+
+    private class ProjectedHeapPageIterator extends HeapPageIterator {
+        private final int[] fields;
+        private final TupleDesc projectedTd;
+
+        public ProjectedHeapPageIterator(int[] fields, TupleDesc projectedTd) {
+            this.fields = fields;
+            this.projectedTd = projectedTd;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Tuple t = new Tuple(projectedTd);
+            t.setRecordId(new RecordId(pid, currPos));
+            Tuple decoded = tuples[currPos];
+            for (int i = 0; i < fields.length; i++) {
+                if (decoded != null)
+                    t.setField(i, decoded, fields[i]);
+                else
+                    readField(currPos, fields[i], t, i);
+            }
+            currPos++;
+            return t;
+        }
+    }
+
     private class HeapPageIterator implements Iterator<Tuple> {
-        private int currPos;
+        protected int currPos;
 
         public HeapPageIterator() {
             currPos = 0;
@@ -411,7 +488,7 @@ public class HeapPage implements Page {
 
         public Tuple next() {
             if (!hasNext()) throw new NoSuchElementException();
-            Tuple t = tuples[currPos];
+            Tuple t = getTuple(currPos);
             currPos++;
             return t;
         }
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * HyperLogLog estimates the number of distinct values added to it in a fixed
+ * amount of memory: 2^PRECISION one-byte registers, for a standard error of
+ * about 1.04 / sqrt(2^PRECISION), or 2.3%.
+ * <p>
+ * Each value is hashed to 64 bits. The first PRECISION bits choose a
+ * register, which keeps the largest number of leading zeros plus one seen
+ * in the remaining bits. Two sketches are merged by taking the largest of
+ * each pair of registers, which gives the sketch of the union of their
+ * values, so partial sketches built by different threads can be combined.
+ *
+ * @see IntegerAggregator
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of bits of the hash that choose a register. */
+    public static final int PRECISION = 11;
+
+    private static final int M = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+    private final byte[] registers = new byte[M];
+
+    /**
+     * Add a value to the sketch.
+     */
+    public void add(int v) {
+        addHash(mix(v));
+    }
+
+    /**
+     * Add a value to the sketch.
+     */
+    public void add(Field f) {
+        if (f instanceof IntField)
+            add(((IntField) f).getValue());
+        else
+            addHash(mix(f.hashCode() * 0x9E3779B97F4A7C15L));
+    }
+
+    private void addHash(long h) {
+        int idx = (int) (h >>> (64 - PRECISION));
+        // the low bit stops the count at 64 - PRECISION + 1
+        long w = (h << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (rank > registers[idx])
+            registers[idx] = rank;
+    }
+
+    // the finalizer of MurmurHash3, so that nearby values have unrelated hashes
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Add the values of another sketch to this one.
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < M; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double e = ALPHA * M * M / sum;
+        // few values: count the empty registers instead
+        if (e <= 2.5 * M && zeros > 0)
+            e = M * Math.log((double) M / zeros);
+        return Math.round(e);
+    }
+}
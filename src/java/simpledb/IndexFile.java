@@ -0,0 +1,32 @@
+package simpledb;
+
+/**
+ * The interface for DbFiles that store their tuples in an index on one key
+ * field, and can return the tuples matching an IndexPredicate on that key
+ * without scanning the whole file. IndexScan reads any IndexFile.
+ *
+ * @see BTreeFile
+ * @see HashIndexFile
+ */
+public interface IndexFile extends DbFile {
+    /**
+     * @return the index of the field that this file is keyed on
+     */
+    public int keyField();
+
+    /**
+     * Returns an iterator over the tuples of this file whose key matches
+     * ipred, on behalf of the specified transaction.
+     *
+     * @param tid - the transaction id
+     * @param ipred - the index predicate value to filter on
+     * @return an iterator for the filtered tuples
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+
+    /**
+     * @return true if iterator and indexIterator return tuples in ascending
+     *         order of the key field
+     */
+    public boolean isKeyOrdered();
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements an equality join whose inner
+ * relation is a BTreeFile keyed on the join field. Instead of rescanning the
+ * inner relation for every outer tuple, it looks up the matching inner tuples
+ * through the B+ tree with an EQUALS IndexPredicate.
+ * <p>
+ * Outer tuples are read in batches and each batch is sorted on the join key
+ * before probing, so the leaf pages of the index are visited in key order and
+ * each one is fetched from disk at most once per batch. Outer tuples with the
+ * same key share a single probe. As a consequence, results come out in key
+ * order within each batch rather than in the order of the outer child.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of outer tuples sorted and probed together. */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final TransactionId tid;
+    private final JoinPredicate p;
+    private DbIterator child;
+    private final BTreeFile inner;
+    private final String innerAlias;
+    private final TupleDesc innerTd;
+    private TupleDesc td;
+    private final int batchSize;
+
+    //当前批次的外表元组, 按连接键排序
+    private final ArrayList<Tuple> batch = new ArrayList<Tuple>();
+    private int batchPos;
+    //当前探测键匹配的内表元组
+    private final ArrayList<Tuple> matches = new ArrayList<Tuple>();
+    private Field matchKey;
+    private int matchPos;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction the index lookups run in
+     * @param outerField
+     *            The index of the join field in the outer child's tuples
+     * @param child
+     *            Iterator for the outer relation
+     * @param tableid
+     *            The id of the inner table, which must be a BTreeFile
+     * @param tableAlias
+     *            The alias of the inner table; its field names are prefixed
+     *            with it as in a scan of the table
+     * @param batchSize
+     *            The number of outer tuples to sort and probe together
+     */
+    public IndexNestedLoopJoin(TransactionId tid, int outerField, DbIterator child,
+            int tableid, String tableAlias, int batchSize) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a BTreeFile");
+        this.tid = tid;
+        this.child = child;
+        this.inner = (BTreeFile) f;
+        this.innerAlias = tableAlias;
+        this.batchSize = Math.max(batchSize, 1);
+        this.p = new JoinPredicate(outerField, Predicate.Op.EQUALS, inner.keyField());
+
+        TupleDesc td = inner.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        this.innerTd = new TupleDesc(types, names);
+        this.td = TupleDesc.merge(child.getTupleDesc(), innerTd);
+    }
+
+    public IndexNestedLoopJoin(TransactionId tid, int outerField, DbIterator child,
+            int tableid, String tableAlias) {
+        this(tid, outerField, child, tableid, tableAlias, DEFAULT_BATCH_SIZE);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.innerTd.getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        batch.clear();
+        batchPos = 0;
+        matches.clear();
+        matchKey = null;
+        matchPos = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch.clear();
+        matches.clear();
+        matchKey = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Reads the next batch of outer tuples and sorts it on the join key.
+     *
+     * @return false if the outer child is exhausted
+     */
+    private boolean readBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        batchPos = 0;
+        while (batch.size() < batchSize && child.hasNext())
+            batch.add(child.next());
+        final int field = p.getField1();
+        Collections.sort(batch, new Comparator<Tuple>() {
+            public int compare(Tuple t1, Tuple t2) {
+                Field f1 = t1.getField(field), f2 = t2.getField(field);
+                if (f1.compare(Predicate.Op.LESS_THAN, f2))
+                    return -1;
+                return f1.compare(Predicate.Op.GREATER_THAN, f2) ? 1 : 0;
+            }
+        });
+        return !batch.isEmpty();
+    }
+
+    /** Loads the inner tuples whose key equals the given field. */
+    private void probe(Field key) throws DbException, TransactionAbortedException {
+        matches.clear();
+        matchKey = key;
+        DbFileIterator it = inner.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+        it.open();
+        while (it.hasNext())
+            matches.add(it.next());
+        it.close();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Like {@link Join}, the result is the concatenation of the
+     * outer tuple and the matching inner tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (batchPos < batch.size()) {
+                Tuple outer = batch.get(batchPos);
+                if (matchPos == 0) {
+                    Field key = outer.getField(p.getField1());
+                    // outer tuples with equal keys are adjacent, so reuse the last probe
+                    if (matchKey == null || !matchKey.equals(key))
+                        probe(key);
+                }
+                if (matchPos < matches.size())
+                    return Tuple.merge(outer, matches.get(matchPos++), td);
+                batchPos++;
+                matchPos = 0;
+            } else if (!readBatch()) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+        this.td = TupleDesc.merge(child.getTupleDesc(), innerTd);
+    }
+
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an operator which reads the tuples of an IndexFile that
+ * match a predicate on its key, such as a BTreeFile or a HashIndexFile,
+ * using the file's index instead of scanning the whole table.
+ */
+public class IndexScan implements DbIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private TupleDesc myTd;
+	private transient DbFileIterator it;
+	private String tablename;
+	private String alias;
+	// the field the tuples are returned in the order of, or -1
+	private int sortField;
+
+	/**
+	 * Creates an index scan over the specified table as a part of the
+	 * specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan; it must be stored in an IndexFile.
+	 * @param tableAlias
+	 *            the alias of this table (needed by the parser); the returned
+	 *            tupleDesc should have fields with name tableAlias.fieldName
+	 * @param ipred
+	 *            The index predicate to match. If null, the scan will return
+	 *            all tuples
+	 */
+	public IndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		this.alias = tableAlias;
+		this.tablename = Database.getCatalog().getTableName(tableid);
+		DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+		if (!(f instanceof IndexFile))
+			throw new IllegalArgumentException("table " + tablename + " is not stored in an index");
+		IndexFile index = (IndexFile) f;
+		this.it = ipred == null ? index.iterator(tid) : index.indexIterator(tid, ipred);
+		// an equality lookup returns a single key, whatever the index
+		if (index.isKeyOrdered() || (ipred != null && ipred.getOp() == Predicate.Op.EQUALS))
+			this.sortField = index.keyField();
+		else
+			this.sortField = -1;
+
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the table name of the table the operator scans
+	 */
+	public String getTableName() {
+		return this.tablename;
+	}
+
+	/**
+	 * @return Return the alias of the table this operator scans.
+	 */
+	public String getAlias() {
+		return this.alias;
+	}
+
+	/**
+	 * @return the index of the field that the tuples of this scan are
+	 *         returned in ascending order of, or -1 if they are not returned
+	 *         in order
+	 */
+	public int sortField() {
+		return sortField;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one DbIterator.");
+
+		it.open();
+		isOpen = true;
+	}
+
+	/**
+	 * @return the TupleDesc with field names from the underlying IndexFile,
+	 *         prefixed with the tableAlias string from the constructor.
+	 */
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		return it.next();
+	}
+
+	public void close() {
+		it.close();
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+}
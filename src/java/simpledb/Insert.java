@@ -14,6 +14,8 @@ public class Insert extends Operator {
     private TransactionId tid;
     private DbIterator child;
     private int tableId, count;
+    // the single count field of the result
+    private final TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE});
     private boolean completed;
     /**
      * Constructor.
@@ -40,7 +42,7 @@ public class Insert extends Operator {
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return new TupleDesc(new Type[]{Type.INT_TYPE});
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
@@ -4,6 +4,11 @@ package simpledb;
  */
 public class IntHistogram {
 
+    private final int[] counts;
+    private final int min, max;
+    private final double width;
+    private int total = 0;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -22,6 +27,17 @@ public class IntHistogram {
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        this.min = min;
+        this.max = max;
+        // never use buckets narrower than one value
+        int n = (int) Math.min((long) buckets, (long) max - min + 1);
+        this.counts = new int[Math.max(n, 1)];
+        this.width = ((double) max - min + 1) / counts.length;
+    }
+
+    private int bucketOf(int v) {
+        int b = (int) (((double) v - min) / width);
+        return Math.min(Math.max(b, 0), counts.length - 1);
     }
 
     /**
@@ -30,6 +46,10 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	// some code goes here
+        if (v < min || v > max)
+            return;
+        counts[bucketOf(v)]++;
+        total++;
     }
 
     /**
@@ -45,7 +65,46 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        if (total == 0)
+            return 0.0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equalsSelectivity(v);
+            case NOT_EQUALS:
+                return 1.0 - equalsSelectivity(v);
+            case GREATER_THAN:
+                return greaterThanSelectivity(v);
+            case GREATER_THAN_OR_EQ:
+                return greaterThanSelectivity(v) + equalsSelectivity(v);
+            case LESS_THAN:
+                return 1.0 - greaterThanSelectivity(v) - equalsSelectivity(v);
+            case LESS_THAN_OR_EQ:
+                return 1.0 - greaterThanSelectivity(v);
+            default:
+                return 1.0;
+        }
+    }
+
+    private double equalsSelectivity(int v) {
+        if (v < min || v > max)
+            return 0.0;
+        return (counts[bucketOf(v)] / Math.max(width, 1.0)) / total;
+    }
+
+    private double greaterThanSelectivity(int v) {
+        if (v < min)
+            return 1.0;
+        if (v >= max)
+            return 0.0;
+        int b = bucketOf(v);
+        double bucketRight = min + (b + 1) * width;
+        // the part of v's bucket above v, assuming uniform values in the bucket
+        double frac = Math.max(bucketRight - v - 1, 0) / width;
+        double count = counts[b] * frac;
+        for (int i = b + 1; i < counts.length; i++)
+            count += counts[i];
+        return Math.min(count / total, 1.0);
     }
     
     /**
@@ -59,7 +118,14 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        if (total == 0)
+            return 1.0;
+        // expected selectivity of an equality predicate on a value drawn from
+        // this distribution
+        double sum = 0;
+        for (int c : counts)
+            sum += ((double) c / total) * (c / Math.max(width, 1.0)) / total;
+        return sum;
     }
     
     /**
@@ -67,6 +133,33 @@ public class IntHistogram {
      */
     public String toString() {
         // some code goes here
-        return null;
+        return "IntHistogram(min=" + min + ", max=" + max + ", total=" + total
+                + ", buckets=" + java.util.Arrays.toString(counts) + ")";
+    }
+
+    /**
+     * Write this histogram to dos, in the format read by {@link #read}.
+     */
+    void write(java.io.DataOutputStream dos) throws java.io.IOException {
+        dos.writeInt(min);
+        dos.writeInt(max);
+        dos.writeInt(total);
+        dos.writeInt(counts.length);
+        for (int c : counts)
+            dos.writeInt(c);
+    }
+
+    /**
+     * Read a histogram written by {@link #write}.
+     */
+    static IntHistogram read(java.io.DataInputStream dis) throws java.io.IOException {
+        int min = dis.readInt();
+        int max = dis.readInt();
+        int total = dis.readInt();
+        IntHistogram h = new IntHistogram(dis.readInt(), min, max);
+        for (int i = 0; i < h.counts.length; i++)
+            h.counts[i] = dis.readInt();
+        h.total = total;
+        return h;
     }
 }
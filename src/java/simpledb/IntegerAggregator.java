@@ -1,14 +1,23 @@
 package simpledb;
 
-import com.sun.deploy.security.ValidationState;
-
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Besides MIN, MAX, SUM, AVG and COUNT, it computes the two operators used to
+ * combine partial aggregates (see {@link ParallelAggregate}): SUM_COUNT
+ * produces the sum and the count of each group as two fields, so that AVG can
+ * be computed from several partial results, and SC_AVG averages such
+ * partial results, reading the sum from the aggregate field and the count
+ * from the field after it.
+ * <p>
+ * APPROX_COUNT_DISTINCT and APPROX_QUANTILE keep a {@link HyperLogLog} or a
+ * {@link QuantileSketch} per group instead, whose size does not depend on
+ * the number of values in the group. The sketches of two aggregators are
+ * combined by {@link #merge}.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -17,9 +26,13 @@ public class IntegerAggregator implements Aggregator {
     private int gbFieldIndex, aggFieldIndex;
     private Type gbFieldType;
     private Op aggOperator;
-    private Map<Field, Integer> gbMap;
-    private Map<Field, ArrayList<Integer>> gbAvgMap;
-    private int noGroupResult, noGroupCount;
+    //每个group一个{value, count}; 不分组时key为null
+    //value: MIN/MAX/SUM的当前结果, AVG/SUM_COUNT/SC_AVG的sum
+    //用long累加, 中间结果不会溢出
+    private Map<Field, long[]> groups;
+    //APPROX_COUNT_DISTINCT和APPROX_QUANTILE: 每个group一个sketch
+    private Map<Field, Object> sketches;
+    private final double quantile;
     private boolean noGroup = false;
 
     /**
@@ -32,64 +45,42 @@ public class IntegerAggregator implements Aggregator {
      *            the type of the group by field (e.g., Type.INT_TYPE), or null
      *            if there is no grouping
      * @param afield
-     *            the 0-based index of the aggregate field in the tuple
+     *            the 0-based index of the aggregate field in the tuple; for
+     *            SC_AVG, the index of the sum field, which must be followed
+     *            by the count field
      * @param what
      *            the aggregation operator
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, DEFAULT_QUANTILE);
+    }
+
+    /**
+     * Aggregate constructor for APPROX_QUANTILE
+     *
+     * @param quantile
+     *            the quantile APPROX_QUANTILE estimates, between 0 and 1;
+     *            ignored by the other operators
+     * @throws IllegalArgumentException if quantile is not between 0 and 1
+     * @see #IntegerAggregator(int, Type, int, Op)
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, double quantile) {
         // some code goes here
+        if (!(quantile >= 0 && quantile <= 1))
+            throw new IllegalArgumentException("quantile " + quantile + " is not between 0 and 1");
         this.gbFieldIndex = gbfield;
         this.gbFieldType = gbfieldtype;
         this.aggFieldIndex = afield;
         this.aggOperator = what;
-        if (this.aggOperator == Op.AVG) {
-            this.gbAvgMap = new HashMap<>();
-        } else {
-            this.gbMap = new HashMap<Field, Integer>();
-        }
-        if (gbfield == Aggregator.NO_GROUPING) {
-            this.noGroupResult = 0;
-            this.noGroupCount = 0;
-            this.noGroup = true;
-        }
+        this.quantile = quantile;
+        this.groups = new HashMap<Field, long[]>();
+        this.sketches = new HashMap<Field, Object>();
+        this.noGroup = gbfield == Aggregator.NO_GROUPING;
     }
 
-    private void noGroupVersionMerge(Tuple tup) {
-        Integer aggCol = (Integer) ((IntField) tup.getField(this.aggFieldIndex)).getValue();
-        boolean firstElement = (this.noGroupCount==0) ? true : false;
-        if (firstElement) {
-            this.noGroupCount++;
-            this.noGroupResult = aggCol;
-        } else {
-            this.noGroupCount++;
-            switch (this.aggOperator) {
-                case SUM:
-                    this.noGroupResult += aggCol;
-                    break;
-
-                case AVG:
-                    this.noGroupResult += aggCol;
-                    // 记得最后要除count
-                    break;
-
-                case MAX:
-                    if (aggCol > noGroupResult)
-                        noGroupResult = aggCol;
-                    break;
-
-                case MIN:
-                    if (aggCol < noGroupResult)
-                        noGroupResult = aggCol;
-                    break;
-
-                case COUNT:
-                    break;
-
-                default:
-                    break;
-            }
-        }
+    private boolean sketched() {
+        return aggOperator == Op.APPROX_COUNT_DISTINCT || aggOperator == Op.APPROX_QUANTILE;
     }
 
     /**
@@ -101,143 +92,176 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        if (noGroup) {
-            noGroupVersionMerge(tup);
-        } else {
-            Field gbCol = tup.getField(this.gbFieldIndex);
-            Integer aggCol = (Integer) ((IntField) tup.getField(this.aggFieldIndex)).getValue();
-            boolean firstElement;
-            if (this.aggOperator != Op.AVG) {
-                firstElement = (gbMap.containsKey(gbCol)) ? false : true;
-            } else {
-                firstElement = (gbAvgMap.containsKey(gbCol)) ? false : true;
+        Field gbCol = noGroup ? null : tup.getField(this.gbFieldIndex);
+        int aggCol = tup.getInt(this.aggFieldIndex);
+        if (sketched()) {
+            Object sketch = sketches.get(gbCol);
+            if (sketch == null) {
+                sketch = aggOperator == Op.APPROX_COUNT_DISTINCT ? new HyperLogLog() : new QuantileSketch();
+                sketches.put(gbCol, sketch);
             }
+            if (sketch instanceof HyperLogLog)
+                ((HyperLogLog) sketch).add(aggCol);
+            else
+                ((QuantileSketch) sketch).add(aggCol);
+            return;
+        }
+        long[] state = groups.get(gbCol);
+        if (state == null) {
+            //第一个元素: MIN/MAX直接取该值
+            state = new long[]{aggCol, 0};
+            if (aggOperator == Op.SUM || aggOperator == Op.AVG || aggOperator == Op.SUM_COUNT
+                    || aggOperator == Op.SC_AVG || aggOperator == Op.COUNT)
+                state[0] = 0;
+            groups.put(gbCol, state);
+        }
+        switch (this.aggOperator) {
+            case MIN:
+                state[0] = Math.min(state[0], aggCol);
+                break;
+            case MAX:
+                state[0] = Math.max(state[0], aggCol);
+                break;
+            case SUM:
+            case AVG:
+            case SUM_COUNT:
+                // 记得最后要除count
+                state[0] += aggCol;
+                state[1]++;
+                break;
+            case COUNT:
+                state[1]++;
+                break;
+            case SC_AVG:
+                //部分结果: sum在aggField, count在下一个field
+                state[0] += aggCol;
+                state[1] += tup.getInt(this.aggFieldIndex + 1);
+                break;
+            default:
+                throw new UnsupportedOperationException("unsupported operator " + aggOperator);
+        }
+    }
 
-            if (firstElement && !this.aggOperator.equals(Op.COUNT) && !this.aggOperator.equals(Op.AVG)) {
-                gbMap.put(gbCol, aggCol);
-            } else if (firstElement && this.aggOperator.equals(Op.COUNT)) {
-                gbMap.put(gbCol, 1);
-            } else if (firstElement && this.aggOperator.equals(Op.AVG)) {
-                ArrayList<Integer> countAndSum = new ArrayList<>();
-                countAndSum.add(1);
-                countAndSum.add(aggCol);
-                gbAvgMap.put(gbCol, countAndSum);
-            } else {
-                Integer oldValue = null;
-                ArrayList<Integer> oldAmountAndResult = null;
-                if (this.aggOperator == Op.AVG) {
-                    oldAmountAndResult = gbAvgMap.get(gbCol);
-                } else {
-                    oldValue = gbMap.get(gbCol);
-                }
-                switch (this.aggOperator) {
-                    case SUM:
-                        gbMap.replace(gbCol, oldValue + aggCol);
-                        break;
-
-                    case AVG:
-                        Integer oldCount = oldAmountAndResult.get(0);
-                        Integer oldSum = oldAmountAndResult.get(1);
-                        oldAmountAndResult.set(0, oldCount + 1);
-                        oldAmountAndResult.set(1, oldSum + aggCol);
-                        break;
-
-                    case MAX:
-                        if (aggCol > oldValue) {
-                            gbMap.replace(gbCol, aggCol);
-                        }
-                        break;
-
-                    case MIN:
-                        if (aggCol < oldValue) {
-                            gbMap.replace(gbCol, aggCol);
-                        }
-                        break;
+    /**
+     * @return the number of groups aggregated so far
+     */
+    int numGroups() {
+        return groups.size() + sketches.size();
+    }
 
-                    case COUNT:
-                        oldValue++;
-                        gbMap.replace(gbCol, oldValue);
-                        break;
+    /**
+     * @return true if tuples of group gbVal have been aggregated
+     */
+    boolean hasGroup(Field gbVal) {
+        return groups.containsKey(gbVal) || sketches.containsKey(gbVal);
+    }
 
-                    default:
-                        try {
-                            throw new DbException("We don't support this operator yet");
-                        } catch (DbException e) {
-                            e.printStackTrace();
-                        }
-                }
+    /**
+     * Merge the groups aggregated by other into this aggregator, as if the
+     * tuples merged into other had been merged into this one.
+     *
+     * @param other an aggregator with the same fields and operator, which
+     *        must not be used afterwards, as its sketches are reused
+     */
+    void merge(IntegerAggregator other) {
+        for (Map.Entry<Field, Object> e : other.sketches.entrySet()) {
+            Object sketch = sketches.get(e.getKey());
+            if (sketch == null)
+                sketches.put(e.getKey(), e.getValue());
+            else if (sketch instanceof HyperLogLog)
+                ((HyperLogLog) sketch).merge((HyperLogLog) e.getValue());
+            else
+                ((QuantileSketch) sketch).merge((QuantileSketch) e.getValue());
+        }
+        for (Map.Entry<Field, long[]> e : other.groups.entrySet()) {
+            long[] state = groups.get(e.getKey()), o = e.getValue();
+            if (state == null) {
+                groups.put(e.getKey(), o.clone());
+                continue;
             }
+            if (aggOperator == Op.MIN)
+                state[0] = Math.min(state[0], o[0]);
+            else if (aggOperator == Op.MAX)
+                state[0] = Math.max(state[0], o[0]);
+            else
+                state[0] += o[0];
+            state[1] += o[1];
         }
     }
 
     private TupleDesc getTd() {
         // some code goes here
-        Type[] typeArr;
-        String[] nameArr;
-
-        if (this.gbFieldIndex == Aggregator.NO_GROUPING) {
-            typeArr = new Type[1];
-            nameArr = new String[1];
-            typeArr[0] = Type.INT_TYPE;
-            nameArr[0] = "";
-        } else {
-            typeArr = new Type[2];
-            nameArr = new String[2];
+        //SUM_COUNT输出sum和count两个field
+        int aggFields = aggOperator == Op.SUM_COUNT ? 2 : 1;
+        int offset = noGroup ? 0 : 1;
+        Type[] typeArr = new Type[offset + aggFields];
+        String[] nameArr = new String[typeArr.length];
+        if (!noGroup)
             typeArr[0] = this.gbFieldType;
-            nameArr[0] = "";
-            typeArr[1] = Type.INT_TYPE;
-            nameArr[1] = "";
+        for (int i = 0; i < typeArr.length; i++) {
+            if (i >= offset)
+                typeArr[i] = Type.INT_TYPE;
+            nameArr[i] = "";
         }
-
         return new TupleDesc(typeArr, nameArr);
     }
 
-    private DbIterator noGroupVersionIterator() {
-        TupleDesc td = this.getTd();
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        Field value;
-        if (this.aggOperator != Op.AVG) {
-            value = new IntField((Integer) this.noGroupResult);
-        } else {
-            value = new IntField((Integer) this.noGroupResult / this.noGroupCount);
-        }
-        Tuple tuple = new Tuple(td);
-        tuple.setField(0, value);
-        tuples.add(tuple);
-        return new TupleIterator(td, tuples);
-    }
-
     /**
      * Create a DbIterator over group aggregate results.
      * 
      * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor; for SUM_COUNT it is two fields, the sum and the
+     *         count.
+     * @throws ArithmeticException if a sum or count does not fit in an
+     *         INT_TYPE field; averages are computed exactly
      */
     public DbIterator iterator() {
         // some code goes here
-        if (this.noGroup) {
-            return noGroupVersionIterator();
-        }
         TupleDesc td = this.getTd();
         ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-        Iterator mapIt;
-        mapIt = (this.aggOperator == Op.AVG) ? this.gbAvgMap.entrySet().iterator() :
-                this.gbMap.entrySet().iterator();
-        while (mapIt.hasNext()) {
-            Map.Entry mapElement = (Map.Entry) mapIt.next();
-            Field key = (Field) mapElement.getKey();
-            Field value;
-            if (this.aggOperator != Op.AVG) {
-                value = new IntField((Integer) mapElement.getValue());
-            } else {
-                ArrayList<Integer> ar = (ArrayList) mapElement.getValue();
-                value = new IntField((Integer) (ar.get(1) / ar.get(0)));
+        //不分组且没有输入时也输出一个结果
+        if (sketched()) {
+            if (noGroup && sketches.isEmpty())
+                sketches.put(null, aggOperator == Op.APPROX_COUNT_DISTINCT
+                        ? new HyperLogLog() : new QuantileSketch());
+            for (Map.Entry<Field, Object> e : sketches.entrySet()) {
+                Tuple tuple = new Tuple(td);
+                int i = 0;
+                if (!noGroup)
+                    tuple.setField(i++, e.getKey());
+                if (e.getValue() instanceof HyperLogLog)
+                    tuple.setInt(i, Math.toIntExact(((HyperLogLog) e.getValue()).estimate()));
+                else
+                    tuple.setInt(i, ((QuantileSketch) e.getValue()).quantile(quantile));
+                tuples.add(tuple);
             }
+            return new TupleIterator(td, tuples);
+        }
+        if (noGroup && groups.isEmpty())
+            groups.put(null, new long[]{0, 0});
+        for (Map.Entry<Field, long[]> e : groups.entrySet()) {
+            long[] state = e.getValue();
             Tuple tuple = new Tuple(td);
-            tuple.setField(0, key);
-            tuple.setField(1, value);
+            int i = 0;
+            if (!noGroup)
+                tuple.setField(i++, e.getKey());
+            switch (aggOperator) {
+                case AVG:
+                case SC_AVG:
+                    tuple.setInt(i, state[1] == 0 ? 0 : (int) (state[0] / state[1]));
+                    break;
+                case COUNT:
+                    tuple.setInt(i, Math.toIntExact(state[1]));
+                    break;
+                case SUM_COUNT:
+                    tuple.setInt(i, Math.toIntExact(state[0]));
+                    tuple.setInt(i + 1, Math.toIntExact(state[1]));
+                    break;
+                default:
+                    tuple.setInt(i, Math.toIntExact(state[0]));
+            }
             tuples.add(tuple);
         }
         return new TupleIterator(td, tuples);
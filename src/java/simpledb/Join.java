@@ -4,6 +4,10 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a nested loops join that produces its results one at a time, so
+ * an operator above it that stops pulling tuples, such as {@link Limit},
+ * stops the join as well.
  */
 public class Join extends Operator {
 
@@ -11,8 +15,9 @@ public class Join extends Operator {
 
     private JoinPredicate p;
     private DbIterator child1, child2;
-    private ArrayList<Tuple> joinResults = new ArrayList<Tuple>();
-    private Iterator<Tuple> joinResultsIterator;
+    private TupleDesc td;
+    //外层当前的tuple, 与内层剩下的tuple还未比较完
+    private Tuple outer;
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -29,6 +34,7 @@ public class Join extends Operator {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -62,7 +68,7 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -71,17 +77,7 @@ public class Join extends Operator {
         this.child1.open();
         this.child2.open();
         super.open();
-        while (child1.hasNext()) {
-            Tuple t1 = child1.next();
-            while (child2.hasNext()) {
-                Tuple t2 = child2.next();
-                if (this.p.filter(t1, t2)) {
-                    joinResults.add(Tuple.merge(t1, t2));
-                }
-            }
-            child2.rewind();
-        }
-        joinResultsIterator = joinResults.iterator();
+        outer = null;
     }
 
     public void close() {
@@ -89,14 +85,14 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
-        joinResults = new ArrayList<Tuple>();
-        joinResultsIterator = null;
+        outer = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        close();
-        open();
+        child1.rewind();
+        child2.rewind();
+        outer = null;
     }
 
     /**
@@ -119,10 +115,22 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (joinResultsIterator.hasNext()) {
-            return joinResultsIterator.next();
+        while (true) {
+            if (outer == null) {
+                if (!child1.hasNext())
+                    return null;
+                outer = child1.next();
+            }
+            while (child2.hasNext()) {
+                Tuple t2 = child2.next();
+                if (this.p.filter(outer, t2)) {
+                    return Tuple.merge(outer, t2, td);
+                }
+            }
+            //内层扫完, 换下一个外层tuple
+            child2.rewind();
+            outer = null;
         }
-        return null;
     }
 
     @Override
@@ -139,6 +147,7 @@ public class Join extends Operator {
         // some code goes here
         this.child1 = children[0];
         this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
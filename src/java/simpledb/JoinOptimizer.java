@@ -14,6 +14,68 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /** The largest value of {@link #setMaxDpJoins}. */
+    public static final int MAX_DP_JOINS = 20;
+
+    /** The default value of {@link #setMaxDpJoins}. */
+    public static final int DEFAULT_MAX_DP_JOINS = 15;
+
+    private static int maxDpJoins = DEFAULT_MAX_DP_JOINS;
+
+    /**
+     * The largest number of pairs of sets of tables that {@link #orderJoins}
+     * considers joining by dynamic programming before ordering the joins
+     * greedily instead.
+     */
+    public static final long MAX_DP_PAIRS = 1 << 20;
+
+    /** A join between two base tables, in both orientations. */
+    private static final class Edge {
+        final LogicalJoinNode join;
+        final LogicalJoinNode swapped;
+        // the numbers of join.t1Alias and join.t2Alias
+        final int rel1, rel2;
+        // whether the join fields are primary keys
+        final boolean pkey1, pkey2;
+        // whether an index join can be used for join, or for swapped
+        final boolean index, swappedIndex;
+
+        Edge(LogicalJoinNode join, LogicalJoinNode swapped, int rel1, int rel2,
+                boolean pkey1, boolean pkey2, boolean index, boolean swappedIndex) {
+            this.join = join;
+            this.swapped = swapped;
+            this.rel1 = rel1;
+            this.rel2 = rel2;
+            this.pkey1 = pkey1;
+            this.pkey2 = pkey2;
+            this.index = index;
+            this.swappedIndex = swappedIndex;
+        }
+    }
+
+    // the join graph, set up by orderJoins: the aliases of the base tables,
+    // their scan costs and cardinalities, and the joins between them
+    private String[] relAliases;
+    private double[] relCost;
+    private int[] relCard;
+    private Edge[] edges;
+
+    // during dynamic programming: the best plan of each connected set of
+    // tables, indexed by its bitmask, the tables joined to each table and
+    // the joins at it, and the statistics used to estimate cardinalities
+    private CostCard[] best;
+    private long[] neighbors;
+    private Edge[][] tableEdges;
+    // whether an index join can probe each table, and the number of pairs
+    // of sets that may still be considered
+    private boolean[] indexable;
+    private long pairsLeft;
+    private HashMap<String, TableStats> stats;
+
+    // the joins of the order last returned by orderJoins that were costed as
+    // index joins, by identity, or null if that order was not costed
+    private Set<LogicalJoinNode> indexJoins;
+
     /**
      * Constructor
      * 
@@ -102,19 +164,92 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, canUseIndexJoin(j));
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     *
+     * @param indexJoin
+     *            true if the right-hand side of the join is the base table
+     *            j.t2Alias rather than the result of earlier joins, and
+     *            {@link #canUseIndexJoin} holds for j
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean indexJoin) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 5.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            double cost = nestedLoopCost(card1, card2, cost1, cost2);
+            if (indexJoin)
+                cost = Math.min(cost, estimateIndexJoinCost(j, card1, cost1, cost2));
+            return cost;
         }
     }
 
+    /**
+     * Return true if j, which {@link #canUseIndexJoin} holds for, is
+     * estimated to be cheaper as an {@link IndexNestedLoopJoin} than as a
+     * nested-loop {@link Join}, so that estimateJoinCost costs it as one.
+     */
+    private boolean indexJoinCheaper(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        return estimateIndexJoinCost(j, card1, cost1, cost2) < nestedLoopCost(card1, card2, cost1, cost2);
+    }
+
+    /** Estimate the cost of a nested-loop {@link Join}, which rescans the inner relation once per outer tuple. */
+    private static double nestedLoopCost(int card1, int card2, double cost1, double cost2) {
+        return cost1 + (double) card1 * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopJoin} that probes the
+     * B+ tree on j.t2Alias once per distinct outer key. Outer keys are sorted
+     * before probing, so the internal pages stay cached and each probe costs
+     * about one leaf page read, never more than reading every leaf once.
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1,
+            double cost1, double cost2) {
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(
+                p.getTableId(j.t2Alias));
+        int pages = Math.max(f.numPages(), 1);
+        double costPerPage = cost2 / pages;
+        double pageReads = Math.min((double) card1, (double) pages);
+        return cost1 + pageReads * costPerPage + card1;
+    }
+
+    /**
+     * Return true if the join can be computed by an
+     * {@link IndexNestedLoopJoin} over the base table j.t2Alias: it is an
+     * equality join, that table is a BTreeFile keyed on the join field, and
+     * no filter has to be applied to it before joining.
+     */
+    public boolean canUseIndexJoin(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode || j.p != Predicate.Op.EQUALS
+                || j.t2Alias == null)
+            return false;
+        Integer tableid = p.getTableId(j.t2Alias);
+        if (tableid == null || p.hasFilter(j.t2Alias))
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile))
+            return false;
+        String key = f.getTupleDesc().getFieldName(((BTreeFile) f).keyField());
+        return j.f2PureName.equals(key);
+    }
+
+    /**
+     * Return true if the join j, one of those returned by the last call to
+     * {@link #orderJoins}, should be computed by an {@link IndexNestedLoopJoin}:
+     * the order was chosen with j costed as one, or, if there were no
+     * statistics to cost the joins with, {@link #canUseIndexJoin} holds for j.
+     */
+    public boolean useIndexJoin(LogicalJoinNode j) {
+        return indexJoins == null ? canUseIndexJoin(j) : indexJoins.contains(j);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -157,6 +292,22 @@ public class JoinOptimizer {
             Map<String, Integer> tableAliasToId) {
         int card = 1;
         // some code goes here
+        if (joinOp == Predicate.Op.EQUALS) {
+            // each tuple matches at most one tuple of a table on its key
+            if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else
+                card = Math.max(card1, card2);
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (int) Math.min(Integer.MAX_VALUE, (double) card1 * card2 - Math.max(card1, card2));
+        } else {
+            // range predicates keep a fixed fraction of the cross product
+            card = (int) Math.min(Integer.MAX_VALUE, 0.3 * card1 * card2);
+        }
         return card <= 0 ? 1 : card;
     }
 
@@ -196,6 +347,19 @@ public class JoinOptimizer {
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The tables are the nodes of a graph whose edges are the joins between
+     * them. When the tables can be connected with at most
+     * {@link #setMaxDpJoins maxDpJoins} joins, the cheapest plan is found by
+     * dynamic programming over the connected sets of tables, which are
+     * represented as bitmasks indexing an array of the best plan of each
+     * set. Plans may be bushy, joining the results of two earlier joins;
+     * cross products are never considered. Larger queries, and those whose
+     * join graph is so dense that more than {@link #MAX_DP_PAIRS} pairs of
+     * sets would be considered, are
+     * ordered greedily, by repeatedly performing the join with the smallest
+     * estimated result. Without statistics for all of the tables, the joins
+     * are performed in the order given.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -207,8 +371,9 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed. The tables of a join may each
+     *         have been joined to others by earlier joins.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -220,172 +385,423 @@ public class JoinOptimizer {
         //Not necessary for labs 1--3
 
         // some code goes here
-        //Replace the following
-        return joins;
+        indexJoins = null;
+        if (!buildJoinGraph(stats, filterSelectivities))
+            return joins;
+        indexJoins = Collections.newSetFromMap(new IdentityHashMap<LogicalJoinNode, Boolean>());
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        PlanCache pc = explain ? new PlanCache() : null;
+        if (relAliases.length - 1 > maxDpJoins || !orderByDp(stats, order, pc))
+            orderGreedily(stats, order, pc);
+        // joins with subqueries are performed last
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode)
+                addStep(order, pc, j, lastCost(pc, order), lastCard(pc, order));
+        }
+        if (explain)
+            printJoins(order, pc, stats, filterSelectivities);
+        return order;
+    }
+
+    /**
+     * Set the largest number of joins needed to connect the tables of a
+     * query for which {@link #orderJoins} finds the cheapest order by dynamic
+     * programming. Queries on more tables are ordered greedily, as the time
+     * and memory needed grow as 2 to the number of tables.
+     *
+     * @throws IllegalArgumentException if n is negative or more than
+     *         {@link #MAX_DP_JOINS}
+     */
+    public static void setMaxDpJoins(int n) {
+        if (n < 0 || n > MAX_DP_JOINS)
+            throw new IllegalArgumentException("maxDpJoins " + n + " not in [0, " + MAX_DP_JOINS + "]");
+        maxDpJoins = n;
+    }
+
+    /**
+     * @return the largest number of joins ordered by dynamic programming
+     * @see #setMaxDpJoins
+     */
+    public static int getMaxDpJoins() {
+        return maxDpJoins;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * Set up the join graph of the joins between base tables: relAliases,
+     * relCost and relCard describe the tables, and edges the joins.
+     *
+     * @return false if there are no statistics for some of the tables
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private boolean buildJoinGraph(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) throws ParsingException {
+        Map<String, Integer> rels = new LinkedHashMap<String, Integer>();
+        Vector<Edge> es = new Vector<Edge>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode)
+                continue;
+            int rel1 = relation(j.t1Alias, rels);
+            int rel2 = relation(j.t2Alias, rels);
+            LogicalJoinNode swapped = j.swapInnerOuter();
+            es.add(new Edge(j, swapped, rel1, rel2, isPkey(j.t1Alias, j.f1PureName),
+                    isPkey(j.t2Alias, j.f2PureName), canUseIndexJoin(j), canUseIndexJoin(swapped)));
+        }
+        edges = es.toArray(new Edge[es.size()]);
+        relAliases = rels.keySet().toArray(new String[rels.size()]);
+        relCost = new double[relAliases.length];
+        relCard = new int[relAliases.length];
+        for (int r = 0; r < relAliases.length; r++) {
+            String tableName = Database.getCatalog().getTableName(p.getTableId(relAliases[r]));
+            TableStats s = stats.get(tableName);
+            if (s == null)
+                return false;
+            Double selectivity = filterSelectivities.get(relAliases[r]);
+            if (selectivity == null)
+                throw new ParsingException("No filter selectivity for table " + relAliases[r]);
+            relCost[r] = s.estimateScanCost();
+            relCard[r] = s.estimateTableCardinality(selectivity);
+        }
+        return true;
+    }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
+    /** Return the number of the table with the given alias in rels, adding it if needed. */
+    private int relation(String alias, Map<String, Integer> rels) throws ParsingException {
+        Integer r = rels.get(alias);
+        if (r == null) {
+            if (p.getTableId(alias) == null)
+                throw new ParsingException("Unknown table " + alias);
+            r = rels.size();
+            rels.put(alias, r);
+        }
+        return r;
+    }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+    /**
+     * Order the joins by dynamic programming over the connected sets of
+     * tables, as in DPccp (Moerkotte and Neumann, "Analysis of Two Existing
+     * and One New Dynamic Programming Algorithm for the Generation of Optimal
+     * Bushy Join Trees without Cross Products"): each pair of disjoint
+     * connected sets that are joined to each other is considered once, after
+     * all of the pairs that make up either set, and the best plan of their
+     * union may join the best plans of both sets, whichever their shape.
+     *
+     * @return false, adding nothing to order, if more than MAX_DP_PAIRS
+     *         pairs of sets would be considered
+     */
+    private boolean orderByDp(HashMap<String, TableStats> stats,
+            Vector<LogicalJoinNode> order, PlanCache pc) {
+        int n = relAliases.length;
+        best = new CostCard[1 << n];
+        neighbors = new long[n];
+        List<List<Edge>> at = new ArrayList<List<Edge>>();
+        for (int r = 0; r < n; r++)
+            at.add(new ArrayList<Edge>());
+        for (Edge e : edges) {
+            neighbors[e.rel1] |= 1L << e.rel2;
+            neighbors[e.rel2] |= 1L << e.rel1;
+            at.get(e.rel1).add(e);
+            if (e.rel2 != e.rel1)
+                at.get(e.rel2).add(e);
+        }
+        tableEdges = new Edge[n][];
+        indexable = new boolean[n];
+        for (int r = 0; r < n; r++)
+            tableEdges[r] = at.get(r).toArray(new Edge[at.get(r).size()]);
+        for (Edge e : edges) {
+            indexable[e.rel2] |= e.index;
+            indexable[e.rel1] |= e.swappedIndex;
+        }
+        for (int r = 0; r < n; r++) {
+            CostCard c = new CostCard();
+            c.cost = relCost[r];
+            c.card = relCard[r];
+            c.tables = 1L << r;
+            best[1 << r] = c;
+        }
+        this.stats = stats;
+        pairsLeft = MAX_DP_PAIRS;
+        // the connected sets whose lowest table is r, from the last table down
+        for (int r = n - 1; r >= 0 && pairsLeft >= 0; r--) {
+            emitCsg(1L << r);
+            enumerateCsgRec(1L << r, (1L << (r + 1)) - 1);
+        }
+        if (pairsLeft < 0) {
+            clearDp();
+            return false;
+        }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+        // each connected component of the graph is joined separately
+        boolean[] placed = new boolean[edges.length];
+        long done = 0;
+        for (int r = 0; r < n; r++) {
+            if ((done >>> r & 1) != 0)
+                continue;
+            long component = 1L << r;
+            for (long prev = 0; prev != component;) {
+                prev = component;
+                for (int i = 0; i < n; i++) {
+                    if ((component >>> i & 1) != 0)
+                        component |= neighbors[i];
+                }
             }
+            addDpSteps(best[(int) component], order, placed, pc);
+            done |= component;
         }
+        addUnplaced(order, placed, pc);
+        clearDp();
+        return true;
+    }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+    private void clearDp() {
+        stats = null;
+        best = null;
+        neighbors = null;
+        tableEdges = null;
+        indexable = null;
+    }
+
+    /** Return the tables joined to a table in s, other than those in s and x. */
+    private long neighborhood(long s, long x) {
+        long nb = 0;
+        for (long rest = s; rest != 0; rest &= rest - 1)
+            nb |= neighbors[Long.numberOfTrailingZeros(rest)];
+        return nb & ~s & ~x;
+    }
+
+    /**
+     * Call emitCsg for each connected set made by adding tables outside x to
+     * the connected set s, smaller sets first.
+     */
+    private void enumerateCsgRec(long s, long x) {
+        long nb = neighborhood(s, x);
+        for (long sub = nb & -nb; sub != 0 && pairsLeft >= 0; sub = (sub - nb) & nb)
+            emitCsg(s | sub);
+        for (long sub = nb & -nb; sub != 0 && pairsLeft >= 0; sub = (sub - nb) & nb)
+            enumerateCsgRec(s | sub, x | nb);
+    }
+
+    /**
+     * Consider joining the connected set s1 to each connected set of tables
+     * numbered above the lowest table of s1 that is joined to it.
+     */
+    private void emitCsg(long s1) {
+        long x = s1 | ((s1 & -s1) << 1) - 1;
+        long nb = neighborhood(s1, x);
+        for (long rest = nb; rest != 0 && pairsLeft >= 0;) {
+            long s2 = Long.highestOneBit(rest);
+            rest &= ~s2;
+            computeCostAndCardOfSubplan(s1, s2);
+            enumerateCmpRec(s1, s2, x | (nb & ((s2 << 1) - 1)));
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
+    }
 
-        CostCard cc = new CostCard();
+    /** Consider joining s1 to each connected set made by adding tables outside x to s2. */
+    private void enumerateCmpRec(long s1, long s2, long x) {
+        long nb = neighborhood(s2, x);
+        for (long sub = nb & -nb; sub != 0 && pairsLeft >= 0; sub = (sub - nb) & nb)
+            computeCostAndCardOfSubplan(s1, s2 | sub);
+        for (long sub = nb & -nb; sub != 0 && pairsLeft >= 0; sub = (sub - nb) & nb)
+            enumerateCmpRec(s1, s2 | sub, x | nb);
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
+    /**
+     * This is a helper method that computes the cost and cardinality of
+     * joining the best plans of the disjoint connected sets of tables s1 and
+     * s2, over each of the joins between them in both orientations, and
+     * makes the cheapest the best plan of their union if it is cheaper than
+     * the best plan found so far. The best plans of s1 and s2 must be
+     * complete.
+     * 
+     * @param s1
+     *            a set of tables, as a bitmask of their numbers
+     * @param s2
+     *            a set of tables joined to s1
+     */
+    private void computeCostAndCardOfSubplan(long s1, long s2) {
+        pairsLeft--;
+        CostCard c1 = best[(int) s1];
+        CostCard c2 = best[(int) s2];
+        // an index join needs a base table as its inner relation
+        boolean single1 = (s1 & (s1 - 1)) == 0;
+        boolean single2 = (s2 & (s2 - 1)) == 0;
+        int t = (int) (s1 | s2);
+        // without an index join, the cost does not depend on the join used
+        if (best[t] != null
+                && !(single1 && indexable[Long.numberOfTrailingZeros(s1)])
+                && !(single2 && indexable[Long.numberOfTrailingZeros(s2)])
+                && Math.min(nestedLoopCost(c1.card, c2.card, c1.cost, c2.cost),
+                        nestedLoopCost(c2.card, c1.card, c2.cost, c1.cost)) > best[t].cost)
+            return;
+        // each join between s1 and s2 is at one of the tables of the smaller
+        long smaller = Long.bitCount(s1) <= Long.bitCount(s2) ? s1 : s2;
+        for (long rest = smaller; rest != 0; rest &= rest - 1) {
+            for (Edge e : tableEdges[Long.numberOfTrailingZeros(rest)])
+                considerJoin(c1, c2, s1, s2, single1, single2, t, e);
+        }
+    }
+
+    /** Consider joining c1 and c2, the best plans of s1 and s2, over e, if it is a join between them. */
+    private void considerJoin(CostCard c1, CostCard c2, long s1, long s2,
+            boolean single1, boolean single2, int t, Edge e) {
+        boolean forward = (s1 >>> e.rel1 & 1) != 0 && (s2 >>> e.rel2 & 1) != 0;
+        if (!forward && ((s2 >>> e.rel1 & 1) == 0 || (s1 >>> e.rel2 & 1) == 0))
+            return;
+        // j has s1 as its outer relation, j2 has s2
+        LogicalJoinNode j = forward ? e.join : e.swapped;
+        LogicalJoinNode j2 = forward ? e.swapped : e.join;
+        boolean pkey1 = single1 ? (forward ? e.pkey1 : e.pkey2) : c1.hasPkey;
+        boolean pkey2 = single2 ? (forward ? e.pkey2 : e.pkey1) : c2.hasPkey;
+        boolean index1 = single2 && (forward ? e.index : e.swappedIndex);
+        boolean index2 = single1 && (forward ? e.swappedIndex : e.index);
+        double cost1 = estimateJoinCost(j, c1.card, c2.card, c1.cost, c2.cost, index1);
+        double cost2 = estimateJoinCost(j2, c2.card, c1.card, c2.cost, c1.cost, index2);
+        double cost = Math.min(cost1, cost2);
+        int card = cost2 < cost1
+                ? estimateJoinCardinality(j2, c2.card, c1.card, pkey2, pkey1, stats)
+                : estimateJoinCardinality(j, c1.card, c2.card, pkey1, pkey2, stats);
+        // the joins between two sets cost the same, so the most selective one is kept
+        if (best[t] != null && (cost > best[t].cost || (cost == best[t].cost && card >= best[t].card)))
+            return;
+        if (best[t] == null) {
+            best[t] = new CostCard();
+            best[t].tables = s1 | s2;
+        }
+        CostCard cc = best[t];
+        cc.cost = cost;
+        cc.card = card;
+        cc.left = cost2 < cost1 ? c2 : c1;
+        cc.right = cost2 < cost1 ? c1 : c2;
+        cc.join = cost2 < cost1 ? j2 : j;
+        cc.indexJoin = cost2 < cost1
+                ? index2 && indexJoinCheaper(j2, c2.card, c1.card, c2.cost, c1.cost)
+                : index1 && indexJoinCheaper(j, c1.card, c2.card, c1.cost, c2.cost);
+        cc.hasPkey = c1.hasPkey || c2.hasPkey || e.pkey1 || e.pkey2;
+    }
+
+    /** Add the joins of the plan c to order, those of its subplans first. */
+    private void addDpSteps(CostCard c, Vector<LogicalJoinNode> order, boolean[] placed, PlanCache pc) {
+        if (c.join == null)
+            return;
+        addDpSteps(c.left, order, placed, pc);
+        addDpSteps(c.right, order, placed, pc);
+        addStep(order, pc, c.join, c.cost, c.card);
+        if (c.indexJoin)
+            indexJoins.add(c.join);
+        // the other joins between these tables are applied to the result
+        for (int k = 0; k < edges.length; k++) {
+            Edge e = edges[k];
+            if (placed[k] || (c.tables >>> e.rel1 & 1) == 0 || (c.tables >>> e.rel2 & 1) == 0)
+                continue;
+            placed[k] = true;
+            if (e.join != c.join && e.swapped != c.join)
+                addStep(order, pc, e.join, c.cost, c.card);
+        }
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Order the joins greedily: each step performs the join between two of
+     * the plans built so far with the smallest estimated cardinality, in the
+     * cheaper orientation. The resulting order may join two such plans, so
+     * it is not always left-deep.
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private void orderGreedily(HashMap<String, TableStats> stats,
+            Vector<LogicalJoinNode> order, PlanCache pc) {
+        int n = relAliases.length;
+        // the plan each table is in, named by one of its tables
+        int[] plan = new int[n];
+        double[] cost = relCost.clone();
+        int[] card = relCard.clone();
+        boolean[] pkey = new boolean[n];
+        boolean[] single = new boolean[n];
+        for (int r = 0; r < n; r++) {
+            plan[r] = r;
+            single[r] = true;
+        }
+        boolean[] placed = new boolean[edges.length];
+        while (true) {
+            Edge best = null;
+            LogicalJoinNode bestJ = null;
+            double bestJCost = 0;
+            int bestJCard = 0;
+            boolean bestJIndex = false;
+            for (int k = 0; k < edges.length; k++) {
+                Edge e = edges[k];
+                int p1 = plan[e.rel1], p2 = plan[e.rel2];
+                if (placed[k] || p1 == p2)
+                    continue;
+                boolean leftPkey = single[p1] ? e.pkey1 : pkey[p1];
+                boolean rightPkey = single[p2] ? e.pkey2 : pkey[p2];
+                boolean index1 = single[p2] && e.index;
+                boolean index2 = single[p1] && e.swappedIndex;
+                double cost1 = estimateJoinCost(e.join, card[p1], card[p2], cost[p1], cost[p2], index1);
+                double cost2 = estimateJoinCost(e.swapped, card[p2], card[p1], cost[p2], cost[p1], index2);
+                LogicalJoinNode j = cost2 < cost1 ? e.swapped : e.join;
+                int jCard = cost2 < cost1
+                        ? estimateJoinCardinality(j, card[p2], card[p1], rightPkey, leftPkey, stats)
+                        : estimateJoinCardinality(j, card[p1], card[p2], leftPkey, rightPkey, stats);
+                double jCost = Math.min(cost1, cost2);
+                if (best == null || jCard < bestJCard || (jCard == bestJCard && jCost < bestJCost)) {
+                    best = e;
+                    bestJ = j;
+                    bestJCost = jCost;
+                    bestJCard = jCard;
+                    bestJIndex = cost2 < cost1
+                            ? index2 && indexJoinCheaper(j, card[p2], card[p1], cost[p2], cost[p1])
+                            : index1 && indexJoinCheaper(j, card[p1], card[p2], cost[p1], cost[p2]);
+                }
+            }
+            if (best == null)
+                break;
+            // the outer plan takes in the inner one
+            int outer = plan[bestJ == best.join ? best.rel1 : best.rel2];
+            int inner = plan[bestJ == best.join ? best.rel2 : best.rel1];
+            for (int r = 0; r < n; r++) {
+                if (plan[r] == inner)
+                    plan[r] = outer;
+            }
+            cost[outer] = bestJCost;
+            card[outer] = bestJCard;
+            pkey[outer] = pkey[outer] || pkey[inner] || best.pkey1 || best.pkey2;
+            single[outer] = false;
+            addStep(order, pc, bestJ, bestJCost, bestJCard);
+            if (bestJIndex)
+                indexJoins.add(bestJ);
+            // the other joins between these tables are applied to the result
+            for (int k = 0; k < edges.length; k++) {
+                Edge e = edges[k];
+                if (placed[k] || plan[e.rel1] != outer || plan[e.rel2] != outer)
+                    continue;
+                placed[k] = true;
+                if (e != best)
+                    addStep(order, pc, e.join, bestJCost, bestJCard);
+            }
+        }
+        addUnplaced(order, placed, pc);
+    }
+
+    /** Add the joins not placed yet, such as those of a table with itself, to order. */
+    private void addUnplaced(Vector<LogicalJoinNode> order, boolean[] placed, PlanCache pc) {
+        for (int k = 0; k < edges.length; k++) {
+            if (!placed[k])
+                addStep(order, pc, edges[k].join, lastCost(pc, order), lastCard(pc, order));
         }
-        return false;
+    }
+
+    /** Add j to order, and the plan so far to pc if it is not null. */
+    private static void addStep(Vector<LogicalJoinNode> order, PlanCache pc,
+            LogicalJoinNode j, double cost, int card) {
+        order.add(j);
+        if (pc != null)
+            pc.addPlan(new HashSet<LogicalJoinNode>(order), cost, card, new Vector<LogicalJoinNode>(order));
+    }
+
+    private static double lastCost(PlanCache pc, Vector<LogicalJoinNode> order) {
+        return pc == null || order.isEmpty() ? 0 : pc.getCost(new HashSet<LogicalJoinNode>(order));
+    }
+
+    private static int lastCard(PlanCache pc, Vector<LogicalJoinNode> order) {
+        return pc == null || order.isEmpty() ? 0 : pc.getCard(new HashSet<LogicalJoinNode>(order));
     }
 
     /**
@@ -404,20 +820,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -41,6 +41,8 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE)
+            return IntField.compare(t1.getInt(field1), op, t2.getInt(field2));
         Field f1 = t1.getField(field1), f2 = t2.getField(field2);
         return (f1.compare(op, f2)) ? true : false;
     }
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit returns the first n tuples of its child, as LIMIT n does. It stops
+ * pulling tuples from its child once it has returned n of them, so the
+ * operators below it that return tuples as they produce them, such as
+ * {@link Filter}, {@link Project} and {@link Join}, do no more work than
+ * needed for those n tuples.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int n;
+    // the number of tuples returned since the last open or rewind
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param n
+     *            the number of tuples to return
+     * @param child
+     *            the child operator
+     * @throws IllegalArgumentException if n is negative
+     */
+    public Limit(int n, DbIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("negative limit " + n);
+        this.n = n;
+        this.child = child;
+    }
+
+    /**
+     * @return the number of tuples returned, at most
+     */
+    public int getLimit() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        super.open();
+        returned = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    /**
+     * Returns the next tuple of the child, or null once n tuples have been
+     * returned.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (returned >= n || !child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
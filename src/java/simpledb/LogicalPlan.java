@@ -1,7 +1,9 @@
 package simpledb;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -12,9 +14,13 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, a list of aggregates and a list
+ * of group by fields, and optionally an ORDER BY field. Any number of
+ * aggregates, grouped by any number of fields, can be computed (see
+ * {@link #addAggregate} and {@link #addGroupBy}). The result can be made
+ * DISTINCT with {@link #setDistinct} and cut off after its first rows
+ * with {@link #addLimit}, and a table can be scanned as a random sample
+ * of its pages with {@link #addScan(int, String, double, long)}.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,15 +35,23 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    // the aggregates computed by the plan, in the order they were added
+    private Vector<LogicalSelectListNode> aggregates;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    // the number of tuples the query returns, or -1 for all of them
+    private int limit = -1;
+    private boolean distinct = false;
     private String query;
 //    private Query owner;
 
+    /** An aggregate over a single heap file is computed by a
+        {@link ParallelAggregate}, with one thread per processor, if the file
+        has at least this many pages per thread. */
+    public static final int PARALLEL_AGGREGATE_PAGES = 64;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
@@ -47,6 +61,8 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggregates = new Vector<LogicalSelectListNode>();
         this.query = "";
     }
 
@@ -81,6 +97,17 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** Return true if some filter in the WHERE clause applies to the table
+        with the specified alias.
+     */
+    boolean hasFilter(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                return true;
+        }
+        return false;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -168,6 +195,25 @@ public class LogicalPlan {
         tableMap.put(name,table);
     }
 
+    /** Add a scan of a random sample of the pages of a table to the plan,
+        as TABLESAMPLE SYSTEM (100 * fraction) REPEATABLE (seed) does. The
+        table is read with a {@link SampleScan}, and aggregates over it
+        estimate COUNT and SUM over the whole table.
+        @param table the id of the table accessed by the plan
+        @param name the alias of the table in the plan
+        @param fraction the fraction of the pages of the table to read,
+        more than 0 and at most 1
+        @param seed the seed of the random choice of the pages
+     * @throws ParsingException if fraction is not in (0, 1]
+    */
+    public void addScan(int table, String name, double fraction, long seed) throws ParsingException {
+        if (!(fraction > 0 && fraction <= 1))
+            throw new ParsingException("Invalid sampling fraction " + fraction);
+        System.out.println("Added sample scan of table " + name);
+        tables.addElement(new LogicalScanNode(table, name, fraction, seed));
+        tableMap.put(name,table);
+    }
+
     /** Add a specified field/aggregate combination to the select list of the query.
         Fields are output by the query such that the rightmost field is the first added via addProjectField.
         @param fname the field to add to the output
@@ -186,23 +232,49 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  A query may compute any number of aggregates, which are
+        all evaluated in a single pass over the data, grouped by all of the
+        GROUP BY fields added by this method and {@link #addGroupBy}.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        getAggOp(op);
+        if (findAggregate(op, afield) < 0)
+            aggregates.addElement(new LogicalSelectListNode(op, afield));
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        hasAgg = true;
+    }
+
+    /** Add a field to the GROUP BY list of the query.  Groups are formed
+        by the values of all the GROUP BY fields, in the order they were
+        added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
         hasAgg = true;
     }
 
+    /** @return the position of aggregate op(afield) in the aggregates of
+        the plan, or -1 if the plan does not compute it */
+    private int findAggregate(String op, String afield) throws ParsingException {
+        for (int i = 0; i < aggregates.size(); i++) {
+            LogicalSelectListNode agg = aggregates.get(i);
+            if (getAggOp(agg.aggOp) == getAggOp(op) && getAggQuantile(agg.aggOp) == getAggQuantile(op)
+                    && agg.fname.equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -216,6 +288,29 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT to the query, so that it returns at most n tuples.  With
+        an ORDER BY, the first n tuples in order are found with a
+        {@link TopN} instead of sorting every tuple; otherwise the plan stops
+        pulling tuples from its operators once it has returned n of them.
+        @param n the number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("Invalid LIMIT " + n);
+        limit = n;
+    }
+
+    /** Make the query return each distinct tuple of its SELECT list once, as
+        SELECT DISTINCT does.  The tuples are made distinct with a
+        {@link Distinct} above the projection, so an ORDER BY field must then
+        be in the SELECT list.
+        @param distinct true if the query returns distinct tuples
+    */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -259,6 +354,8 @@ public class LogicalPlan {
     }
 
     /** Convert the aggregate operator name s into an Aggregator.op operation.
+     *  APPROX_QUANTILE may be followed by the quantile to estimate, as in
+     *  "approx_quantile(0.99)"; see {@link #getAggQuantile}.
      *  @throws ParsingException if s is not a valid operator name 
      */
     static Aggregator.Op getAggOp(String s) throws ParsingException {
@@ -268,9 +365,252 @@ public class LogicalPlan {
         if (s.equals("COUNT")) return Aggregator.Op.COUNT;
         if (s.equals("MIN")) return Aggregator.Op.MIN;
         if (s.equals("MAX")) return Aggregator.Op.MAX;
+        if (s.equals("APPROX_COUNT_DISTINCT")) return Aggregator.Op.APPROX_COUNT_DISTINCT;
+        int open = s.indexOf('(');
+        if ((open < 0 ? s : s.substring(0, open).trim()).equals("APPROX_QUANTILE")) {
+            getAggQuantile(s);
+            return Aggregator.Op.APPROX_QUANTILE;
+        }
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** @return the quantile named by the aggregate operator name s, as in
+     *  "approx_quantile(0.99)", or {@link Aggregator#DEFAULT_QUANTILE} if s
+     *  names none
+     *  @throws ParsingException if the quantile is not a number between 0
+     *  and 1
+     */
+    static double getAggQuantile(String s) throws ParsingException {
+        int open = s.indexOf('(');
+        if (open < 0)
+            return Aggregator.DEFAULT_QUANTILE;
+        if (!s.endsWith(")"))
+            throw new ParsingException("Invalid quantile in " + s);
+        try {
+            double q = Double.parseDouble(s.substring(open + 1, s.length() - 1).trim());
+            if (q >= 0 && q <= 1)
+                return q;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ParsingException("Invalid quantile in " + s);
+    }
+
+    /** Return the fully qualified names of the columns read by the select
+     *  list, the aggregate, and the GROUP BY and ORDER BY clauses, or null if
+     *  the select list contains "*" and every column must be kept.
+     */
+    private Set<String> outputColumns() {
+        Set<String> cols = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*") || si.fname.equals("*"))
+                return null;
+            cols.add(si.fname);
+        }
+        if (hasAgg) {
+            for (LogicalSelectListNode agg : aggregates)
+                cols.add(agg.fname);
+            cols.addAll(groupByFields);
+        }
+        if (hasOrderBy)
+            cols.add(oByField);
+        return cols;
+    }
+
+    /** Return the fully qualified names of the join columns of the joins in
+     *  joins, starting at position from.
+     */
+    private static Set<String> joinColumns(Vector<LogicalJoinNode> joins, int from) {
+        Set<String> cols = new HashSet<String>();
+        for (int i = from; i < joins.size(); i++) {
+            LogicalJoinNode lj = joins.get(i);
+            cols.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                cols.add(lj.f2QuantifiedName);
+        }
+        return cols;
+    }
+
+    /** Return the indexes of the fields of table (scanned as alias) that
+     *  appear in needed, or null if the scan has to return every field.
+     */
+    private static int[] scanFields(int table, String alias, Set<String> needed) {
+        if (needed == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table);
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (needed.contains(alias + "." + td.getFieldName(i)))
+                fields.add(i);
+        }
+        if (fields.size() == td.numFields())
+            return null;
+        if (fields.isEmpty())
+            fields.add(0); // a tuple needs at least one field
+        int[] result = new int[fields.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = fields.get(i);
+        return result;
+    }
+
+    /**
+     * @return predicates on the fields of a table's TupleDesc for the
+     *         filters on its INT_TYPE fields, which a SeqScan uses to skip
+     *         pages with the table's zone map, or null if there are none
+     */
+    private Predicate[] scanPredicates(int table, String alias) throws ParsingException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table);
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias) || lf.p == Predicate.Op.LIKE)
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue; // reported when the Filter is built
+            }
+            if (td.getFieldType(field) == Type.INT_TYPE)
+                preds.add(new Predicate(field, lf.p, filterConstant(lf, Type.INT_TYPE)));
+        }
+        return preds.isEmpty() ? null : preds.toArray(new Predicate[preds.size()]);
+    }
+
+    /** Parses the constant of a filter as a field of the given type. */
+    private static Field filterConstant(LogicalFilterNode lf, Type ftyp) throws ParsingException {
+        try {
+            if (ftyp == Type.INT_TYPE)
+                return new IntField(new Integer(lf.c).intValue());
+            return new StringField(lf.c, Type.STRING_LEN);
+        } catch (NumberFormatException e) {
+            throw new ParsingException("Invalid integer constant " + lf.c + " in filter on " + lf.fieldQuantifiedName);
+        }
+    }
+
+    /**
+     * @return the key field of the index a table is stored in, if it is
+     *         stored in an IndexFile, or -1 otherwise
+     */
+    private static int indexKeyField(DbFile f) {
+        return f instanceof IndexFile ? ((IndexFile) f).keyField() : -1;
+    }
+
+    /**
+     * Picks the filter on the given table that is cheapest to answer with
+     * the table's index, if the table is stored in a BTreeFile or a
+     * HashIndexFile and the index lookup is estimated to cost less than a
+     * full scan. A hash index only answers EQUALS filters.
+     *
+     * @param table the table being scanned
+     * @param stats statistics on the table, or null if none are available
+     * @return the filter to push into an IndexScan, or null to use a SeqScan
+     */
+    private LogicalFilterNode chooseIndexFilter(LogicalScanNode table, TableStats stats) throws ParsingException {
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        int keyField = indexKeyField(f);
+        if (keyField < 0 || stats == null)
+            return null;
+        boolean hash = f instanceof HashIndexFile;
+        TupleDesc td = f.getTupleDesc();
+        String keyName = table.alias + "." + td.getFieldName(keyField);
+
+        LogicalFilterNode best = null;
+        double bestSel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || !lf.fieldQuantifiedName.equals(keyName))
+                continue;
+            if (lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE)
+                continue;
+            if (hash && lf.p != Predicate.Op.EQUALS)
+                continue;
+            double sel = stats.estimateSelectivity(keyField, lf.p, filterConstant(lf, td.getFieldType(keyField)));
+            if (best == null || sel < bestSel) {
+                best = lf;
+                bestSel = sel;
+            }
+        }
+        if (best == null)
+            return null;
+        double cost = hash ? stats.estimateHashLookupCost(bestSel) : stats.estimateIndexScanCost(bestSel);
+        return cost < stats.estimateScanCost() ? best : null;
+    }
+
+    /**
+     * @return subplans that scan disjoint parts of the only table of this
+     *         plan, each with the filters and projection of the serial plan,
+     *         for a {@link ParallelAggregate}; or null if the plan has joins,
+     *         or if its table is not a heap file large enough to split
+     */
+    private DbIterator[] parallelSubplans(TransactionId t, Set<String> scanCols,
+                                          ArrayList<Predicate> filterPreds, Set<String> outputCols)
+            throws ParsingException {
+        if (tables.size() != 1 || !joins.isEmpty() || tables.get(0).sampleFraction < 1)
+            return null;
+        LogicalScanNode table = tables.get(0);
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(f instanceof HeapFile))
+            return null;
+        int n = Math.min(Runtime.getRuntime().availableProcessors(),
+                ((HeapFile) f).numPages() / PARALLEL_AGGREGATE_PAGES);
+        if (n < 2)
+            return null;
+        SeqScan[] scans = SeqScan.partition(t, f.getId(), table.alias,
+                scanFields(table.t, table.alias, scanCols), scanPredicates(table.t, table.alias), n);
+        DbIterator[] subplans = new DbIterator[scans.length];
+        for (int i = 0; i < scans.length; i++) {
+            DbIterator node = scans[i];
+            for (Predicate p : filterPreds)
+                node = new Filter(p, node);
+            subplans[i] = pruneColumns(node, outputCols);
+        }
+        return subplans;
+    }
+
+    /**
+     * @return the name of the field that the tuples of node are returned in
+     *         the order of, so that tuples with equal values of the field
+     *         are returned together, or null if this is not known
+     */
+    private static String sortedOn(DbIterator node) {
+        if (node instanceof IndexScan) {
+            int f = ((IndexScan) node).sortField();
+            return f < 0 ? null : node.getTupleDesc().getFieldName(f);
+        }
+        if (node instanceof OrderBy)
+            return node.getTupleDesc().getFieldName(((OrderBy) node).getOrderByField());
+        // filters and projections keep the order of their child
+        if (node instanceof Filter || node instanceof Project) {
+            String name = sortedOn(((Operator) node).getChildren()[0]);
+            TupleDesc td = node.getTupleDesc();
+            for (int i = 0; name != null && i < td.numFields(); i++) {
+                if (name.equals(td.getFieldName(i)))
+                    return name;
+            }
+        }
+        return null;
+    }
+
+    /** Wrap node in a {@link Project} that drops the columns not in needed, so
+     *  that joins and sorts above it do not carry them around. Returns node
+     *  itself if needed is null or contains all of its columns.
+     */
+    private static DbIterator pruneColumns(DbIterator node, Set<String> needed) {
+        if (needed == null)
+            return node;
+        TupleDesc td = node.getTupleDesc();
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        ArrayList<Type> types = new ArrayList<Type>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (needed.contains(td.getFieldName(i))) {
+                fields.add(i);
+                types.add(td.getFieldType(i));
+            }
+        }
+        if (fields.size() == td.numFields() || fields.isEmpty())
+            return node;
+        return new Project(fields, types, node);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -289,21 +629,55 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        // filters answered by an IndexScan instead of a Filter operator
+        Set<LogicalFilterNode> indexFilters = new HashSet<LogicalFilterNode>();
+        // predicates of the Filter operators, in the order they are applied
+        ArrayList<Predicate> filterPreds = new ArrayList<Predicate>();
+
+        // columns that some operator above the scans reads; scans only decode
+        // these, and everything else is projected away as early as possible
+        Set<String> outputCols = outputColumns();
+        Set<String> scanCols = null;
+        if (outputCols != null) {
+            scanCols = new HashSet<String>(outputCols);
+            scanCols.addAll(joinColumns(joins, 0));
+            for (LogicalFilterNode lf : filters)
+                scanCols.add(lf.fieldQuantifiedName);
+        }
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            boolean sampled = table.sampleFraction < 1;
+            DbIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                int tableId = Database.getCatalog().getDatabaseFile(table.t).getId();
+                if (sampled)
+                    ss = new SampleScan(t, tableId, table.alias, scanFields(table.t, table.alias, scanCols),
+                            table.sampleFraction, SampleScan.Method.SYSTEM, table.sampleSeed);
+                else
+                    ss = new SeqScan(t, tableId, table.alias,
+                            scanFields(table.t, table.alias, scanCols), scanPredicates(table.t, table.alias));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
+            } catch (IllegalArgumentException e) {
+                throw new ParsingException(e);
             }
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
-            filterSelectivities.put(table.alias, 1.0);
+            // only the sampled part of the table reaches the joins
+            filterSelectivities.put(table.alias, sampled ? ((SampleScan) ss).fraction() : 1.0);
 
+            LogicalFilterNode indexFilter = sampled ? null
+                    : chooseIndexFilter(table, baseTableStats.get(baseTableName));
+            if (indexFilter != null) {
+                DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                Field c = filterConstant(indexFilter, f.getTupleDesc().getFieldType(indexKeyField(f)));
+                DbIterator is = new IndexScan(t, f.getId(), table.alias, new IndexPredicate(indexFilter.p, c));
+                subplanMap.put(table.alias, pruneColumns(is, scanCols));
+                indexFilters.add(indexFilter);
+            }
         }
 
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
@@ -317,28 +691,28 @@ public class LogicalPlan {
             Field f;
             Type ftyp;
             TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            int fieldIndex;
             
             try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+                fieldIndex = td.fieldNameToIndex(lf.fieldQuantifiedName);
+                ftyp = td.getFieldType(fieldIndex);
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p,f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+            Predicate p = new Predicate(fieldIndex, lf.p, f);
+            if (!indexFilters.contains(lf)) {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+                filterPreds.add(p);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-            
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            int tableId = this.getTableId(lf.tableAlias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            // the subplan may have been projected, so the statistics are
+            // looked up by the field's index in the table itself
+            int statsIndex = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(statsIndex, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -348,9 +722,18 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
-        Iterator<LogicalJoinNode> joinIt = joins.iterator();
-        while (joinIt.hasNext()) {
-            LogicalJoinNode lj = joinIt.next();
+        // drop columns that were only needed by the filters before joining
+        if (outputCols != null && !joins.isEmpty()) {
+            Set<String> needed = new HashSet<String>(outputCols);
+            needed.addAll(joinColumns(joins, 0));
+            for (Map.Entry<String, DbIterator> e : subplanMap.entrySet())
+                e.setValue(pruneColumns(e.getValue(), needed));
+        }
+
+        // aliases whose subplan is the result of a join rather than a base table
+        Set<String> joined = new HashSet<String>();
+        for (int joinNo = 0; joinNo < joins.size(); joinNo++) {
+            LogicalJoinNode lj = joins.get(joinNo);
             DbIterator plan1;
             DbIterator plan2;
             boolean isSubqueryJoin = lj instanceof LogicalSubplanJoinNode;
@@ -381,8 +764,46 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            if (!isSubqueryJoin && t1name.equals(t2name)) {
+                // both tables are already in plan1 (the join graph has a
+                // cycle), so the join only compares two of its columns
+                TupleDesc td = plan1.getTupleDesc();
+                DbIterator f;
+                try {
+                    f = new Filter(new JoinPredicate(td.fieldNameToIndex(lj.f1QuantifiedName), lj.p,
+                            td.fieldNameToIndex(lj.f2QuantifiedName)), plan1);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field in join " + lj);
+                }
+                if (outputCols != null) {
+                    Set<String> needed = new HashSet<String>(outputCols);
+                    needed.addAll(joinColumns(joins, joinNo + 1));
+                    f = pruneColumns(f, needed);
+                }
+                subplanMap.put(t1name, f);
+                continue;
+            }
+
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            if (!isSubqueryJoin && t2name.equals(lj.t2Alias) && !joined.contains(t2name)
+                    && jo.useIndexJoin(lj)) {
+                // probe the inner table's B+ tree instead of scanning it
+                try {
+                    j = new IndexNestedLoopJoin(t, plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName),
+                            plan1, getTableId(lj.t2Alias), lj.t2Alias);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+                }
+            } else {
+                j = jo.instantiateJoin(lj,plan1,plan2);
+            }
+            joined.add(t1name);
+            if (outputCols != null) {
+                // keep only the columns read above this join
+                Set<String> needed = new HashSet<String>(outputCols);
+                needed.addAll(joinColumns(joins, joinNo + 1));
+                j = pruneColumns(j, needed);
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -407,14 +828,26 @@ public class LogicalPlan {
         }
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
+        // the aggregate and ORDER BY only need the output columns
+        node = pruneColumns(node, outputCols);
+
+        // aggregates in the select list are computed even if they were not
+        // added with addAggregate
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp != null && findAggregate(si.aggOp, si.fname) < 0) {
+                aggregates.addElement(si);
+                hasAgg = true;
+            }
+        }
 
         //walk the select list, to determine order in which to project output fields
+        //the output of the aggregate is the GROUP BY fields, then the aggregates
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                outFields.add(groupByFields.size() + findAggregate(si.aggOp, si.fname));
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +859,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,12 +894,37 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                int[] afields = new int[aggregates.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[afields.length];
+                boolean sketched = false;
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggregates.get(i).fname);
+                    aops[i] = getAggOp(aggregates.get(i).aggOp);
+                    sketched |= aops[i] == Aggregator.Op.APPROX_COUNT_DISTINCT
+                            || aops[i] == Aggregator.Op.APPROX_QUANTILE;
+                }
+                if (gfields.length == 1 && groupByFields.get(0).equals(sortedOn(node)) && !sketched) {
+                    // the tuples of each group arrive together
+                    aggNode = new StreamAggregate(node, gfields, afields, aops);
+                } else if (afields.length == 1 && gfields.length <= 1) {
+                    int gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+                    double quantile = getAggQuantile(aggregates.get(0).aggOp);
+                    DbIterator[] parts = indexFilters.isEmpty()
+                            ? parallelSubplans(t, scanCols, filterPreds, outputCols) : null;
+                    if (parts != null)
+                        aggNode = new ParallelAggregate(parts, afields[0], gfield, aops[0], quantile);
+                    else
+                        aggNode = new Aggregate(node, afields[0], gfield, aops[0],
+                                SpillingAggregator.DEFAULT_MAX_GROUPS, quantile);
+                } else {
+                    // several aggregates or GROUP BY fields are computed in one pass
+                    aggNode = new MultiAggregate(node, gfields, afields, aops);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,11 +933,33 @@ public class LogicalPlan {
             node = aggNode;
         }
 
+        if (distinct) {
+            // duplicates are only known after the projection, which is ordered afterwards
+            node = new Distinct(new Project(outFields, outTypes, node));
+            if (hasOrderBy) {
+                int oByIndex;
+                try {
+                    oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("ORDER BY field " + oByField + " of a DISTINCT query is not in the SELECT list");
+                }
+                if (limit >= 0)
+                    return new TopN(oByIndex, oByAsc, limit, node);
+                return new OrderBy(oByIndex, oByAsc, node);
+            }
+            return limit >= 0 ? new Limit(limit, node) : node;
+        }
+
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIndex, oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        DbIterator project = new Project(outFields, outTypes, node);
+        return limit >= 0 && !hasOrderBy ? new Limit(limit, project) : project;
     }
 
     public static void main(String argv[]) {
@@ -11,9 +11,22 @@ public class LogicalScanNode {
      *   to retrieve a DbFile */
     public int t;
 
+    /** The fraction of the pages of the table to sample, or 1 to read the
+     *   whole table */
+    public double sampleFraction = 1;
+
+    /** The seed of the random choice of the sampled pages */
+    public long sampleSeed;
+
     public LogicalScanNode(int table, String tableAlias) {
         this.alias = tableAlias;
         this.t = table;
     }
+
+    public LogicalScanNode(int table, String tableAlias, double sampleFraction, long sampleSeed) {
+        this(table, tableAlias);
+        this.sampleFraction = sampleFraction;
+        this.sampleSeed = sampleSeed;
+    }
 }
 
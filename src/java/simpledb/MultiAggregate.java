@@ -0,0 +1,385 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * MultiAggregate computes several aggregates, grouped by any number of
+ * fields, in a single pass over its child, so that a query such as
+ * <pre>
+ * SELECT a, b, COUNT(x), SUM(x), MAX(y) FROM t GROUP BY a, b
+ * </pre>
+ * reads t once. Each group is a hash table entry holding two longs per
+ * aggregate: the current value and the count of the tuples seen, from which
+ * MIN, MAX, SUM, AVG and COUNT are computed.
+ * <p>
+ * Like {@link Aggregate}, it holds at most maxGroups groups in memory. Once
+ * there are that many, the group-by and aggregate fields of the tuples of
+ * other groups are written to one of several spill files chosen by a hash
+ * of their group, and each spill file is aggregated after the groups in
+ * memory have been returned.
+ * <p>
+ * Like {@link Aggregate}, it scales COUNT and SUM over a sample read by a
+ * {@link SampleScan} up to estimates over the whole table.
+ */
+public class MultiAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    // spill files are not split again after this many levels
+    private static final int MAX_LEVEL = 4;
+
+    /** A group: the values of its group-by fields. */
+    private static final class GroupKey {
+        final Field[] fields;
+        final int hash;
+
+        GroupKey(Field[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GroupKey && Arrays.equals(fields, ((GroupKey) o).fields);
+        }
+    }
+
+    private DbIterator child;
+    private final int[] gfields, afields;
+    private final Aggregator.Op[] aops;
+    private final int maxGroups;
+    private final int level;
+    // set for the aggregate of a spill file, whose child has other names
+    private final TupleDesc outTd;
+    private TupleDesc td = null;
+    // the fraction of its result the child returns because of sampling;
+    // the aggregate of a spill file has that of the aggregate it belongs to
+    private double fraction = 1;
+
+    // value and count of each aggregate of each group
+    private HashMap<GroupKey, long[]> groups;
+    private Iterator<Map.Entry<GroupKey, long[]>> groupIt;
+    private SpillFile[] spills;
+    private TupleDesc spillTd;
+    // the aggregate of the spill file being returned, and the next one
+    private MultiAggregate spillAgg;
+    private int nextSpill;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param gfields
+     *            The columns over which we are grouping the result; an empty
+     *            array if there is no grouping
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each of afields. Only COUNT is
+     *            supported over STRING_TYPE columns, and SUM_COUNT, SC_AVG
+     *            and the approximate operators, which keep a sketch per
+     *            group, are not supported.
+     */
+    public MultiAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        this(child, gfields, afields, aops, SpillingAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for an aggregate that holds at most maxGroups groups in
+     * memory.
+     *
+     * @param maxGroups
+     *            the number of groups to hold in memory; tuples of other
+     *            groups are spilled to disk
+     * @see #MultiAggregate(DbIterator, int[], int[], Aggregator.Op[])
+     */
+    public MultiAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops,
+                          int maxGroups) {
+        this(child, gfields, afields, aops, maxGroups, 0, null);
+    }
+
+    private MultiAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops,
+                           int maxGroups, int level, TupleDesc outTd) {
+        checkAggregates(child.getTupleDesc(), afields, aops);
+        this.child = child;
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.maxGroups = Math.max(maxGroups, 1);
+        this.level = level;
+        this.outTd = outTd;
+    }
+
+    /**
+     * @return the indexes of the group-by fields in the input tuples
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the indexes of the aggregate fields in the input tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the aggregate operators
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
+        deleteSpills();
+        groups = new HashMap<GroupKey, long[]>();
+        if (level == 0)
+            fraction = SampleScan.fractionOf(child);
+        child.open();
+        try {
+            while (child.hasNext())
+                merge(child.next());
+        } catch (IOException e) {
+            deleteSpills();
+            throw new DbException("failed to spill aggregate: " + e);
+        }
+        // an aggregate without grouping has a result even without input
+        if (gfields.length == 0 && groups.isEmpty())
+            groups.put(new GroupKey(new Field[0]), new long[2 * aops.length]);
+        super.open();
+        groupIt = groups.entrySet().iterator();
+        nextSpill = 0;
+    }
+
+    private void merge(Tuple t) throws IOException {
+        Field[] key = new Field[gfields.length];
+        for (int i = 0; i < key.length; i++)
+            key[i] = t.getField(gfields[i]);
+        GroupKey gk = new GroupKey(key);
+        long[] acc = groups.get(gk);
+        if (acc == null) {
+            if (groups.size() >= maxGroups && gfields.length > 0 && level < MAX_LEVEL) {
+                spill(t, gk);
+                return;
+            }
+            acc = new long[2 * aops.length];
+            groups.put(gk, acc);
+        }
+        accumulate(acc, t, afields, aops);
+    }
+
+    /**
+     * Merge fields afields of t into the accumulators of a group: for each
+     * aggregate, the value in acc[2 * i] and the count in acc[2 * i + 1].
+     */
+    static void accumulate(long[] acc, Tuple t, int[] afields, Aggregator.Op[] aops) {
+        for (int i = 0; i < aops.length; i++) {
+            long count = acc[2 * i + 1]++;
+            if (aops[i] == Aggregator.Op.COUNT)
+                continue;
+            int v = t.getInt(afields[i]);
+            switch (aops[i]) {
+                case MIN:
+                    acc[2 * i] = count == 0 ? v : Math.min(acc[2 * i], v);
+                    break;
+                case MAX:
+                    acc[2 * i] = count == 0 ? v : Math.max(acc[2 * i], v);
+                    break;
+                default:
+                    // SUM and AVG
+                    acc[2 * i] += v;
+            }
+        }
+    }
+
+    /**
+     * Set the fields of out from offset on to the aggregates computed by
+     * {@link #accumulate}, over a sample of the given fraction of the rows
+     * (1 if the input is not sampled).
+     */
+    static void setResults(Tuple out, int offset, long[] acc, Aggregator.Op[] aops, double fraction) {
+        for (int i = 0; i < aops.length; i++) {
+            long value = acc[2 * i], count = acc[2 * i + 1];
+            int v;
+            switch (aops[i]) {
+                case AVG:
+                    v = count == 0 ? 0 : (int) (value / count);
+                    break;
+                case COUNT:
+                    v = Math.toIntExact(count);
+                    break;
+                default:
+                    v = Math.toIntExact(value);
+            }
+            if (fraction != 1 && SampleScan.scales(aops[i]))
+                v = SampleScan.scaleUp(v, fraction);
+            out.setInt(offset + i, v);
+        }
+    }
+
+    /**
+     * @return the TupleDesc of the result of aggregating tuples of type
+     *         childTd, as described in {@link #getTupleDesc}
+     */
+    static TupleDesc resultTupleDesc(TupleDesc childTd, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTd.getFieldType(gfields[i]);
+            names[i] = childTd.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gfields.length + i] = Type.INT_TYPE;
+            names[gfields.length + i] = Aggregate.nameOfAggregatorOp(aops[i])
+                    + " (" + childTd.getFieldName(afields[i]) + ")";
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Check that aops can be computed over fields afields of td.
+     *
+     * @throws IllegalArgumentException if they cannot
+     */
+    static void checkAggregates(TupleDesc td, int[] afields, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("an operator is needed for each aggregate field");
+        for (int i = 0; i < aops.length; i++) {
+            if (aops[i] == Aggregator.Op.SUM_COUNT || aops[i] == Aggregator.Op.SC_AVG
+                    || aops[i] == Aggregator.Op.APPROX_COUNT_DISTINCT
+                    || aops[i] == Aggregator.Op.APPROX_QUANTILE)
+                throw new IllegalArgumentException("unsupported operator " + aops[i]);
+            if (td.getFieldType(afields[i]) == Type.STRING_TYPE && aops[i] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException("only COUNT is supported over strings");
+        }
+    }
+
+    // the group-by fields, then the aggregate fields
+    private void spill(Tuple t, GroupKey gk) throws IOException {
+        if (spills == null) {
+            spills = new SpillFile[SpillingAggregator.PARTITIONS];
+            Type[] types = new Type[gfields.length + afields.length];
+            TupleDesc td = child.getTupleDesc();
+            for (int i = 0; i < gfields.length; i++)
+                types[i] = td.getFieldType(gfields[i]);
+            for (int i = 0; i < afields.length; i++)
+                types[gfields.length + i] = td.getFieldType(afields[i]);
+            spillTd = new TupleDesc(types);
+        }
+        int h = (gk.hash ^ (level * 0x9E3779B9)) * 0x85EBCA6B;
+        h ^= h >>> 15;
+        int p = Math.floorMod(h, spills.length);
+        if (spills[p] == null)
+            spills[p] = new SpillFile(spillTd);
+        int[] fields = new int[gfields.length + afields.length];
+        System.arraycopy(gfields, 0, fields, 0, gfields.length);
+        System.arraycopy(afields, 0, fields, gfields.length, afields.length);
+        spills[p].add(t, fields);
+    }
+
+    private Tuple result(GroupKey gk, long[] acc) {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < gk.fields.length; i++)
+            t.setField(i, gk.fields[i]);
+        setResults(t, gk.fields.length, acc, aops, fraction);
+        return t;
+    }
+
+    /**
+     * Returns the groups in memory, and then the groups of each spill file,
+     * aggregating a spill file when its groups are reached.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (groupIt.hasNext()) {
+            Map.Entry<GroupKey, long[]> e = groupIt.next();
+            return result(e.getKey(), e.getValue());
+        }
+        while (true) {
+            if (spillAgg != null && spillAgg.hasNext())
+                return spillAgg.next();
+            closeSpillAgg();
+            while (spills != null && nextSpill < spills.length && spills[nextSpill] == null)
+                nextSpill++;
+            if (spills == null || nextSpill == spills.length)
+                return null;
+            int[] g = new int[gfields.length];
+            int[] a = new int[afields.length];
+            for (int i = 0; i < g.length; i++)
+                g[i] = i;
+            for (int i = 0; i < a.length; i++)
+                a[i] = g.length + i;
+            DbIterator spilled;
+            try {
+                spilled = spills[nextSpill++].iterator();
+            } catch (IOException e) {
+                throw new DbException("failed to read spilled aggregate: " + e);
+            }
+            spillAgg = new MultiAggregate(spilled, g, a, aops, maxGroups, level + 1, getTupleDesc());
+            spillAgg.fraction = fraction;
+            spillAgg.open();
+        }
+    }
+
+    private void closeSpillAgg() {
+        if (spillAgg != null)
+            spillAgg.close();
+        spillAgg = null;
+    }
+
+    private void deleteSpills() {
+        closeSpillAgg();
+        if (spills == null)
+            return;
+        for (SpillFile f : spills) {
+            if (f != null)
+                f.delete();
+        }
+        spills = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeSpillAgg();
+        groupIt = groups.entrySet().iterator();
+        nextSpill = 0;
+    }
+
+    /**
+     * Returns the TupleDesc of this aggregate: the group-by fields, with
+     * their names in the child, followed by an INT_TYPE field for each
+     * aggregate, named as the aggregate column of an {@link Aggregate}.
+     */
+    public TupleDesc getTupleDesc() {
+        if (outTd != null)
+            return outTd;
+        if (td == null)
+            td = resultTupleDesc(child.getTupleDesc(), gfields, afields, aops);
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        deleteSpills();
+        groups = null;
+        groupIt = null;
+        child.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+        this.td = null;
+    }
+}
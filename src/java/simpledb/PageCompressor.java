@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PageCompressor encodes the bytes of a HeapPage in a compact form for a
+ * compressed HeapFile, and decodes them back. Only the used slots are kept,
+ * and the page is stored by field, so that similar values are encoded
+ * together:
+ * <ul>
+ * <li>INT_TYPE fields, and the header bytes, are stored with
+ * frame-of-reference bit-packing (each value as its difference from the
+ * smallest value, in as many bits as the largest difference needs), or, if
+ * that is smaller, run-length encoded as bit-packed run values and run
+ * lengths.</li>
+ * <li>STRING_TYPE fields are dictionary encoded: the distinct strings of the
+ * page, followed by the code of each value, stored like an INT_TYPE
+ * field.</li>
+ * </ul>
+ * The decoded bytes are those of a HeapPage, with zero bytes in empty slots
+ * and string padding, as HeapPage.getPageData writes them.
+ *
+ * @see CompressedPageFile
+ */
+public class PageCompressor {
+
+    private static final int FOR = 0;
+    private static final int RLE = 1;
+
+    private final Type[] types;
+    private final int[] offsets;
+    private final int recordSize;
+
+    /**
+     * @param types the types of the fields of the table whose pages are
+     *        compressed
+     */
+    public PageCompressor(Type[] types) {
+        this.types = types.clone();
+        this.offsets = new int[types.length];
+        int size = 0;
+        for (int i = 0; i < types.length; i++) {
+            offsets[i] = size;
+            size += types[i].getLen();
+        }
+        this.recordSize = size;
+    }
+
+    private int numSlots(int pageSize) {
+        return (pageSize * 8) / (recordSize * 8 + 1);
+    }
+
+    /**
+     * @param page the bytes of a HeapPage
+     * @return the compressed form of the page
+     */
+    public byte[] compress(byte[] page) throws IOException {
+        int numSlots = numSlots(page.length);
+        int headerSize = (numSlots + 7) / 8;
+        ArrayList<Integer> used = new ArrayList<Integer>();
+        for (int i = 0; i < numSlots; i++) {
+            if ((page[i / 8] & (1 << (i % 8))) != 0)
+                used.add(i);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        int[] header = new int[headerSize];
+        for (int i = 0; i < headerSize; i++)
+            header[i] = page[i] & 0xFF;
+        encodeInts(header, dos);
+
+        int[] values = new int[used.size()];
+        for (int j = 0; j < types.length; j++) {
+            if (types[j] == Type.INT_TYPE) {
+                for (int k = 0; k < values.length; k++)
+                    values[k] = readInt(page, headerSize + used.get(k) * recordSize + offsets[j]);
+                encodeInts(values, dos);
+                continue;
+            }
+            // dictionary of the distinct strings, in order of first use
+            HashMap<String, Integer> codes = new HashMap<String, Integer>();
+            ArrayList<String> dictionary = new ArrayList<String>();
+            for (int k = 0; k < values.length; k++) {
+                int offset = headerSize + used.get(k) * recordSize + offsets[j];
+                int len = Math.max(0, Math.min(readInt(page, offset), Type.STRING_LEN));
+                // ISO-8859-1 maps each byte to one char, so no byte is lost
+                String s = new String(page, offset + 4, len, "ISO-8859-1");
+                Integer code = codes.get(s);
+                if (code == null) {
+                    code = dictionary.size();
+                    codes.put(s, code);
+                    dictionary.add(s);
+                }
+                values[k] = code;
+            }
+            dos.writeInt(dictionary.size());
+            for (String s : dictionary) {
+                dos.writeShort(s.length());
+                dos.write(s.getBytes("ISO-8859-1"));
+            }
+            encodeInts(values, dos);
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * @param data the compressed form of a page
+     * @param pageSize the size of the decoded page
+     * @return the bytes of the HeapPage that data encodes
+     */
+    public byte[] decompress(byte[] data, int pageSize) throws IOException {
+        int numSlots = numSlots(pageSize);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] page = new byte[pageSize];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+        int[] header = decodeInts(headerSize, dis);
+        for (int i = 0; i < headerSize; i++)
+            page[i] = (byte) header[i];
+        int[] used = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if ((page[i / 8] & (1 << (i % 8))) != 0)
+                used[n++] = i;
+        }
+
+        for (int j = 0; j < types.length; j++) {
+            if (types[j] == Type.INT_TYPE) {
+                int[] values = decodeInts(n, dis);
+                for (int k = 0; k < n; k++)
+                    writeInt(page, headerSize + used[k] * recordSize + offsets[j], values[k]);
+                continue;
+            }
+            byte[][] dictionary = new byte[dis.readInt()][];
+            for (int d = 0; d < dictionary.length; d++) {
+                dictionary[d] = new byte[dis.readUnsignedShort()];
+                dis.readFully(dictionary[d]);
+            }
+            int[] codes = decodeInts(n, dis);
+            for (int k = 0; k < n; k++) {
+                int offset = headerSize + used[k] * recordSize + offsets[j];
+                byte[] s = dictionary[codes[k]];
+                writeInt(page, offset, s.length);
+                System.arraycopy(s, 0, page, offset + 4, s.length);
+            }
+        }
+        return page;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16)
+                | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    /**
+     * Write values with frame-of-reference bit-packing, or run-length
+     * encoded if that takes fewer bytes. The number of values is not
+     * written; the reader must know it.
+     */
+    static void encodeInts(int[] values, DataOutputStream dos) throws IOException {
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        encodeFor(values, values.length, new DataOutputStream(packed));
+
+        int runs = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1])
+                runs++;
+        }
+        if (runs * 2 <= values.length) {
+            int[] runValues = new int[runs];
+            int[] runLengths = new int[runs];
+            int r = -1;
+            for (int i = 0; i < values.length; i++) {
+                if (i == 0 || values[i] != values[i - 1])
+                    runValues[++r] = values[i];
+                runLengths[r]++;
+            }
+            ByteArrayOutputStream rle = new ByteArrayOutputStream();
+            DataOutputStream rdos = new DataOutputStream(rle);
+            rdos.writeInt(runs);
+            encodeFor(runValues, runs, rdos);
+            encodeFor(runLengths, runs, rdos);
+            rdos.flush();
+            if (rle.size() < packed.size()) {
+                dos.writeByte(RLE);
+                rle.writeTo(dos);
+                return;
+            }
+        }
+        dos.writeByte(FOR);
+        packed.writeTo(dos);
+    }
+
+    /** Read n values written by encodeInts. */
+    static int[] decodeInts(int n, DataInputStream dis) throws IOException {
+        if (dis.readByte() == FOR)
+            return decodeFor(n, dis);
+        int runs = dis.readInt();
+        int[] runValues = decodeFor(runs, dis);
+        int[] runLengths = decodeFor(runs, dis);
+        int[] values = new int[n];
+        int i = 0;
+        for (int r = 0; r < runs; r++) {
+            for (int k = 0; k < runLengths[r]; k++)
+                values[i++] = runValues[r];
+        }
+        return values;
+    }
+
+    private static void encodeFor(int[] values, int n, DataOutputStream dos) throws IOException {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        if (n == 0)
+            min = max = 0;
+        int width = 64 - Long.numberOfLeadingZeros((long) max - min);
+        dos.writeInt(min);
+        dos.writeByte(width);
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            acc |= ((long) values[i] - min) << bits;
+            bits += width;
+            while (bits >= 8) {
+                dos.writeByte((int) acc);
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0)
+            dos.writeByte((int) acc);
+    }
+
+    private static int[] decodeFor(int n, DataInputStream dis) throws IOException {
+        int min = dis.readInt();
+        int width = dis.readUnsignedByte();
+        long mask = (1L << width) - 1;
+        int[] values = new int[n];
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            while (bits < width) {
+                acc |= (long) dis.readUnsignedByte() << bits;
+                bits += 8;
+            }
+            values[i] = (int) (min + (acc & mask));
+            acc >>>= width;
+            bits -= width;
+        }
+        return values;
+    }
+}
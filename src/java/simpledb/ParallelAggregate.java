@@ -0,0 +1,278 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ParallelAggregate computes the same result as {@link Aggregate}, but over
+ * several children that each return a part of the input, such as the scans
+ * returned by {@link SeqScan#partition}. It aggregates in two phases:
+ * <ul>
+ * <li>In the partial phase, each child is read by its own thread into its
+ * own {@link IntegerAggregator} or {@link StringAggregator}, so the threads
+ * share no state.</li>
+ * <li>In the final phase, the partial results of every thread, at most one
+ * tuple per group per thread, are merged by a single IntegerAggregator.</li>
+ * </ul>
+ * AVG cannot be merged from partial averages, so the partial phase computes
+ * SUM_COUNT and the final phase SC_AVG; COUNT is merged with SUM, and MIN,
+ * MAX and SUM with themselves. The estimates of APPROX_COUNT_DISTINCT and
+ * APPROX_QUANTILE cannot be merged either, so for them the final phase
+ * merges the sketches of the partial aggregators instead.
+ */
+public class ParallelAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Threads that run the partial phase of all parallel aggregates. */
+    private static final ExecutorService workers =
+            Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "simpledb-aggregate");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private DbIterator[] children;
+    private final int afield, gfield;
+    private final Aggregator.Op aop;
+    private final double quantile;
+    private DbIterator aggIt;
+    private TupleDesc td = null;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            The DbIterators that are feeding us tuples. They must all
+     *            have the same TupleDesc.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use; SUM_COUNT and SC_AVG are
+     *            only used internally and are not supported, and only COUNT
+     *            and APPROX_COUNT_DISTINCT are supported over a string field
+     */
+    public ParallelAggregate(DbIterator[] children, int afield, int gfield, Aggregator.Op aop) {
+        this(children, afield, gfield, aop, Aggregator.DEFAULT_QUANTILE);
+    }
+
+    /**
+     * Constructor for an aggregate that, for APPROX_QUANTILE, estimates the
+     * given quantile.
+     *
+     * @param quantile
+     *            the quantile APPROX_QUANTILE estimates, between 0 and 1
+     * @see #ParallelAggregate(DbIterator[], int, int, Aggregator.Op)
+     */
+    public ParallelAggregate(DbIterator[] children, int afield, int gfield, Aggregator.Op aop,
+                             double quantile) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("no children to aggregate");
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported operator " + aop);
+        if (!(quantile >= 0 && quantile <= 1))
+            throw new IllegalArgumentException("quantile " + quantile + " is not between 0 and 1");
+        TupleDesc td = children[0].getTupleDesc();
+        if (td.getFieldType(afield) == Type.STRING_TYPE && aop != Aggregator.Op.COUNT
+                && aop != Aggregator.Op.APPROX_COUNT_DISTINCT)
+            throw new IllegalArgumentException("only COUNT and APPROX_COUNT_DISTINCT are supported over strings");
+        for (DbIterator child : children) {
+            if (!child.getTupleDesc().equals(td))
+                throw new IllegalArgumentException("children have different TupleDescs");
+        }
+        this.children = children;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.quantile = quantile;
+    }
+
+    /**
+     * @return the groupby field index in the input tuples, or
+     *         {@link simpledb.Aggregator#NO_GROUPING}
+     */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return the aggregate field index in the input tuples
+     */
+    public int aggregateField() {
+        return afield;
+    }
+
+    /**
+     * @return the aggregate operator
+     */
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    // true if the partial aggregators are merged, not their results
+    private boolean sketched() {
+        return aop == Aggregator.Op.APPROX_COUNT_DISTINCT || aop == Aggregator.Op.APPROX_QUANTILE;
+    }
+
+    // the operator each thread computes over its child
+    private Aggregator.Op partialOp() {
+        return aop == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : aop;
+    }
+
+    // the operator that merges the partial results
+    private Aggregator.Op finalOp() {
+        switch (aop) {
+            case AVG:
+                return Aggregator.Op.SC_AVG;
+            case COUNT:
+                return Aggregator.Op.SUM;
+            default:
+                return aop;
+        }
+    }
+
+    private Aggregator newPartialAggregator() {
+        TupleDesc td = children[0].getTupleDesc();
+        Type gbType = gfield == Aggregator.NO_GROUPING ? null : td.getFieldType(gfield);
+        if (td.getFieldType(afield) == Type.STRING_TYPE)
+            return new StringAggregator(gfield, gbType, afield, partialOp());
+        return new IntegerAggregator(gfield, gbType, afield, partialOp(), quantile);
+    }
+
+    // reads child into a new partial aggregator, or returns null if child
+    // is empty, since an aggregate without grouping has a result even then
+    private Aggregator aggregate(DbIterator child) throws DbException, TransactionAbortedException {
+        Aggregator partial = newPartialAggregator();
+        boolean empty = true;
+        child.open();
+        try {
+            while (child.hasNext()) {
+                partial.mergeTupleIntoGroup(child.next());
+                empty = false;
+            }
+        } finally {
+            child.close();
+        }
+        return empty ? null : partial;
+    }
+
+    public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
+        super.open();
+        List<Future<Aggregator>> partials = new ArrayList<Future<Aggregator>>();
+        // the last child is read by this thread
+        for (int i = 0; i < children.length - 1; i++) {
+            DbIterator child = children[i];
+            partials.add(workers.submit(() -> aggregate(child)));
+        }
+        Aggregator last;
+        try {
+            last = aggregate(children[children.length - 1]);
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            for (Future<Aggregator> f : partials)
+                f.cancel(true);
+            throw e;
+        }
+
+        if (sketched()) {
+            Aggregator merged = last != null ? last : newPartialAggregator();
+            for (Future<Aggregator> f : partials)
+                mergeSketches(merged, join(f));
+            aggIt = merged.iterator();
+            aggIt.open();
+            return;
+        }
+
+        // partial results are (group?, value) or, for AVG, (group?, sum, count)
+        Type gbType = gfield == Aggregator.NO_GROUPING ? null
+                : children[0].getTupleDesc().getFieldType(gfield);
+        int gb = gfield == Aggregator.NO_GROUPING ? Aggregator.NO_GROUPING : 0;
+        int value = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        Aggregator merged = new IntegerAggregator(gb, gbType, value, finalOp());
+        mergePartial(merged, last);
+        for (Future<Aggregator> f : partials)
+            mergePartial(merged, join(f));
+        aggIt = merged.iterator();
+        aggIt.open();
+    }
+
+    private static Aggregator join(Future<Aggregator> f) throws DbException, TransactionAbortedException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while aggregating");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("aggregation failed: " + cause);
+        }
+    }
+
+    private static void mergePartial(Aggregator merged, Aggregator partial)
+            throws DbException, TransactionAbortedException {
+        if (partial == null)
+            return;
+        DbIterator it = partial.iterator();
+        it.open();
+        while (it.hasNext())
+            merged.mergeTupleIntoGroup(it.next());
+        it.close();
+    }
+
+    private static void mergeSketches(Aggregator merged, Aggregator partial) {
+        if (partial == null)
+            return;
+        if (merged instanceof IntegerAggregator)
+            ((IntegerAggregator) merged).merge((IntegerAggregator) partial);
+        else
+            ((StringAggregator) merged).merge((StringAggregator) partial);
+    }
+
+    /**
+     * Returns the next tuple, as {@link Aggregate#fetchNext} does.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (aggIt.hasNext())
+            return aggIt.next();
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        aggIt.rewind();
+    }
+
+    /**
+     * Returns the TupleDesc of this aggregate, the same as that of an
+     * {@link Aggregate} over one of the children.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = Aggregate.resultTupleDesc(children[0].getTupleDesc(), afield, gfield, aop);
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        if (aggIt != null)
+            aggIt.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.children = children;
+        this.td = null;
+    }
+}
@@ -0,0 +1,312 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of PaxPage stores data for one page of a ColumnarHeapFile.
+ * A PaxPage holds the same tuple slots as a HeapPage, but stores the values
+ * of each field of all the slots together (the PAX layout), so that a scan
+ * that reads a few fields of a wide table decodes and touches only the
+ * bytes of those fields.
+ *
+ * @see ColumnarHeapFile
+ * @see HeapPage
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final byte header[];
+    // the page bytes; the values of field j start at columnStart[j], one
+    // fixed-size value per slot, and are updated in place on insert
+    final byte[] data;
+    final int[] columnStart;
+    // tuples decoded so far, or null for slots never decoded
+    final Tuple tuples[];
+
+    TransactionId dirtier;
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     * The format of a PaxPage is a set of header bytes indicating the slots
+     * of the page that are in use, as on a HeapPage, followed by one
+     * column per field of the table. Column j holds the value of field j
+     * for every slot, in slot order, empty slots included. The number of
+     * slots is the same as on a HeapPage:
+     * <p>
+     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     * <p>
+     * @see HeapPage#HeapPage
+     * @see HeapFileEncoder#convertToColumnar
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getNumTuples(td);
+        this.data = data;
+        this.header = Arrays.copyOf(data, (numSlots + 7) / 8);
+        this.columnStart = new int[td.numFields()];
+        int start = header.length;
+        for (int j = 0; j < columnStart.length; j++) {
+            columnStart[j] = start;
+            start += numSlots * td.getFieldType(j).getLen();
+        }
+        this.tuples = new Tuple[numSlots];
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with the given
+     *         TupleDesc
+     */
+    static int getNumTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Decode the value of field field in slot slotId from its column and
+     * store it as field i of result; INT_TYPE values are stored unboxed.
+     */
+    void readField(int slotId, int field, Tuple result, int i) throws NoSuchElementException {
+        Type type = td.getFieldType(field);
+        int offset = columnStart[field] + slotId * type.getLen();
+        if (type == Type.INT_TYPE) {
+            result.setInt(i, ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                    | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF));
+            return;
+        }
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(data, offset, type.getLen()));
+        try {
+            result.setField(i, type.parse(dis));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Return the tuple in slot i, decoding all of its fields if it has not
+     * been decoded yet, or null if the slot is empty.
+     */
+    Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId))
+            return null;
+        if (tuples[slotId] == null) {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
+            for (int j = 0; j < td.numFields(); j++)
+                readField(slotId, j, t, j);
+            tuples[slotId] = t;
+        }
+        return tuples[slotId];
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the PaxPage constructor and have it
+     * produce an identical PaxPage object.
+     *
+     * @see #PaxPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] page = data.clone();
+        System.arraycopy(header, 0, page, 0, header.length);
+        return page;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated
+     * to reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple not in this page!");
+        if (!isSlotUsed(rid.tupleno()))
+            throw new DbException("Tuple not in this page!");
+        markSlotUsed(rid.tupleno(), false);
+        tuples[rid.tupleno()] = null;
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page, writing each of its fields into
+     * the field's column; the tuple is updated to reflect that it is now
+     * stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addition to the page");
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                continue;
+            for (int j = 0; j < td.numFields(); j++) {
+                int len = td.getFieldType(j).getLen();
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+                try {
+                    t.getField(j).serialize(new DataOutputStream(baos));
+                } catch (IOException e) {
+                    throw new DbException("cannot serialize field " + j);
+                }
+                System.arraycopy(baos.toByteArray(), 0, data, columnStart[j] + i * len, len);
+            }
+            markSlotUsed(i, true);
+            tuples[i] = t;
+            t.setRecordId(new RecordId(pid, i));
+            return;
+        }
+        throw new DbException("No free space to insert on this page");
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int numEmpty = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                numEmpty++;
+        }
+        return numEmpty;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= 1 << (i % 8);
+        else
+            header[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new PaxPageIterator(null, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that only decodes the
+     *         given fields from their columns; the returned tuples have
+     *         schema projectedTd, whose i-th field is field fields[i] of this
+     *         page's TupleDesc.
+     * @param fields the indexes of the fields to decode, in output order
+     * @param projectedTd the TupleDesc of the returned tuples
+     */
+    public Iterator<Tuple> iterator(int[] fields, TupleDesc projectedTd) {
+        return new PaxPageIterator(fields, projectedTd);
+    }
+
+    private class PaxPageIterator implements Iterator<Tuple> {
+        private final int[] fields;
+        private final TupleDesc projectedTd;
+        private int currPos = 0;
+
+        PaxPageIterator(int[] fields, TupleDesc projectedTd) {
+            this.fields = fields;
+            this.projectedTd = projectedTd;
+        }
+
+        public boolean hasNext() {
+            for (int i = currPos; i < numSlots; i++) {
+                if (isSlotUsed(i)) {
+                    currPos = i;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int slot = currPos++;
+            if (fields == null)
+                return getTuple(slot);
+            Tuple t = new Tuple(projectedTd);
+            t.setRecordId(new RecordId(pid, slot));
+            for (int i = 0; i < fields.length; i++)
+                readField(slot, fields[i], t, i);
+            return t;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
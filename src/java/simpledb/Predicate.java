@@ -105,7 +105,12 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t==null? false : t.getField(field).compare(op, operand);
+        if (t == null)
+            return false;
+        //int常量直接比较，不为每个tuple分配IntField
+        if (operand instanceof IntField)
+            return IntField.compare(t.getInt(field), op, ((IntField) operand).getValue());
+        return t.getField(field).compare(op, operand);
     }
 
     /**
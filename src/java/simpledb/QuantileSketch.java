@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * QuantileSketch estimates the quantiles of the integers added to it in a
+ * fixed amount of memory, with a KLL sketch (Karnin, Lang and Liberty,
+ * "Optimal Quantile Approximation in Streams").
+ * <p>
+ * Items are kept in levels; an item at level h stands for 2^h of the values
+ * added. Values are added to level 0. When a level reaches its capacity,
+ * it is sorted and compacted: every other item, starting
+ * with the first or the second at random, moves to the next level, and the
+ * others are dropped. The top level has capacity K, and each level below it
+ * two thirds of the capacity of the level above, so the sketch never holds
+ * more than about 3K items however many values are added, and the rank of
+ * the estimated quantile is within about 1.7% of the requested one for
+ * K = 200. Two sketches are merged by adding the items of each level of one
+ * to the same level of the other, and compacting.
+ *
+ * @see IntegerAggregator
+ */
+public class QuantileSketch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Capacity of the top level. */
+    public static final int K = 200;
+
+    private static final double C = 2.0 / 3.0;
+
+    // the items of each level, in levels[h][0 .. sizes[h])
+    private int[][] levels = new int[1][8];
+    private int[] sizes = new int[1];
+    // the capacity of each level, which depends on the number of levels
+    private int[] capacities = {K};
+    private long n = 0;
+    // state of the generator that chooses which items are kept
+    private long seed = 0x2545F4914F6CDD1DL;
+
+    private void addLevel() {
+        int height = levels.length + 1;
+        levels = Arrays.copyOf(levels, height);
+        levels[height - 1] = new int[8];
+        sizes = Arrays.copyOf(sizes, height);
+        capacities = new int[height];
+        double c = K;
+        for (int h = height - 1; h >= 0; h--, c *= C)
+            capacities[h] = Math.max(2, (int) Math.ceil(c));
+    }
+
+    /**
+     * Add a value to the sketch.
+     */
+    public void add(int v) {
+        append(0, v);
+        n++;
+        if (sizes[0] >= capacities[0])
+            compress();
+    }
+
+    private void append(int h, int v) {
+        if (sizes[h] == levels[h].length)
+            levels[h] = Arrays.copyOf(levels[h], 2 * levels[h].length);
+        levels[h][sizes[h]++] = v;
+    }
+
+    private boolean randomBit() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (seed & 1) != 0;
+    }
+
+    // compact the levels that are at their capacity, from the bottom up
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] < capacities[h])
+                continue;
+            boolean grew = h == levels.length - 1;
+            if (grew)
+                addLevel();
+            int[] items = levels[h];
+            int size = sizes[h];
+            Arrays.sort(items, 0, size);
+            // an odd item out, the smallest, stays at this level
+            int keep = size % 2;
+            int first = randomBit() ? 1 : 0;
+            for (int i = keep + first; i < size; i += 2)
+                append(h + 1, items[i]);
+            sizes[h] = keep;
+            // a level that was once the top one need not keep its space
+            if (items.length > 2 * capacities[h])
+                levels[h] = Arrays.copyOf(items, capacities[h]);
+            // the capacities of the lower levels shrink when a level is
+            // added, so start again from the bottom
+            if (grew)
+                h = -1;
+        }
+    }
+
+    /**
+     * Add the values of another sketch to this one.
+     */
+    public void merge(QuantileSketch other) {
+        while (levels.length < other.levels.length)
+            addLevel();
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++)
+                append(h, other.levels[h][i]);
+        }
+        n += other.n;
+        compress();
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long count() {
+        return n;
+    }
+
+    /**
+     * @param q a quantile, between 0 and 1
+     * @return an estimate of the q-quantile of the values added: the
+     *         smallest value that at least q of the values are less than or
+     *         equal to; or 0 if no values were added
+     */
+    public int quantile(double q) {
+        int total = 0;
+        for (int s : sizes)
+            total += s;
+        if (total == 0)
+            return 0;
+        // items with their weights, packed as value and level so they sort
+        // by value
+        long[] items = new long[total];
+        int k = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++)
+                items[k++] = ((long) levels[h][i] << 8) | h;
+        }
+        Arrays.sort(items);
+        long weight = 0;
+        for (long item : items)
+            weight += 1L << (item & 0xFF);
+        double target = Math.max(1, Math.ceil(q * weight));
+        long seen = 0;
+        for (long item : items) {
+            seen += 1L << (item & 0xFF);
+            if (seen >= target)
+                return (int) (item >> 8);
+        }
+        return (int) (items[items.length - 1] >> 8);
+    }
+}
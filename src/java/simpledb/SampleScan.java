@@ -0,0 +1,270 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SampleScan reads a random sample of the pages of a heap file, for queries
+ * that only need an approximate answer, as TABLESAMPLE does in SQL. Only
+ * the sampled pages are read through the buffer pool, so a 1% sample of a
+ * table costs about 1% of a {@link SeqScan} of it. Every tuple of a sampled
+ * page is returned.
+ * <p>
+ * The pages are chosen when the scan is created, from a random generator
+ * with the given seed, so the same seed gives the same sample and a rewound
+ * scan returns the same tuples. Pages added to the table afterwards are not
+ * sampled. {@link #fraction} is the fraction of the pages of the table that
+ * were sampled, which the aggregate operators use to scale COUNT and SUM up
+ * to estimates for the whole table (see {@link #fractionOf}).
+ */
+public class SampleScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How the pages of the sample are chosen. */
+    public enum Method {
+        /** Each page is sampled independently with the sampling fraction as
+            probability, so the size of the sample varies. */
+        BERNOULLI,
+        /** A fixed number of pages, the sampling fraction of the pages of
+            the table rounded up, is sampled. */
+        SYSTEM
+    }
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final HeapFile table;
+    // indexes of the fields this scan returns, or null for all of them
+    private final int[] fields;
+    private final TupleDesc projectedTd;
+    private TupleDesc td = null;
+
+    // the sampled page numbers, in increasing order, out of tablePages
+    private final int[] pages;
+    private final int tablePages;
+
+    // the position in pages of the page being read, and its tuples
+    private int pos;
+    private Iterator<Tuple> it = null;
+    // pages before this position have been prefetched
+    private int readAheadTo;
+
+    /**
+     * Creates a scan of a SYSTEM sample of all the fields of a table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param fraction
+     *            the fraction of the pages to sample, more than 0 and at
+     *            most 1
+     * @param seed
+     *            the seed of the random choice of the pages
+     * @throws IllegalArgumentException if the table is not a HeapFile or
+     *            fraction is not in (0, 1]
+     */
+    public SampleScan(TransactionId tid, int tableid, String tableAlias, double fraction, long seed) {
+        this(tid, tableid, tableAlias, null, fraction, Method.SYSTEM, seed);
+    }
+
+    /**
+     * Creates a scan of a sample of a table that only returns some of its
+     * fields.
+     *
+     * @param fields
+     *            the indexes (in the table's TupleDesc) of the fields to
+     *            return, in output order, or null to return every field
+     * @param method
+     *            how the pages are chosen
+     * @see #SampleScan(TransactionId, int, String, double, long)
+     */
+    public SampleScan(TransactionId tid, int tableid, String tableAlias, int[] fields, double fraction,
+                      Method method, long seed) {
+        if (!(fraction > 0 && fraction <= 1))
+            throw new IllegalArgumentException("sampling fraction " + fraction + " is not in (0, 1]");
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be sampled");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.table = (HeapFile) f;
+        this.fields = fields;
+        this.projectedTd = fields == null ? null : table.getProjectedTupleDesc(fields);
+        this.tablePages = table.numPages();
+        this.pages = choosePages(tablePages, fraction, method, new Random(seed));
+    }
+
+    private static int[] choosePages(int numPages, double fraction, Method method, Random random) {
+        if (method == Method.BERNOULLI) {
+            int[] chosen = new int[numPages];
+            int n = 0;
+            for (int i = 0; i < numPages; i++) {
+                if (random.nextDouble() < fraction)
+                    chosen[n++] = i;
+            }
+            return Arrays.copyOf(chosen, n);
+        }
+        // the first n pages of a partial Fisher-Yates shuffle
+        int n = (int) Math.min(numPages, Math.ceil(fraction * numPages));
+        int[] all = new int[numPages];
+        for (int i = 0; i < numPages; i++)
+            all[i] = i;
+        for (int i = 0; i < n; i++) {
+            int j = i + random.nextInt(numPages - i);
+            int tmp = all[i];
+            all[i] = all[j];
+            all[j] = tmp;
+        }
+        int[] chosen = Arrays.copyOf(all, n);
+        // pages are read in file order
+        Arrays.sort(chosen);
+        return chosen;
+    }
+
+    /**
+     * @return the fraction of the pages of the table that are sampled, or 1
+     *         if the table has no pages
+     */
+    public double fraction() {
+        return tablePages == 0 ? 1 : (double) pages.length / tablePages;
+    }
+
+    /**
+     * @return the number of pages sampled
+     */
+    public int sampledPages() {
+        return pages.length;
+    }
+
+    /**
+     * @return the number of pages of the table when the sample was chosen
+     */
+    public int tablePages() {
+        return tablePages;
+    }
+
+    /**
+     * @return the fraction of its result that it returns because of
+     *         sampling: the product of the fractions of the SampleScans it
+     *         reads through Filters, Projects and joins, or 1 if it reads
+     *         none
+     */
+    static double fractionOf(DbIterator it) {
+        if (it instanceof SampleScan)
+            return ((SampleScan) it).fraction();
+        if (!(it instanceof Filter || it instanceof Project || it instanceof Join
+                || it instanceof IndexNestedLoopJoin))
+            return 1;
+        double f = 1;
+        for (DbIterator child : ((Operator) it).getChildren())
+            f *= fractionOf(child);
+        return f;
+    }
+
+    /**
+     * @return true if the result of aop over a sample is scaled by the
+     *         inverse of its fraction to estimate it over all of the rows
+     */
+    static boolean scales(Aggregator.Op aop) {
+        return aop == Aggregator.Op.COUNT || aop == Aggregator.Op.SUM;
+    }
+
+    /**
+     * @return v, a COUNT or SUM over a sample of the given fraction, scaled
+     *         up to estimate its value over all of the rows
+     */
+    static int scaleUp(long v, double fraction) {
+        return Math.toIntExact(Math.round(v / fraction));
+    }
+
+    /**
+     * @return the indexes of the table fields returned by this scan, or null
+     *         if it returns all of them
+     */
+    public int[] getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the name of the table sampled
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table sampled
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * Returns the TupleDesc of the returned fields, named as those of a
+     * {@link SeqScan} with the same alias.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td != null)
+            return td;
+        TupleDesc desc = fields == null ? table.getTupleDesc() : projectedTd;
+        Type[] types = desc.getFieldTypeArr();
+        String[] names = desc.getFieldNameArr();
+        for (int i = 0; i < names.length; i++)
+            names[i] = tableAlias + "." + names[i];
+        td = new TupleDesc(types, names);
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        pos = -1;
+        readAheadTo = 0;
+        it = Collections.<Tuple>emptyIterator();
+    }
+
+    // prefetches the sampled pages ahead of the one being read
+    private void readAhead() {
+        int window = Database.getBufferPool().readAheadWindow();
+        if (window == 0 || pos + window / 2 < readAheadTo)
+            return;
+        int end = Math.min(pages.length, pos + 1 + window);
+        ArrayList<HeapPageId> pids = new ArrayList<HeapPageId>();
+        for (int i = Math.max(readAheadTo, pos + 1); i < end; i++)
+            pids.add(new HeapPageId(tableid, pages[i]));
+        readAheadTo = end;
+        if (!pids.isEmpty())
+            Database.getBufferPool().prefetchPages(pids);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (it == null)
+            return false;
+        while (!it.hasNext()) {
+            if (pos + 1 >= pages.length)
+                return false;
+            pos++;
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, pages[pos]), Permissions.READ_ONLY);
+            it = fields == null ? page.iterator() : page.iterator(fields, projectedTd);
+            readAhead();
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return it.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        open();
+    }
+
+    public void close() {
+        it = null;
+    }
+}
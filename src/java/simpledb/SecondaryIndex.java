@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A SecondaryIndex maps the values of one or more columns of a HeapFile table
+ * to the RecordIds of the tuples holding them. The entries are stored in a
+ * BTreeFile whose tuples are the key columns followed by the page number and
+ * the slot number of the indexed tuple.
+ * <p>
+ * The B+ tree is ordered on the first key column, so a composite index answers
+ * range predicates on its leading column and equality lookups on any prefix of
+ * its key columns; the remaining columns of a lookup key are checked against
+ * the entries sharing the leading value.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex} and kept up to date by
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+ */
+public class SecondaryIndex {
+
+    private final int tableid;
+    private final int[] keyFields;
+    private final BTreeFile file;
+
+    /**
+     * Constructor.
+     *
+     * @param f
+     *            the file that stores the entries of the index
+     * @param tableid
+     *            the id of the indexed table, which must be a HeapFile
+     * @param keyFields
+     *            the indexes of the key columns in the table's tuples, leading
+     *            column first
+     */
+    public SecondaryIndex(File f, int tableid, int[] keyFields) {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        if (keyFields.length == 0)
+            throw new IllegalArgumentException("an index needs at least one key column");
+        this.tableid = tableid;
+        this.keyFields = keyFields.clone();
+
+        TupleDesc td = table.getTupleDesc();
+        Type[] types = new Type[keyFields.length + 2];
+        String[] names = new String[keyFields.length + 2];
+        for (int i = 0; i < keyFields.length; i++) {
+            types[i] = td.getFieldType(keyFields[i]);
+            names[i] = td.getFieldName(keyFields[i]);
+        }
+        types[keyFields.length] = Type.INT_TYPE;
+        names[keyFields.length] = "pageno";
+        types[keyFields.length + 1] = Type.INT_TYPE;
+        names[keyFields.length + 1] = "tupleno";
+        this.file = new BTreeFile(f, 0, new TupleDesc(types, names));
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the indexes of the key columns in the table's tuples */
+    public int[] getKeyFields() {
+        return keyFields.clone();
+    }
+
+    /** @return the BTreeFile holding the entries of this index */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /** @return the id of the BTreeFile holding the entries of this index */
+    public int getId() {
+        return file.getId();
+    }
+
+    /** Builds the index entry of a table tuple that has been stored on a page. */
+    private Tuple entryFor(Tuple t) {
+        Tuple e = new Tuple(file.getTupleDesc());
+        for (int i = 0; i < keyFields.length; i++)
+            e.setField(i, t.getField(keyFields[i]));
+        RecordId rid = t.getRecordId();
+        e.setField(keyFields.length, new IntField(rid.getPageId().pageNumber()));
+        e.setField(keyFields.length + 1, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    private static RecordId recordIdOf(int tableid, Tuple e, int nkeys) {
+        int pageno = ((IntField) e.getField(nkeys)).getValue();
+        int tupleno = ((IntField) e.getField(nkeys + 1)).getValue();
+        return new RecordId(new HeapPageId(tableid, pageno), tupleno);
+    }
+
+    /** Returns true if the key columns of entry e start with the given key. */
+    private static boolean matches(Tuple e, Field[] key) {
+        for (int i = 1; i < key.length; i++) {
+            if (!key[i].equals(e.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the entry for a tuple that was just inserted into the table.
+     *
+     * @param tid the transaction inserting the tuple
+     * @param t the inserted tuple, with its RecordId set
+     */
+    public void insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, getId(), entryFor(t));
+    }
+
+    /**
+     * Removes the entry for a tuple that was just deleted from the table.
+     *
+     * @param tid the transaction deleting the tuple
+     * @param t the deleted tuple
+     * @param rid the RecordId the tuple had before it was deleted
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public void deleteEntry(TransactionId tid, Tuple t, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        Field lead = t.getField(keyFields[0]);
+        Tuple found = null;
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, lead));
+        it.open();
+        while (found == null && it.hasNext()) {
+            Tuple e = it.next();
+            if (rid.equals(recordIdOf(tableid, e, keyFields.length)))
+                found = e;
+        }
+        it.close();
+        if (found == null)
+            throw new DbException("no index entry for tuple " + rid);
+        Database.getBufferPool().deleteTuple(tid, found);
+    }
+
+    /**
+     * Adds entries for all tuples currently stored in the table, for an index
+     * created over a table that already holds data.
+     *
+     * @param tid the transaction reading the table and writing the index
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext())
+            insertEntry(tid, it.next());
+        it.close();
+    }
+
+    /**
+     * Looks up the RecordIds of the tuples whose key columns start with the
+     * given values.
+     *
+     * @param tid the transaction performing the lookup
+     * @param key values for a prefix of the key columns, leading column first
+     * @return the RecordIds of the matching tuples, in no particular order
+     */
+    public ArrayList<RecordId> lookup(TransactionId tid, Field... key)
+            throws DbException, TransactionAbortedException {
+        if (key.length == 0 || key.length > keyFields.length)
+            throw new IllegalArgumentException("lookup key must have 1 to " + keyFields.length + " fields");
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key[0]));
+        it.open();
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            if (matches(e, key))
+                rids.add(recordIdOf(tableid, e, keyFields.length));
+        }
+        it.close();
+        return rids;
+    }
+
+    /**
+     * Returns an iterator over the table tuples whose key columns start with
+     * the given values, fetching each one from its heap page.
+     *
+     * @param tid the transaction performing the lookup
+     * @param key values for a prefix of the key columns, leading column first
+     */
+    public DbFileIterator iterator(TransactionId tid, Field... key) {
+        return new SecondaryIndexIterator(tid, key);
+    }
+
+    private class SecondaryIndexIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Field[] key;
+        private ArrayList<RecordId> rids;
+        private int pos;
+
+        SecondaryIndexIterator(TransactionId tid, Field[] key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            rids = lookup(tid, key);
+            pos = 0;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (rids == null || pos >= rids.size())
+                return null;
+            RecordId rid = rids.get(pos++);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t == null)
+                throw new DbException("index entry points at empty slot " + rid);
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            rids = null;
+        }
+    }
+}
@@ -33,14 +33,125 @@ public class SeqScan implements DbIterator {
     public String tableAlias;
     public DbFile table;
     public DbFileIterator it = null;
+    //indexes of the fields this scan returns, or null for all of them
+    private int[] fields = null;
+    //getTupleDesc的结果，alias改变前不变
+    private TupleDesc td = null;
 
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
-        // some code goes here
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns some of the fields of the
+     * table. Heap files and the columnar and slotted heap files only decode
+     * these fields from their pages, so columns that the rest of the plan
+     * never reads are not materialized at all.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param fields
+     *            the indexes (in the table's TupleDesc) of the fields to
+     *            return, in output order, or null to return every field
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this(tid, tableid, tableAlias, fields, null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns some of the fields of the
+     * table, and that skips the pages of a heap file whose zone map shows
+     * that none of their tuples satisfy all of the given predicates. The
+     * predicates only prune pages: tuples on the pages that are read are
+     * returned whether they match or not, so a Filter is still needed above
+     * the scan.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param fields
+     *            the indexes (in the table's TupleDesc) of the fields to
+     *            return, in output order, or null to return every field
+     * @param preds
+     *            predicates on the fields of the table's TupleDesc, or null
+     * @see ZoneMap
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields, Predicate[] preds) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.fields = fields;
         this.table = Database.getCatalog().getDatabaseFile(tableid);
-        this.it = table.iterator(tid);
+        if (table instanceof HeapFile)
+            this.it = ((HeapFile) table).iterator(tid, fields, preds);
+        else if (table instanceof ColumnarHeapFile)
+            this.it = ((ColumnarHeapFile) table).iterator(tid, fields);
+        else if (table instanceof SlottedHeapFile)
+            this.it = ((SlottedHeapFile) table).iterator(tid, fields);
+        else
+            this.it = table.iterator(tid);
+    }
+
+    /**
+     * Creates a sequential scan over the pages startPage (inclusive) to
+     * endPage (exclusive) of a heap file, as the scan built by
+     * {@link #SeqScan(TransactionId, int, String, int[], Predicate[])} but
+     * restricted to a part of the table.
+     *
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     * @see #partition
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields, Predicate[] preds,
+                   int startPage, int endPage) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.fields = fields;
+        this.table = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("page ranges can only be scanned in heap files");
+        this.it = ((HeapFile) table).iterator(tid, fields, preds, startPage, endPage);
+    }
+
+    /**
+     * Splits a scan of a table into at most n scans over disjoint ranges of
+     * its pages, which together return every tuple of the table, so that
+     * they can be run by different threads. Tables that are not heap files,
+     * and tables with fewer pages than n, are split into fewer scans; a
+     * table is always returned as at least one scan.
+     *
+     * @param n the number of scans wanted
+     * @see #SeqScan(TransactionId, int, String, int[], Predicate[])
+     */
+    public static SeqScan[] partition(TransactionId tid, int tableid, String tableAlias,
+                                      int[] fields, Predicate[] preds, int n) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        int numPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : 0;
+        n = Math.min(n, numPages);
+        if (n <= 1)
+            return new SeqScan[]{new SeqScan(tid, tableid, tableAlias, fields, preds)};
+        SeqScan[] scans = new SeqScan[n];
+        for (int i = 0; i < n; i++) {
+            //最后一个分区不设上限, 包括扫描时追加的页面
+            int end = i == n - 1 ? Integer.MAX_VALUE : (int) ((long) numPages * (i + 1) / n);
+            scans[i] = new SeqScan(tid, tableid, tableAlias, fields, preds, (int) ((long) numPages * i / n), end);
+        }
+        return scans;
+    }
+
+    /**
+     * @return the indexes of the table fields returned by this scan, or null
+     *         if it returns all of them
+     */
+    public int[] getFields() {
+        return fields;
     }
 
     /**
@@ -77,6 +188,7 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.td = null;
     }
 
     //默认tableAlias的constructor
@@ -98,14 +210,27 @@ public class SeqScan implements DbIterator {
     //SeqScan的constructor：SeqScan(TransactionId tid, int tableid, String tableAlias)
     public TupleDesc getTupleDesc() {
         // some code goes here
+        if (td != null)
+            return td;
         TupleDesc desc = this.table.getTupleDesc();//根据DbFile获取TupleDesc
-        Type[] typeArr = desc.getFieldTypeArr();//直接获取Type数组
+        if (fields == null) {
+            Type[] typeArr = desc.getFieldTypeArr();//直接获取Type数组
 
-        String[] nameArr = desc.getFieldNameArr().clone();//直接复制Nanme数组，然后每个元素添加alias.
-        for (int i = 0; i < desc.numFields(); i++) {
-            nameArr[i] = getAlias() + "." + nameArr[i];
+            String[] nameArr = desc.getFieldNameArr();//复制Name数组，然后每个元素添加alias.
+            for (int i = 0; i < desc.numFields(); i++) {
+                nameArr[i] = getAlias() + "." + nameArr[i];
+            }
+            td = new TupleDesc(typeArr, nameArr);
+            return td;
+        }
+        Type[] typeArr = new Type[fields.length];
+        String[] nameArr = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            typeArr[i] = desc.getFieldType(fields[i]);
+            nameArr[i] = getAlias() + "." + desc.getFieldName(fields[i]);
         }
-        return new TupleDesc(typeArr, nameArr);
+        td = new TupleDesc(typeArr, nameArr);
+        return td;
     }
 
     //这里开始，所有iterator相关函数全部直接使用HeapFile的
@@ -122,7 +247,16 @@ public class SeqScan implements DbIterator {
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return it.next();
+        Tuple t = it.next();
+        if (fields == null || table instanceof HeapFile || table instanceof ColumnarHeapFile
+                || table instanceof SlottedHeapFile)
+            return t;
+        //files without projected iterators still return whole tuples
+        Tuple projected = new Tuple(getTupleDesc());
+        projected.setRecordId(t.getRecordId());
+        for (int i = 0; i < fields.length; i++)
+            projected.setField(i, t, fields[i]);
+        return projected;
     }
 
     public void close() {
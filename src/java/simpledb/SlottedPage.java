@@ -0,0 +1,388 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a
+ * SlottedHeapFile. Unlike a HeapPage, which gives every tuple
+ * TupleDesc.getSize() bytes, a SlottedPage stores each tuple in only as many
+ * bytes as its fields need (see {@link Type#getVarLen}), so tables with
+ * short strings fit many more tuples on a page.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements Page {
+
+    // bytes of the count of directory entries, and of one directory entry
+    private static final int HEADER_SIZE = 2;
+    private static final int ENTRY_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] data;
+
+    // the directory: the number of entries, and for each entry the offset of
+    // its record in data (0 if the record is not on disk yet) and its length
+    // (0 if the slot is empty)
+    private int numEntries;
+    private int[] offsets;
+    private int[] lengths;
+    // tuples decoded or inserted so far, or null for slots never decoded
+    private Tuple[] tuples;
+    // total length of the records of the used slots
+    private int usedBytes;
+
+    TransactionId dirtier;
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     * The format of a SlottedPage is a 2-byte count of slots, followed by a
+     * directory of one 4-byte entry per slot, holding the offset and the
+     * length of the slot's record as unsigned shorts. A slot with length 0
+     * is empty. Records are packed at the end of the page, in the
+     * variable-length format of each field's type, and the space between
+     * the directory and the records is free.
+     * <p>
+     * An all-zero page is an empty page, so pages can be at most 65535
+     * bytes long.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length > 0xFFFF)
+            throw new IllegalArgumentException("page size " + data.length + " is too large for a SlottedPage");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        numEntries = dis.readUnsignedShort();
+        offsets = new int[Math.max(numEntries, 8)];
+        lengths = new int[offsets.length];
+        tuples = new Tuple[offsets.length];
+        for (int i = 0; i < numEntries; i++) {
+            offsets[i] = dis.readUnsignedShort();
+            lengths[i] = dis.readUnsignedShort();
+            usedBytes += lengths[i];
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of bytes the record of t takes on a SlottedPage
+     */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            size += td.getFieldType(j).getVarLen(t.getField(j));
+        return size;
+    }
+
+    /**
+     * Decode the given fields of the record in slot slotId, walking over the
+     * fields before them since their offsets depend on the lengths of the
+     * strings in the record.
+     *
+     * @param fields the indexes of the fields to decode, or null for all of
+     *        them
+     * @param result the tuple to store field fields[i] in as field i
+     */
+    private void readFields(int slotId, int[] fields, Tuple result) {
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(data, offsets[slotId], lengths[slotId]));
+        try {
+            if (fields == null) {
+                for (int j = 0; j < td.numFields(); j++)
+                    result.setField(j, td.getFieldType(j).parseVar(dis));
+                return;
+            }
+            Field[] decoded = new Field[td.numFields()];
+            int last = 0;
+            for (int f : fields)
+                last = Math.max(last, f);
+            for (int j = 0; j <= last; j++)
+                decoded[j] = td.getFieldType(j).parseVar(dis);
+            for (int i = 0; i < fields.length; i++)
+                result.setField(i, decoded[fields[i]]);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Return the tuple in slot i, decoding it if it has not been decoded
+     * yet, or null if the slot is empty.
+     */
+    Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId))
+            return null;
+        if (tuples[slotId] == null) {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
+            readFields(slotId, null, t);
+            tuples[slotId] = t;
+        }
+        return tuples[slotId];
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk. Records are packed again at the
+     * end of the page, so the space freed by deletes is reclaimed here.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the SlottedPage constructor and
+     * have it produce an identical SlottedPage object.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] page = new byte[data.length];
+        int directory = HEADER_SIZE;
+        int end = page.length;
+        page[0] = (byte) (numEntries >> 8);
+        page[1] = (byte) numEntries;
+        for (int i = 0; i < numEntries; i++) {
+            int offset = 0;
+            if (lengths[i] > 0) {
+                end -= lengths[i];
+                offset = end;
+                if (offsets[i] > 0) {
+                    System.arraycopy(data, offsets[i], page, offset, lengths[i]);
+                } else {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream(lengths[i]);
+                    DataOutputStream dos = new DataOutputStream(baos);
+                    try {
+                        for (int j = 0; j < td.numFields(); j++)
+                            td.getFieldType(j).serializeVar(tuples[i].getField(j), dos);
+                        dos.flush();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    System.arraycopy(baos.toByteArray(), 0, page, offset, lengths[i]);
+                }
+            }
+            page[directory++] = (byte) (offset >> 8);
+            page[directory++] = (byte) offset;
+            page[directory++] = (byte) (lengths[i] >> 8);
+            page[directory++] = (byte) lengths[i];
+        }
+        return page;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the number of free bytes on this page, counting the space of
+     *         deleted records
+     */
+    public int getFreeSpace() {
+        return data.length - HEADER_SIZE - numEntries * ENTRY_SIZE - usedBytes;
+    }
+
+    /**
+     * @return true if the page has room for t, counting the directory entry
+     *         it needs if there is no empty slot
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int needed = recordSize(t);
+        if (firstEmptySlot() == numEntries)
+            needed += ENTRY_SIZE;
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * @return true if t fits on an empty page
+     */
+    static boolean fitsOnEmptyPage(Tuple t) {
+        return HEADER_SIZE + ENTRY_SIZE + recordSize(t) <= BufferPool.getPageSize();
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numEntries; i++) {
+            if (lengths[i] == 0)
+                return i;
+        }
+        return numEntries;
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated
+     * to reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple not in this page!");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple not in this page!");
+        usedBytes -= lengths[slot];
+        offsets[slot] = 0;
+        lengths[slot] = 0;
+        tuples[slot] = null;
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addition to the page");
+        if (!hasRoomFor(t))
+            throw new DbException("No free space to insert on this page");
+        int slot = firstEmptySlot();
+        if (slot == numEntries) {
+            if (numEntries == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * numEntries);
+                lengths = Arrays.copyOf(lengths, 2 * numEntries);
+                tuples = Arrays.copyOf(tuples, 2 * numEntries);
+            }
+            numEntries++;
+        }
+        offsets[slot] = 0;
+        lengths[slot] = recordSize(t);
+        usedBytes += lengths[slot];
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return the number of slots in the directory of this page, used or not
+     */
+    public int getNumSlots() {
+        return numEntries;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numEntries && lengths[i] > 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new SlottedPageIterator(null, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that only decodes the
+     *         given fields and the ones before them; the returned tuples have
+     *         schema projectedTd, whose i-th field is field fields[i] of this
+     *         page's TupleDesc.
+     * @param fields the indexes of the fields to decode, in output order
+     * @param projectedTd the TupleDesc of the returned tuples
+     */
+    public Iterator<Tuple> iterator(int[] fields, TupleDesc projectedTd) {
+        return new SlottedPageIterator(fields, projectedTd);
+    }
+
+    private class SlottedPageIterator implements Iterator<Tuple> {
+        private final int[] fields;
+        private final TupleDesc projectedTd;
+        private int currPos = 0;
+
+        SlottedPageIterator(int[] fields, TupleDesc projectedTd) {
+            this.fields = fields;
+            this.projectedTd = projectedTd;
+        }
+
+        public boolean hasNext() {
+            for (int i = currPos; i < numEntries; i++) {
+                if (lengths[i] > 0) {
+                    currPos = i;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int slot = currPos++;
+            if (fields == null)
+                return getTuple(slot);
+            Tuple t = new Tuple(projectedTd);
+            t.setRecordId(new RecordId(pid, slot));
+            if (tuples[slot] != null) {
+                for (int i = 0; i < fields.length; i++)
+                    t.setField(i, tuples[slot].getField(fields[i]));
+            } else {
+                readFields(slot, fields, t);
+            }
+            return t;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file that an operator writes tuples to when they
+ * do not fit in memory, and reads back later. Only the fields of the tuples
+ * are written, each in its variable-length form (see
+ * {@link Type#serializeVar}), so strings take only as many bytes as they
+ * have characters.
+ * <p>
+ * Tuples are appended until {@link #iterator} is first called; after that,
+ * the file can be read any number of times, until it is deleted.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private long count = 0;
+
+    /**
+     * Creates an empty spill file.
+     *
+     * @param td the TupleDesc of the tuples that are written to the file
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Append a tuple to the file.
+     *
+     * @param t a tuple with the TupleDesc of the file
+     */
+    public void add(Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++)
+            td.getFieldType(i).serializeVar(t.getField(i), out);
+        count++;
+    }
+
+    /**
+     * Append some of the fields of a tuple to the file, as one tuple.
+     *
+     * @param t the tuple
+     * @param fields the indexes of the fields of t to write, whose types must
+     *        be those of the TupleDesc of the file
+     */
+    public void add(Tuple t, int[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++)
+            td.getFieldType(i).serializeVar(t.getField(fields[i]), out);
+        count++;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * @return an iterator over the tuples of the file, in the order they
+     *         were added. No more tuples can be added.
+     */
+    public DbIterator iterator() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new SpillIterator();
+    }
+
+    /**
+     * Delete the file.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class SpillIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private DataInputStream in = null;
+        private long read;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (FileNotFoundException e) {
+                throw new DbException("spill file was deleted");
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            return in != null && read < count;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parseVar(in));
+            } catch (ParseException e) {
+                throw new DbException("failed to read spill file: " + e);
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in == null)
+                return;
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            in = null;
+        }
+    }
+}
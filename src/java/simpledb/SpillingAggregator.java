@@ -0,0 +1,268 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SpillingAggregator computes a grouped aggregate like
+ * {@link IntegerAggregator} and {@link StringAggregator}, but holds at most
+ * maxGroups groups in memory.
+ * <p>
+ * Groups are aggregated in memory until there are maxGroups of them. After
+ * that, tuples of the groups already in memory are still aggregated in
+ * memory, and every other tuple is written, as its group-by and aggregate
+ * fields only, to one of several spill files chosen by a hash of its group.
+ * All the tuples of a group are thus in memory or in a single spill file.
+ * When the results are iterated over, the groups in memory are returned
+ * first, and then each spill file is aggregated in turn by a new
+ * SpillingAggregator, which may spill again with a different hash.
+ * Spill files are kept, so that the results can be rewound, until
+ * {@link #deleteSpills} is called.
+ */
+public class SpillingAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of groups held in memory. */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 18;
+
+    /** Number of files the tuples of the groups that do not fit are spilled
+        to. */
+    static final int PARTITIONS = 16;
+
+    // spill files are not split again after this many levels, which only
+    // happens when many tuples have groups with the same hash
+    private static final int MAX_LEVEL = 4;
+
+    private final int gbfield, afield;
+    private final Type gbfieldtype;
+    private final Op what;
+    private final int maxGroups;
+    private final double quantile;
+    private final int level;
+    // the fields written to the spill files, and their types
+    private final int[] spillFields;
+    private final TupleDesc spillTd;
+
+    private final Aggregator inMemory;
+    private SpillFile[] spills = null;
+    private final TupleDesc resultTd;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple; there
+     *            must be grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE)
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field
+     * @param what
+     *            the aggregation operator
+     * @param maxGroups
+     *            the number of groups to hold in memory
+     */
+    public SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what,
+                              int maxGroups) {
+        this(gbfield, gbfieldtype, afield, afieldtype, what, maxGroups, DEFAULT_QUANTILE, 0);
+    }
+
+    /**
+     * Aggregate constructor for APPROX_QUANTILE
+     *
+     * @param quantile
+     *            the quantile APPROX_QUANTILE estimates, between 0 and 1
+     * @see #SpillingAggregator(int, Type, int, Type, Op, int)
+     */
+    public SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what,
+                              int maxGroups, double quantile) {
+        this(gbfield, gbfieldtype, afield, afieldtype, what, maxGroups, quantile, 0);
+    }
+
+    private SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what,
+                               int maxGroups, double quantile, int level) {
+        if (gbfield == NO_GROUPING)
+            throw new IllegalArgumentException("an aggregate without grouping has a single group");
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+        this.maxGroups = Math.max(maxGroups, 1);
+        this.quantile = quantile;
+        this.level = level;
+        // SC_AVG reads the count from the field after the sum
+        if (what == Op.SC_AVG) {
+            spillFields = new int[]{gbfield, afield, afield + 1};
+            spillTd = new TupleDesc(new Type[]{gbfieldtype, afieldtype, Type.INT_TYPE});
+        } else {
+            spillFields = new int[]{gbfield, afield};
+            spillTd = new TupleDesc(new Type[]{gbfieldtype, afieldtype});
+        }
+        if (afieldtype == Type.STRING_TYPE)
+            inMemory = new StringAggregator(gbfield, gbfieldtype, afield, what);
+        else
+            inMemory = new IntegerAggregator(gbfield, gbfieldtype, afield, what, quantile);
+        resultTd = what == Op.SUM_COUNT
+                ? new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE, Type.INT_TYPE})
+                : new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
+    }
+
+    private int numGroups() {
+        if (inMemory instanceof IntegerAggregator)
+            return ((IntegerAggregator) inMemory).numGroups();
+        return ((StringAggregator) inMemory).numGroups();
+    }
+
+    private boolean hasGroup(Field gbVal) {
+        if (inMemory instanceof IntegerAggregator)
+            return ((IntegerAggregator) inMemory).hasGroup(gbVal);
+        return ((StringAggregator) inMemory).hasGroup(gbVal);
+    }
+
+    /**
+     * @return true if some groups did not fit in memory and were spilled
+     */
+    public boolean spilled() {
+        return spills != null;
+    }
+
+    // the spill file of a group; each level uses a different hash
+    private int partition(Field gbVal) {
+        int h = (gbVal.hashCode() ^ (level * 0x9E3779B9)) * 0x85EBCA6B;
+        h ^= h >>> 15;
+        return Math.floorMod(h, PARTITIONS);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, or write it to a spill file if
+     * its group is not in memory and there is no room for it.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws RuntimeException if a spill file cannot be written
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (level >= MAX_LEVEL || numGroups() < maxGroups) {
+            inMemory.mergeTupleIntoGroup(tup);
+            return;
+        }
+        Field gbVal = tup.getField(gbfield);
+        if (hasGroup(gbVal)) {
+            inMemory.mergeTupleIntoGroup(tup);
+            return;
+        }
+        try {
+            int p = partition(gbVal);
+            if (spills == null)
+                spills = new SpillFile[PARTITIONS];
+            if (spills[p] == null)
+                spills[p] = new SpillFile(spillTd);
+            spills[p].add(tup, spillFields);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to spill aggregate", e);
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results, as those of
+     * {@link IntegerAggregator#iterator} or
+     * {@link StringAggregator#iterator}, in no particular order. No more
+     * tuples can be merged once it has been called.
+     */
+    public DbIterator iterator() {
+        return new ResultIterator();
+    }
+
+    // aggregates the spill file of partition p
+    private SpillingAggregator aggregateSpill(int p) throws DbException, TransactionAbortedException {
+        SpillingAggregator agg = new SpillingAggregator(0, gbfieldtype, 1, spillTd.getFieldType(1), what,
+                maxGroups, quantile, level + 1);
+        DbIterator it;
+        try {
+            it = spills[p].iterator();
+        } catch (IOException e) {
+            throw new DbException("failed to read spilled aggregate: " + e);
+        }
+        it.open();
+        while (it.hasNext())
+            agg.mergeTupleIntoGroup(it.next());
+        it.close();
+        return agg;
+    }
+
+    /**
+     * Returns the groups in memory, and then the results of each spill file,
+     * aggregating a spill file when its results are reached.
+     */
+    private class ResultIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private DbIterator current = null;
+        // the aggregate of the spill file being returned, if any
+        private SpillingAggregator currentSpill = null;
+        // the next spill file to aggregate
+        private int nextSpill;
+
+        public void open() throws DbException, TransactionAbortedException {
+            current = inMemory.iterator();
+            current.open();
+            nextSpill = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (current == null)
+                return false;
+            while (!current.hasNext()) {
+                while (spills != null && nextSpill < PARTITIONS && spills[nextSpill] == null)
+                    nextSpill++;
+                if (spills == null || nextSpill == PARTITIONS)
+                    return false;
+                close();
+                currentSpill = aggregateSpill(nextSpill++);
+                current = currentSpill.iterator();
+                current.open();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return current.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return resultTd;
+        }
+
+        public void close() {
+            if (current != null)
+                current.close();
+            current = null;
+            if (currentSpill != null)
+                currentSpill.deleteSpills();
+            currentSpill = null;
+        }
+    }
+
+    /**
+     * Delete the spill files. The results can not be iterated over again.
+     */
+    public void deleteSpills() {
+        if (spills == null)
+            return;
+        for (SpillFile f : spills) {
+            if (f != null)
+                f.delete();
+        }
+        spills = null;
+    }
+}
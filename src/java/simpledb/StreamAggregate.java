@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamAggregate computes the same aggregates as {@link MultiAggregate},
+ * over a child whose tuples arrive grouped: all the tuples of a group are
+ * returned one after the other, as they are by an {@link IndexScan} or an
+ * {@link OrderBy} on the group-by field. It keeps only the group being
+ * read, and returns each group as soon as a tuple of the next group is
+ * read, so it needs no memory for the groups that have been returned and
+ * returns its first result without reading its whole input.
+ * <p>
+ * If the child is not grouped, a group that is split is returned once for
+ * each part.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int[] gfields, afields;
+    private final Aggregator.Op[] aops;
+    private TupleDesc td = null;
+
+    // the first tuple of the next group, if it has been read
+    private Tuple pending;
+    // true once the group of an aggregate without grouping was returned
+    private boolean done;
+    // the fraction of its result the child returns because of sampling
+    private double fraction = 1;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples, with all the
+     *            tuples of each group together.
+     * @param gfields
+     *            The columns over which we are grouping the result; an empty
+     *            array if there is no grouping
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each of afields, as in
+     *            {@link MultiAggregate}.
+     */
+    public StreamAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        MultiAggregate.checkAggregates(child.getTupleDesc(), afields, aops);
+        this.child = child;
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+    }
+
+    /**
+     * @return the indexes of the group-by fields in the input tuples
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the indexes of the aggregate fields in the input tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the aggregate operators
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+        pending = null;
+        done = false;
+        fraction = SampleScan.fractionOf(child);
+    }
+
+    private boolean sameGroup(Tuple t, Field[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (!t.getField(gfields[i]).equals(key[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the tuples of the next group, up to and including the first
+     * tuple of the group after it, and returns the aggregates of the group.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (pending == null) {
+            if (child.hasNext())
+                pending = child.next();
+            else if (gfields.length > 0 || done)
+                return null;
+        }
+        done = true;
+        long[] acc = new long[2 * aops.length];
+        Tuple result = new Tuple(getTupleDesc());
+        // an aggregate without grouping has a result even without input
+        if (pending == null) {
+            MultiAggregate.setResults(result, 0, acc, aops, fraction);
+            return result;
+        }
+        Field[] key = new Field[gfields.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = pending.getField(gfields[i]);
+            result.setField(i, key[i]);
+        }
+        MultiAggregate.accumulate(acc, pending, afields, aops);
+        pending = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!sameGroup(t, key)) {
+                pending = t;
+                break;
+            }
+            MultiAggregate.accumulate(acc, t, afields, aops);
+        }
+        MultiAggregate.setResults(result, key.length, acc, aops, fraction);
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        pending = null;
+        done = false;
+    }
+
+    /**
+     * Returns the TupleDesc of this aggregate, the same as that of a
+     * {@link MultiAggregate} with the same arguments.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = MultiAggregate.resultTupleDesc(child.getTupleDesc(), gfields, afields, aops);
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        pending = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+        this.td = null;
+    }
+}
@@ -2,11 +2,11 @@ package simpledb;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 /**
- * Knows how to compute some aggregate over a set of StringFields.
+ * Knows how to compute some aggregate over a set of StringFields: COUNT, or
+ * APPROX_COUNT_DISTINCT with a {@link HyperLogLog} per group.
  */
 public class StringAggregator implements Aggregator {
 
@@ -15,24 +15,33 @@ public class StringAggregator implements Aggregator {
     private int gbFieldIndex, aggFieldIndex;
     private Type gbFieldType;
     private Op aggOperator;
-    private Map<Field, Integer> gbMap;
+    //每个group的count; 不分组时key为null
+    private Map<Field, long[]> gbMap;
+    //APPROX_COUNT_DISTINCT: 每个group一个sketch
+    private Map<Field, HyperLogLog> sketches;
+    private boolean noGroup;
 
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
      * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
      * @param afield the 0-based index of the aggregate field in the tuple
-     * @param what aggregation operator to use -- only supports COUNT
-     * @throws IllegalArgumentException if what != COUNT
+     * @param what aggregation operator to use -- only supports COUNT and
+     *   APPROX_COUNT_DISTINCT
+     * @throws IllegalArgumentException if what is another operator
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+        if (what != Op.COUNT && what != Op.APPROX_COUNT_DISTINCT)
+            throw new IllegalArgumentException("We don't support this operator for string yet");
         this.gbFieldIndex = gbfield;
         this.gbFieldType = gbfieldtype;
         this.aggFieldIndex = afield;
         this.aggOperator = what;
-        this.gbMap = new HashMap<Field, Integer>();
+        this.gbMap = new HashMap<Field, long[]>();
+        this.sketches = new HashMap<Field, HyperLogLog>();
+        this.noGroup = gbfield == Aggregator.NO_GROUPING;
     }
 
     /**
@@ -41,23 +50,65 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field gbCol = tup.getField(gbFieldIndex);
-        Field aggCol = tup.getField(aggFieldIndex);
-        if (!this.aggOperator.equals(Op.COUNT)) {
-            try {
-                throw new DbException("We don't support this operator for string yet");
-            } catch (DbException e) {
-                e.printStackTrace();
+        Field gbCol = noGroup ? null : tup.getField(gbFieldIndex);
+        if (aggOperator == Op.APPROX_COUNT_DISTINCT) {
+            HyperLogLog sketch = sketches.get(gbCol);
+            if (sketch == null) {
+                sketch = new HyperLogLog();
+                sketches.put(gbCol, sketch);
             }
-        } else {
-            gbMap.putIfAbsent(gbCol, 0);
-            Integer oldValue = gbMap.get(gbCol);
-            oldValue++;
-            gbMap.replace(gbCol, oldValue);
+            sketch.add(tup.getField(aggFieldIndex));
+            return;
+        }
+        long[] count = gbMap.get(gbCol);
+        if (count == null) {
+            count = new long[1];
+            gbMap.put(gbCol, count);
+        }
+        count[0]++;
+    }
+
+    /**
+     * @return the number of groups aggregated so far
+     */
+    int numGroups() {
+        return gbMap.size() + sketches.size();
+    }
+
+    /**
+     * @return true if tuples of group gbVal have been aggregated
+     */
+    boolean hasGroup(Field gbVal) {
+        return gbMap.containsKey(gbVal) || sketches.containsKey(gbVal);
+    }
+
+    /**
+     * Merge the groups aggregated by other into this aggregator, as if the
+     * tuples merged into other had been merged into this one.
+     *
+     * @param other an aggregator with the same fields and operator, which
+     *        must not be used afterwards, as its sketches are reused
+     */
+    void merge(StringAggregator other) {
+        for (Map.Entry<Field, HyperLogLog> e : other.sketches.entrySet()) {
+            HyperLogLog sketch = sketches.get(e.getKey());
+            if (sketch == null)
+                sketches.put(e.getKey(), e.getValue());
+            else
+                sketch.merge(e.getValue());
+        }
+        for (Map.Entry<Field, long[]> e : other.gbMap.entrySet()) {
+            long[] count = gbMap.get(e.getKey());
+            if (count == null)
+                gbMap.put(e.getKey(), e.getValue().clone());
+            else
+                count[0] += e.getValue()[0];
         }
     }
 
     private TupleDesc getTd() {
+        if (noGroup)
+            return new TupleDesc(new Type[]{Type.INT_TYPE});
         Type[] typeAr = new Type[2];
         typeAr[0] = gbFieldType;
         typeAr[1] = Type.INT_TYPE;
@@ -76,14 +127,28 @@ public class StringAggregator implements Aggregator {
         // some code goes here
         TupleDesc td = this.getTd();
         ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-        Iterator mapIt = this.gbMap.entrySet().iterator();
-        while (mapIt.hasNext()) {
-            Map.Entry mapElement = (Map.Entry) mapIt.next();
-            Field key = (Field) mapElement.getKey();
-            Field value = new IntField((Integer) mapElement.getValue());
+        if (aggOperator == Op.APPROX_COUNT_DISTINCT) {
+            if (noGroup && sketches.isEmpty())
+                sketches.put(null, new HyperLogLog());
+            for (Map.Entry<Field, HyperLogLog> e : sketches.entrySet()) {
+                Tuple tuple = new Tuple(td);
+                int i = 0;
+                if (!noGroup)
+                    tuple.setField(i++, e.getKey());
+                tuple.setInt(i, Math.toIntExact(e.getValue().estimate()));
+                tuples.add(tuple);
+            }
+            return new TupleIterator(td, tuples);
+        }
+        //不分组且没有输入时count为0
+        if (noGroup && gbMap.isEmpty())
+            gbMap.put(null, new long[1]);
+        for (Map.Entry<Field, long[]> e : gbMap.entrySet()) {
             Tuple tuple = new Tuple(td);
-            tuple.setField(0, key);
-            tuple.setField(1, value);
+            int i = 0;
+            if (!noGroup)
+                tuple.setField(i++, e.getKey());
+            tuple.setInt(i, Math.toIntExact(e.getValue()[0]));
             tuples.add(tuple);
         }
         return new TupleIterator(td, tuples);
@@ -20,6 +20,13 @@ public class StringHistogram {
         hist = new IntHistogram(buckets, minVal(), maxVal());
     }
 
+    /**
+     * Create a StringHistogram over the converted values counted in hist.
+     */
+    StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
     /**
      * Convert a string to an integer, with the property that if the return
      * value(s1) < return value(s2), then s1 < s2
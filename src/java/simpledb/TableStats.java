@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -66,6 +69,13 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private int numTuples = 0;
+    private final TupleDesc td;
+    //每个字段一个直方图, int字段用IntHistogram, string字段用StringHistogram
+    private final Object[] histograms;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -85,6 +95,114 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.td = file.getTupleDesc();
+        int n = td.numFields();
+        int[] mins = new int[n];
+        int[] maxs = new int[n];
+        java.util.Arrays.fill(mins, Integer.MAX_VALUE);
+        java.util.Arrays.fill(maxs, Integer.MIN_VALUE);
+
+        //第一遍扫描: 统计元组数和int字段的最小/最大值
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                numTuples++;
+                for (int i = 0; i < n; i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        int v = ((IntField) t.getField(i)).getValue();
+                        mins[i] = Math.min(mins[i], v);
+                        maxs[i] = Math.max(maxs[i], v);
+                    }
+                }
+            }
+
+            histograms = new Object[n];
+            for (int i = 0; i < n; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    histograms[i] = numTuples == 0 ? new IntHistogram(NUM_HIST_BINS, 0, 0)
+                            : new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
+                else
+                    histograms[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+
+            //第二遍扫描: 填充直方图
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < n; i++) {
+                    if (histograms[i] instanceof IntHistogram)
+                        ((IntHistogram) histograms[i]).addValue(((IntField) t.getField(i)).getValue());
+                    else
+                        ((StringHistogram) histograms[i]).addValue(((StringField) t.getField(i)).getValue());
+                }
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (file instanceof HeapFile)
+            numPages = ((HeapFile) file).numPages();
+        else if (file instanceof BTreeFile)
+            numPages = ((BTreeFile) file).numPages();
+        else if (file instanceof HashIndexFile)
+            numPages = ((HashIndexFile) file).numPages();
+        else if (file instanceof ColumnarHeapFile)
+            numPages = ((ColumnarHeapFile) file).numPages();
+        else if (file instanceof SlottedHeapFile)
+            numPages = ((SlottedHeapFile) file).numPages();
+        else
+            numPages = (int) Math.ceil((double) numTuples * td.getSize() / BufferPool.getPageSize());
+    }
+
+    private TableStats(TupleDesc td, int ioCostPerPage, int numPages, int numTuples, Object[] histograms) {
+        this.td = td;
+        this.ioCostPerPage = ioCostPerPage;
+        this.numPages = numPages;
+        this.numTuples = numTuples;
+        this.histograms = histograms;
+    }
+
+    /**
+     * Write these statistics to dos, in the format read by {@link #read}.
+     * Used by {@link Catalog#saveCatalog} to store statistics with the
+     * catalog so they need not be recomputed at startup.
+     */
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(ioCostPerPage);
+        dos.writeInt(numPages);
+        dos.writeInt(numTuples);
+        for (Object h : histograms) {
+            if (h instanceof IntHistogram)
+                ((IntHistogram) h).write(dos);
+            else
+                ((StringHistogram) h).hist.write(dos);
+        }
+    }
+
+    /**
+     * Read statistics written by {@link #write} for a table with schema td.
+     */
+    static TableStats read(DataInputStream dis, TupleDesc td) throws IOException {
+        int ioCostPerPage = dis.readInt();
+        int numPages = dis.readInt();
+        int numTuples = dis.readInt();
+        Object[] histograms = new Object[td.numFields()];
+        for (int i = 0; i < histograms.length; i++) {
+            IntHistogram h = IntHistogram.read(dis);
+            histograms[i] = td.getFieldType(i) == Type.INT_TYPE ? h : new StringHistogram(h);
+        }
+        return new TableStats(td, ioCostPerPage, numPages, numTuples, histograms);
     }
 
     /**
@@ -101,7 +219,39 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of answering a predicate with the given selectivity
+     * through a B+ tree index on this table: one page read per level of the
+     * descent to the first matching leaf, plus the fraction of the leaf pages
+     * that hold matching tuples.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicate answered by the index
+     * @return The estimated cost of the index scan
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        // some code goes here
+        int tuplesPerPage = Math.max(BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1), 2);
+        double height = Math.ceil(Math.log(Math.max(numPages, 2)) / Math.log(tuplesPerPage)) + 1;
+        double leafPages = Math.ceil(selectivityFactor * numPages);
+        return (height + leafPages) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of answering an equality predicate with the given
+     * selectivity through a hash index on this table: one directory page read,
+     * plus the bucket pages holding the matching tuples.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicate answered by the index
+     * @return The estimated cost of the index lookup
+     */
+    public double estimateHashLookupCost(double selectivityFactor) {
+        double bucketPages = Math.max(Math.ceil(selectivityFactor * numPages), 1);
+        return (1 + bucketPages) * ioCostPerPage;
     }
 
     /**
@@ -115,7 +265,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) (numTuples * selectivityFactor);
     }
 
     /**
@@ -130,7 +280,9 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        if (histograms[field] instanceof IntHistogram)
+            return ((IntHistogram) histograms[field]).avgSelectivity();
+        return ((StringHistogram) histograms[field]).avgSelectivity();
     }
 
     /**
@@ -148,7 +300,9 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+        if (histograms[field] instanceof IntHistogram)
+            return ((IntHistogram) histograms[field]).estimateSelectivity(op, ((IntField) constant).getValue());
+        return ((StringHistogram) histograms[field]).estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
     /**
@@ -156,7 +310,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
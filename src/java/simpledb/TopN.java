@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN returns the first n tuples of its child in the order of an
+ * {@link OrderBy} on the same field, as ORDER BY ... LIMIT n does, without
+ * sorting the whole child. It keeps the best n tuples seen so far in a heap
+ * whose root is the worst of them, so each tuple of the child costs
+ * O(log n) time and only n tuples are held in memory. Tuples that compare
+ * equal are returned in the order the child returned them, as the stable
+ * sort of OrderBy does.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** A tuple, and its position in the child to break ties. */
+    private static final class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    private DbIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int n;
+    private final Comparator<Entry> order;
+    private ArrayList<Tuple> top;
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     * @throws IllegalArgumentException if n is negative
+     */
+    public TopN(int orderbyField, boolean asc, int n, DbIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("negative limit " + n);
+        this.child = child;
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.n = n;
+        final TupleComparator cmp = new TupleComparator(orderbyField, asc);
+        this.order = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = cmp.compare(a.tuple, b.tuple);
+                return c != 0 ? c : Long.compare(a.seq, b.seq);
+            }
+        };
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    /**
+     * @return the number of tuples returned, at most
+     */
+    public int getLimit() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        // the root of the heap is the worst of the best n tuples
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, n), Collections.reverseOrder(order));
+        long seq = 0;
+        while (n > 0 && child.hasNext()) {
+            Entry e = new Entry(child.next(), seq++);
+            if (heap.size() < n)
+                heap.add(e);
+            else if (order.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        Entry[] best = heap.toArray(new Entry[heap.size()]);
+        Arrays.sort(best, order);
+        top = new ArrayList<Tuple>(best.length);
+        for (Entry e : best)
+            top.add(e.tuple);
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    /**
+     * Returns the next of the first n tuples of the child, in order.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -1,9 +1,9 @@
 package simpledb;
 
-import com.sun.media.sound.ReferenceCountingDevice;
-
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -11,11 +11,26 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values of INT_TYPE fields are stored unboxed in an int array, so that
+ * reading a page or joining two tuples does not allocate an IntField per
+ * value; getField returns a new IntField view of such a value. Other fields
+ * are stored as references to their Field objects, which are shared, not
+ * copied, between tuples.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    // marks a slot of fields whose value is stored in ints
+    private static final Field INT_SLOT = new IntField(0);
+
+    private TupleDesc tDesc;
+    private RecordId rid;
+    //INT_TYPE的值直接存在ints里，其他field存引用
+    private transient Field[] fields;
+    private transient int[] ints;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -23,17 +38,10 @@ public class Tuple implements Serializable {
      *            the schema of this tuple. It must be a valid TupleDesc
      *            instance with at least one field.
      */
-    public ArrayList<Field> data;
-    public TupleDesc tDesc;
-    public RecordId rid;
-    //直冲arraylist
     public Tuple(TupleDesc td) {
         // some code goes here
-        data = new ArrayList<Field>();
-        for (int i = 0; i < td.desc.size(); i++) {
-            data.add(null);
-        }
         this.tDesc = td;
+        this.fields = new Field[td.numFields()];
         rid = null;
     }
 
@@ -75,7 +83,46 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        data.set(i, f);
+        if (f instanceof IntField) {
+            setInt(i, ((IntField) f).getValue());
+        } else {
+            fields[i] = f;
+        }
+    }
+
+    /**
+     * Change the ith field of this tuple to an INT_TYPE value, without
+     * allocating an IntField for it.
+     *
+     * @param i
+     *            index of the field to change. It must be a valid index.
+     * @param v
+     *            new value for the field.
+     */
+    public void setInt(int i, int v) {
+        if (ints == null)
+            ints = new int[fields.length];
+        ints[i] = v;
+        fields[i] = INT_SLOT;
+    }
+
+    /**
+     * Change the ith field of this tuple to the jth field of src, without
+     * allocating a Field if it is an INT_TYPE field.
+     *
+     * @param i
+     *            index of the field to change. It must be a valid index.
+     * @param src
+     *            the tuple to copy the field from
+     * @param j
+     *            index of the field of src to copy
+     */
+    public void setField(int i, Tuple src, int j) {
+        if (src.fields[j] == INT_SLOT) {
+            setInt(i, src.ints[j]);
+        } else {
+            fields[i] = src.fields[j];
+        }
     }
 
     /**
@@ -86,7 +133,20 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return data.get(i);
+        Field f = fields[i];
+        return f == INT_SLOT ? new IntField(ints[i]) : f;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     *         that has been set, without allocating an IntField for it.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        Field f = fields[i];
+        return f == INT_SLOT ? ints[i] : ((IntField) f).getValue();
     }
 
     /**
@@ -100,15 +160,57 @@ public class Tuple implements Serializable {
         public String toString() {
             // some code goes here
             StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < this.data.size(); i++) {
+            for (int i = 0; i < fields.length; i++) {
                 if (i > 0) {
                     sb.append("\t");
                 }
-                sb.append(this.data.get(i));
+                if (fields[i] == INT_SLOT) {
+                    sb.append(ints[i]);
+                } else {
+                    sb.append(fields[i]);
+                }
             }
             return sb.toString();
     }
 
+    /**
+     * Two tuples are equal if they have equal schemas, field values and
+     * RecordIds, so that a copy of a stored tuple, such as one returned by a
+     * scan, equals the tuple itself.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Tuple))
+            return false;
+        Tuple other = (Tuple) o;
+        if (!tDesc.equals(other.tDesc) || fields.length != other.fields.length
+                || (rid == null ? other.rid != null : !rid.equals(other.rid)))
+            return false;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == INT_SLOT && other.fields[i] == INT_SLOT) {
+                if (ints[i] != other.ints[i])
+                    return false;
+            } else {
+                Field f = getField(i);
+                if (f == null ? other.fields[i] != null : !f.equals(other.getField(i)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = rid == null ? 0 : rid.hashCode();
+        for (int i = 0; i < fields.length; i++) {
+            Field f = fields[i];
+            h = 31 * h + (f == INT_SLOT ? ints[i] : f == null ? 0 : f.hashCode());
+        }
+        return h;
+    }
+
     /**
      * @return
      *        An iterator which iterates over all the fields of this tuple
@@ -116,7 +218,11 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return data.iterator();
+        Field[] result = new Field[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            result[i] = getField(i);
+        }
+        return Arrays.asList(result).iterator();
     }
 
     /**
@@ -124,11 +230,9 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
-        data = new ArrayList<Field>();
-        for (int i = 0; i < td.desc.size(); i++) {
-            data.add(null);
-        }
         this.tDesc = td;
+        this.fields = new Field[td.numFields()];
+        this.ints = null;
         rid = null;
     }
 
@@ -140,14 +244,47 @@ public class Tuple implements Serializable {
      * @return the new Tuple
      */
     public static Tuple merge(Tuple tuple1, Tuple tuple2) {
-        Tuple newTuple = new Tuple(TupleDesc.merge(tuple1.getTupleDesc(), tuple2.getTupleDesc()));
-        for (int i = 0; i < tuple1.getTupleDesc().numFields(); i++) {
-            newTuple.setField(i, tuple1.getField(i));
-        }
-        int offset = tuple1.getTupleDesc().numFields();
-        for (int i = 0; i < tuple2.getTupleDesc().numFields(); i++) {
-            newTuple.setField(offset + i, tuple2.getField(i));
+        return merge(tuple1, tuple2, TupleDesc.merge(tuple1.getTupleDesc(), tuple2.getTupleDesc()));
+    }
+
+    /**
+     * Merge two Tuples into one with a given schema, copying the slots of
+     * both tuples without allocating a Field per value. Operators that
+     * merge many tuples should compute td once and use this method.
+     *
+     * @param tuple1 The first tuple
+     * @param tuple2 The second tuple
+     * @param td The merged TupleDesc of tuple1 and tuple2
+     * @return the new Tuple
+     */
+    public static Tuple merge(Tuple tuple1, Tuple tuple2, TupleDesc td) {
+        Tuple newTuple = new Tuple(td);
+        int n1 = tuple1.fields.length;
+        int n2 = tuple2.fields.length;
+        System.arraycopy(tuple1.fields, 0, newTuple.fields, 0, n1);
+        System.arraycopy(tuple2.fields, 0, newTuple.fields, n1, n2);
+        if (tuple1.ints != null || tuple2.ints != null) {
+            newTuple.ints = new int[n1 + n2];
+            if (tuple1.ints != null)
+                System.arraycopy(tuple1.ints, 0, newTuple.ints, 0, n1);
+            if (tuple2.ints != null)
+                System.arraycopy(tuple2.ints, 0, newTuple.ints, n1, n2);
         }
         return newTuple;
     }
+
+    /** Write every field as a Field, since INT_SLOT is not preserved. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(fields.length);
+        for (int i = 0; i < fields.length; i++)
+            out.writeObject(getField(i));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        fields = new Field[in.readInt()];
+        for (int i = 0; i < fields.length; i++)
+            setField(i, (Field) in.readObject());
+    }
 }
@@ -1,12 +1,12 @@
 package simpledb;
 
 import java.io.Serializable;
-import java.lang.reflect.Array;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 /**
- * TupleDesc describes the schema of a tuple.
+ * TupleDesc describes the schema of a tuple. TupleDescs are immutable, and
+ * compute their field offsets, size and name lookup table once, when they
+ * are created.
  */
 public class TupleDesc implements Serializable {
 
@@ -46,6 +46,16 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    //TupleDesc创建后不可修改，所有信息在构造时算好
+    private final List<TDItem> desc;
+    private final Type[] typeArr;
+    private final String[] fieldArr;
+    //每个field在定长tuple里的偏移量，以及tuple总大小
+    private final int[] offsets;
+    private final int size;
+    //名称到下标，同名时取第一个
+    private final HashMap<String, Integer> nameToIndex;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -57,22 +67,23 @@ public class TupleDesc implements Serializable {
      *            array specifying the names of the fields. Note that names may
      *            be null.
      */
-    public ArrayList<TDItem> desc;
-    public Type[] typeArr;
-    public String[] fieldArr;
-
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
         // some code goes here
-        desc = new ArrayList<TDItem>();
-        for (int i = 0; i < typeAr.length; i++) {//循环遍历，向desc添加TDItem对象
-            desc.add(new TDItem(typeAr[i], fieldAr[i]));
+        this.typeArr = typeAr.clone();
+        this.fieldArr = fieldAr == null ? new String[typeAr.length] : fieldAr.clone();
+        TDItem[] items = new TDItem[typeArr.length];
+        this.offsets = new int[typeArr.length];
+        this.nameToIndex = new HashMap<String, Integer>();
+        int size = 0;
+        for (int i = 0; i < typeArr.length; i++) {//循环遍历，生成TDItem和偏移量
+            items[i] = new TDItem(typeArr[i], fieldArr[i]);
+            offsets[i] = size;
+            size += typeArr[i].getLen();
+            if (fieldArr[i] != null && !nameToIndex.containsKey(fieldArr[i]))
+                nameToIndex.put(fieldArr[i], i);
         }
-        this.typeArr = typeAr;
-        this.fieldArr = fieldAr;
-    }
-
-    public TupleDesc(ArrayList<TDItem> desc) {
-        this.desc = desc;
+        this.size = size;
+        this.desc = Collections.unmodifiableList(Arrays.asList(items));
     }
 
     /**
@@ -85,12 +96,7 @@ public class TupleDesc implements Serializable {
      */
     public TupleDesc(Type[] typeAr) {//所有field名称都为匿名
         // some code goes here
-        desc = new ArrayList<TDItem>();
-        for (int i = 0; i < typeAr.length; i++) {
-            desc.add(new TDItem(typeAr[i], null));
-        }
-        this.typeArr = typeAr;
-        this.fieldArr = null;
+        this(typeAr, null);
     }
 
     /**
@@ -98,7 +104,7 @@ public class TupleDesc implements Serializable {
      */
     public int numFields() {
         // some code goes here
-        return desc.size();
+        return typeArr.length;
     }
 
     /**
@@ -112,7 +118,9 @@ public class TupleDesc implements Serializable {
      */
     public String getFieldName(int i) throws NoSuchElementException {
         // some code goes here
-        return desc.get(i).fieldName;
+        if (i < 0 || i >= fieldArr.length)
+            throw new NoSuchElementException("no field " + i);
+        return fieldArr[i];
     }
 
     /**
@@ -127,23 +135,23 @@ public class TupleDesc implements Serializable {
      */
     public Type getFieldType(int i) throws NoSuchElementException {
         // some code goes here
-        return desc.get(i).fieldType;
+        if (i < 0 || i >= typeArr.length)
+            throw new NoSuchElementException("no field " + i);
+        return typeArr[i];
     }
 
+    /**
+     * @return a copy of the types of the fields of this TupleDesc
+     */
     public Type[] getFieldTypeArr() {
-        Type[] type = new Type[numFields()];
-        for (int i = 0; i < numFields(); i++) {
-            type[i] = desc.get(i).fieldType;
-        }
-        return type;
+        return typeArr.clone();
     }
 
+    /**
+     * @return a copy of the names of the fields of this TupleDesc
+     */
     public String[] getFieldNameArr() {
-        String[] name = new String[numFields()];
-        for (int i = 0; i < numFields(); i++) {
-            name[i] = desc.get(i).fieldName;
-        }
-        return name;
+        return fieldArr.clone();
     }
 
     /**
@@ -157,31 +165,34 @@ public class TupleDesc implements Serializable {
      */
     public int fieldNameToIndex(String name) {
         if (name == null) throw new NoSuchElementException("name cannot be null");
-        //利用迭代器循环遍历
-        Iterator<TDItem> it = iterator();
-        while (it.hasNext()) {
-            TDItem t = it.next();
-            try {//有可能所有field都是匿名：抛出异常
-                if (t.fieldName.equals(name)) return desc.indexOf(t);
-            } catch (NullPointerException e) {
-                throw new NoSuchElementException("no fields are named");
-            }
-        }
-        //找不到对应field：抛出异常
-        throw new NoSuchElementException("no item has been found");
+        //查哈希表，O(1)
+        Integer i = nameToIndex.get(name);
+        if (i == null)
+            throw new NoSuchElementException(nameToIndex.isEmpty() ? "no fields are named"
+                    : "no item has been found");
+        return i;
+    }
+
+    /**
+     * @return The offset (in bytes) of the ith field in the fixed-size
+     *         layout of a tuple on a HeapPage, that is, the total length of
+     *         the fields before it.
+     * @param i
+     *            The index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        return offsets[i];
     }
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size on
+     *         HeapPages; on a SlottedPage this is the largest size a tuple
+     *         can take, and shorter strings take less space.
+     * @see Type#getVarLen
      */
     public int getSize() {
         // some code goes here
-        int size = 0;
-        Iterator<TDItem> it = iterator();
-        while (it.hasNext()) {//很好理解
-            size += it.next().fieldType.getLen();
-        }
         return size;
     }
 
@@ -195,47 +206,16 @@ public class TupleDesc implements Serializable {
      *            The TupleDesc with the last fields of the TupleDesc
      * @return the new TupleDesc
      */
-    public static TupleDesc merge1(TupleDesc td1, TupleDesc td2) {
-        ArrayList<TDItem> merge = new ArrayList<TDItem>(td2.desc);
-        merge.addAll(td1.desc);
-        return new TupleDesc(merge);
-    }
-    public static TupleDesc merge2(TupleDesc td1, TupleDesc td2) {
-        // some code goes here
-        Type[] mergeType = new Type[td1.typeArr.length + td2.typeArr.length];
-        String[] mergeName = new String[td1.fieldArr.length + td2.fieldArr.length];
-        //合并类型
-        for (int i = 0; i < mergeType.length; i++) {
-            if (i < td1.typeArr.length) {
-                mergeType[i] = td1.typeArr[i];
-            } else {
-                mergeType[i] = td2.typeArr[i - td1.typeArr.length];
-            }
-        }
-        //合并名称
-        for (int i = 0; i < mergeName.length; i++) {
-            if (i < td1.fieldArr.length) {
-                mergeName[i] = td1.fieldArr[i];
-            } else {
-                mergeName[i] = td2.fieldArr[i - td1.fieldArr.length];
-            }
-        }
-        return new TupleDesc(mergeType, mergeName);
-    }
-
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
         // some code goes here
-        Type[] types = new Type[td1.numFields() + td2.numFields()];
-        String[] fields = new String[td1.numFields() + td2.numFields()];
-        for (int i = 0; i < td1.numFields(); i++) {
-            types[i] = td1.getFieldType(i);
-            fields[i] = td1.getFieldName(i);
-        }
-        int offset = td1.numFields();
-        for (int i = 0; i < td2.numFields(); i++) {
-            types[offset + i] = td2.getFieldType(i);
-            fields[offset + i] = td2.getFieldName(i);
-        }
+        int n1 = td1.numFields();
+        int n2 = td2.numFields();
+        Type[] types = new Type[n1 + n2];
+        String[] fields = new String[n1 + n2];
+        System.arraycopy(td1.typeArr, 0, types, 0, n1);
+        System.arraycopy(td2.typeArr, 0, types, n1, n2);
+        System.arraycopy(td1.fieldArr, 0, fields, 0, n1);
+        System.arraycopy(td2.fieldArr, 0, fields, n1, n2);
         return new TupleDesc(types, fields);
     }
 
@@ -258,22 +238,13 @@ public class TupleDesc implements Serializable {
         if (!(o instanceof TupleDesc)) {
             return false;
         }
-        TupleDesc t = (TupleDesc) o;
-        if (this.typeArr.length == t.typeArr.length) {
-            for (int i = 0; i < this.typeArr.length; i++) {
-                if (this.typeArr[i] != t.typeArr[i]) {
-                    return false;
-                }
-            }
-            return true;
-        }
-        return false;
+        return Arrays.equals(this.typeArr, ((TupleDesc) o).typeArr);
     }
 
     public int hashCode() {
         // If you want to use TupleDesc as keys for HashMap, implement this so
         // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        return Arrays.hashCode(typeArr);
     }
 
     /**
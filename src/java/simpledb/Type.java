@@ -24,6 +24,21 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public int getVarLen(Field f) {
+            return 4;
+        }
+
+        @Override
+        public void serializeVar(Field f, DataOutputStream dos) throws IOException {
+            f.serialize(dos);
+        }
+
+        @Override
+        public Field parseVar(DataInputStream dis) throws ParseException {
+            return parse(dis);
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +57,30 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public int getVarLen(Field f) {
+            return 4 + ((StringField) f).getValue().length();
+        }
+
+        @Override
+        public void serializeVar(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public Field parseVar(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +99,25 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return the number of bytes needed to store f, a field of this type, in
+   *   the variable-length format of a SlottedPage, which leaves out the
+   *   padding of strings. getLen() is the largest value this can return.
+   * @see SlottedPage
+   */
+    public abstract int getVarLen(Field f);
+
+  /**
+   * Write f, a field of this type, in the variable-length format.
+   * @see #getVarLen
+   */
+    public abstract void serializeVar(Field f, DataOutputStream dos) throws IOException;
+
+  /**
+   * @return a Field object of this type read from the specified
+   *   DataInputStream in the variable-length format.
+   * @see #getVarLen
+   */
+    public abstract Field parseVar(DataInputStream dis) throws ParseException;
+
 }
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every INT_TYPE field on
+ * each page of a HeapFile, so that a scan with a range predicate can skip the
+ * pages that cannot hold a matching tuple without fetching them through the
+ * BufferPool.
+ * <p>
+ * A page is summarized when the HeapFile reads it from disk, and the summary
+ * is kept up to date as tuples are inserted into and deleted from it. Pages
+ * that have not been read since the file was opened have no summary and are
+ * never skipped. A summary may be wider than the page's actual contents but
+ * never narrower.
+ *
+ * @see HeapFile#iterator(TransactionId, int[], Predicate[])
+ */
+public class ZoneMap {
+
+    // the summarized fields of the table, and the position of each table
+    // field in that list or -1 if it is not an INT_TYPE field
+    private final int[] intFields;
+    private final int[] position;
+
+    // per page: min and max of intFields[i] at 2*i and 2*i+1, or null if the
+    // page has no summary
+    private final ArrayList<int[]> pages = new ArrayList<int[]>();
+
+    /**
+     * Create an empty zone map for a table with the given TupleDesc.
+     */
+    public ZoneMap(TupleDesc td) {
+        position = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            position[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        intFields = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (position[i] >= 0)
+                intFields[position[i]] = i;
+        }
+    }
+
+    private static int[] summary(HeapPage page, int[] intFields) {
+        int[] summary = new int[2 * intFields.length];
+        for (int i = 0; i < intFields.length; i++) {
+            int[] range = page.intRange(intFields[i]);
+            summary[2 * i] = range[0];
+            summary[2 * i + 1] = range[1];
+        }
+        return summary;
+    }
+
+    /**
+     * Widen the summary of a page that was just read from disk to cover its
+     * contents. The buffer pool may hold a newer copy of the page than the
+     * one on disk, so an existing summary is never narrowed here.
+     */
+    public synchronized void addPage(HeapPage page) {
+        int[] summary = summary(page, intFields);
+        int pgNo = page.getId().pageNumber();
+        while (pages.size() <= pgNo)
+            pages.add(null);
+        int[] old = pages.get(pgNo);
+        if (old != null) {
+            for (int i = 0; i < intFields.length; i++) {
+                summary[2 * i] = Math.min(summary[2 * i], old[2 * i]);
+                summary[2 * i + 1] = Math.max(summary[2 * i + 1], old[2 * i + 1]);
+            }
+        }
+        pages.set(pgNo, summary);
+    }
+
+    /**
+     * Recompute the summary of a page from the current contents of its copy
+     * in the buffer pool.
+     */
+    public synchronized void summarize(HeapPage page) {
+        int pgNo = page.getId().pageNumber();
+        while (pages.size() <= pgNo)
+            pages.add(null);
+        pages.set(pgNo, summary(page, intFields));
+    }
+
+    /**
+     * Widen the summary of page pgNo to cover a tuple inserted into it.
+     */
+    public synchronized void addTuple(int pgNo, Tuple t) {
+        if (pgNo >= pages.size() || pages.get(pgNo) == null)
+            return;
+        int[] summary = pages.get(pgNo);
+        for (int i = 0; i < intFields.length; i++) {
+            int v = ((IntField) t.getField(intFields[i])).getValue();
+            summary[2 * i] = Math.min(summary[2 * i], v);
+            summary[2 * i + 1] = Math.max(summary[2 * i + 1], v);
+        }
+    }
+
+    /**
+     * @return the {min, max} of field on page pgNo, or null if the page has no
+     *         summary or the field is not an INT_TYPE field
+     */
+    public synchronized int[] getRange(int pgNo, int field) {
+        if (pgNo >= pages.size() || pages.get(pgNo) == null || position[field] < 0)
+            return null;
+        int[] summary = pages.get(pgNo);
+        return new int[]{summary[2 * position[field]], summary[2 * position[field] + 1]};
+    }
+
+    /**
+     * Returns false if the summary of page pgNo proves that no tuple on it
+     * satisfies all of the given predicates, and true otherwise.
+     *
+     * @param pgNo the page to check
+     * @param preds predicates whose field indexes refer to the table's
+     *        TupleDesc
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate[] preds) {
+        if (pgNo >= pages.size() || pages.get(pgNo) == null)
+            return true;
+        int[] summary = pages.get(pgNo);
+        for (Predicate p : preds) {
+            int i = position[p.getField()];
+            if (i < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            int min = summary[2 * i];
+            int max = summary[2 * i + 1];
+            if (min > max)
+                return false; // no tuples on the page
+            int v = ((IntField) p.getOperand()).getValue();
+            boolean possible;
+            switch (p.getOp()) {
+                case EQUALS:
+                    possible = min <= v && v <= max;
+                    break;
+                case NOT_EQUALS:
+                    possible = min != v || max != v;
+                    break;
+                case GREATER_THAN:
+                    possible = max > v;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    possible = max >= v;
+                    break;
+                case LESS_THAN:
+                    possible = min < v;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    possible = min <= v;
+                    break;
+                default:
+                    possible = true;
+            }
+            if (!possible)
+                return false;
+        }
+        return true;
+    }
+}
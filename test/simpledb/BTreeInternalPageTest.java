@@ -166,6 +166,40 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChild()
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+
+		// check the binary search against a linear scan of the entries, probing every
+		// key on the page, its neighbours, and values past both ends
+		ArrayList<Integer> probes = new ArrayList<Integer>();
+		probes.add(Integer.MIN_VALUE);
+		probes.add(Integer.MAX_VALUE);
+		for (int[] entry : EXAMPLE_VALUES) {
+			probes.add(entry[1] - 1);
+			probes.add(entry[1]);
+			probes.add(entry[1] + 1);
+		}
+		for (int probe : probes) {
+			IntField f = new IntField(probe);
+			BTreePageId expected = null;
+			BTreeEntry e = null;
+			Iterator<BTreeEntry> it = page.iterator();
+			while (it.hasNext()) {
+				e = it.next();
+				if (e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, f)) {
+					expected = e.getLeftChild();
+					break;
+				}
+			}
+			if (expected == null)
+				expected = e.getRightChild();
+			assertEquals(expected, page.findChild(f));
+		}
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.getNumEmptySlots()
 	 */
@@ -185,6 +185,39 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Field)
+	 */
+	@Test public void testIteratorFrom() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+
+		ArrayList<Integer> probes = new ArrayList<Integer>();
+		probes.add(Integer.MIN_VALUE);
+		probes.add(Integer.MAX_VALUE);
+		for (int[] tuple : EXAMPLE_VALUES) {
+			probes.add(tuple[0] - 1);
+			probes.add(tuple[0]);
+			probes.add(tuple[0] + 1);
+		}
+		for (int probe : probes) {
+			IntField f = new IntField(probe);
+			// the binary search must start at the first tuple a full scan would accept
+			Iterator<Tuple> all = page.iterator();
+			ArrayList<Tuple> expected = new ArrayList<Tuple>();
+			while (all.hasNext()) {
+				Tuple tup = all.next();
+				if (tup.getField(0).compare(Predicate.Op.GREATER_THAN_OR_EQ, f))
+					expected.add(tup);
+			}
+			Iterator<Tuple> it = page.iterator(f);
+			for (Tuple tup : expected) {
+				assertTrue(it.hasNext());
+				assertEquals(tup, it.next());
+			}
+			assertFalse(it.hasNext());
+		}
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.getNumEmptySlots()
 	 */
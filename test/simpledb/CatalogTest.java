@@ -2,6 +2,8 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +95,74 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for Catalog.saveCatalog() and Catalog.loadCatalog()
+     */
+    @Test public void saveAndLoadCatalog() throws Exception {
+        // skeleton files cannot be saved
+        Database.getCatalog().clear();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 2000, null, tuples);
+        String tableName = Database.getCatalog().getTableName(hf.getId());
+        TableStats.setTableStats(tableName, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TableStats stats = TableStats.getTableStats(tableName);
+
+        File catalogFile = File.createTempFile("catalog", ".bin");
+        catalogFile.deleteOnExit();
+        Database.getCatalog().saveCatalog(catalogFile.getAbsolutePath());
+        Database.reset();
+        TableStats.getStatsMap().clear();
+        Database.getCatalog().loadCatalog(catalogFile.getAbsolutePath());
+
+        assertEquals(hf.getId(), Database.getCatalog().getTableId(tableName));
+        DbFile loaded = Database.getCatalog().getDatabaseFile(hf.getId());
+        assertEquals(hf.getTupleDesc(), loaded.getTupleDesc());
+        assertEquals(hf.getTupleDesc().getFieldName(1), loaded.getTupleDesc().getFieldName(1));
+        SystemTestUtil.matchTuples(loaded, tuples);
+
+        TableStats loadedStats = TableStats.getTableStats(tableName);
+        assertEquals(stats.totalTuples(), loadedStats.totalTuples());
+        assertEquals(stats.estimateScanCost(), loadedStats.estimateScanCost(), 0.0);
+        assertEquals(stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(100)),
+                loadedStats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(100)), 1e-9);
+    }
+
+    /**
+     * Unit test for FileHandlePool: unpinned files are closed least recently
+     * used first, pinned ones never
+     */
+    @Test public void fileHandlePool() throws Exception {
+        FileHandlePool pool = new FileHandlePool(2);
+        Object[] owners = new Object[4];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Object();
+            File f = File.createTempFile("handles", ".dat");
+            f.deleteOnExit();
+            pool.acquire(owners[i], f);
+            if (i > 0)
+                pool.release(owners[i]);
+        }
+        // owners[0] is still pinned, so it stayed open while others were closed
+        assertEquals(2, pool.numOpen());
+        pool.release(owners[0]);
+        pool.close(owners[3]);
+        assertEquals(1, pool.numOpen());
+
+        // with every open file pinned, the pool grows past its bound
+        File f = File.createTempFile("handles", ".dat");
+        f.deleteOnExit();
+        pool.acquire(owners[0], f);
+        pool.acquire(owners[1], f);
+        pool.acquire(owners[2], f);
+        assertEquals(3, pool.numOpen());
+        pool.release(owners[0]);
+        pool.release(owners[1]);
+        pool.release(owners[2]);
+        pool.acquire(owners[3], f);
+        pool.release(owners[3]);
+        assertEquals(2, pool.numOpen());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,113 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHistogramTest extends SimpleDbTestBase {
+
+	/**
+	 * Test with a minimum and a maximum that are both negative numbers.
+	 */
+	@Test public void negativeRangeTest() {
+		IntHistogram h = new IntHistogram(10, -60, -10);
+
+		// All of the values here are negative.
+		// Also, there are more of them than there are bins.
+		for (int c = -60; c <= -10; c++) {
+			h.addValue(c);
+			h.estimateSelectivity(Op.EQUALS, c);
+		}
+
+		// Even with just 10 bins and 50 values,
+		// the selectivity for this particular value should be at most 0.2.
+		Assert.assertTrue(h.estimateSelectivity(Op.EQUALS, -33) < 0.3);
+
+		// And it really shouldn't be 0.
+		// Though, it could easily be as low as 0.02, seeing as that's
+		// the fraction of elements that actually are equal to -33.
+		Assert.assertTrue(h.estimateSelectivity(Op.EQUALS, -33) > 0.001);
+	}
+
+	/**
+	 * Make sure that equality binning does something reasonable.
+	 */
+	@Test public void opEqualsTest() {
+		IntHistogram h = new IntHistogram(10, 1, 10);
+
+		// Set some values
+		h.addValue(3);
+		h.addValue(3);
+		h.addValue(3);
+
+		// This really should return "1.0"; but,
+		// be conservative in case of alternate implementations
+		Assert.assertTrue(h.estimateSelectivity(Op.EQUALS, 3) > 0.8);
+		Assert.assertTrue(h.estimateSelectivity(Op.EQUALS, 8) < 0.001);
+	}
+
+	/**
+	 * Make sure that GREATER_THAN binning does something reasonable.
+	 */
+	@Test public void opGreaterThanTest() {
+		IntHistogram h = new IntHistogram(10, 1, 10);
+
+		// Set some values
+		h.addValue(3);
+		h.addValue(3);
+		h.addValue(3);
+		h.addValue(1);
+		h.addValue(10);
+
+		// Be conservative in case of alternate implementations
+		Assert.assertTrue(h.estimateSelectivity(Op.GREATER_THAN, -1) > 0.999);
+		Assert.assertTrue(h.estimateSelectivity(Op.GREATER_THAN, 2) > 0.6);
+		Assert.assertTrue(h.estimateSelectivity(Op.GREATER_THAN, 4) < 0.4);
+		Assert.assertTrue(h.estimateSelectivity(Op.GREATER_THAN, 12) < 0.001);
+	}
+
+	/**
+	 * Make sure that LESS_THAN and LESS_THAN_OR_EQ binning does something
+	 * reasonable.
+	 */
+	@Test public void opLessThanTest() {
+		IntHistogram h = new IntHistogram(10, 1, 10);
+
+		// Set some values
+		h.addValue(3);
+		h.addValue(3);
+		h.addValue(3);
+		h.addValue(1);
+		h.addValue(10);
+
+		// Be conservative in case of alternate implementations
+		Assert.assertTrue(h.estimateSelectivity(Op.LESS_THAN, -1) < 0.001);
+		Assert.assertTrue(h.estimateSelectivity(Op.LESS_THAN, 2) < 0.4);
+		Assert.assertTrue(h.estimateSelectivity(Op.LESS_THAN, 4) > 0.6);
+		Assert.assertTrue(h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 3) > 0.6);
+		Assert.assertTrue(h.estimateSelectivity(Op.LESS_THAN, 12) > 0.999);
+	}
+
+	/**
+	 * Make sure that NOT_EQUALS binning does something reasonable.
+	 */
+	@Test public void opNotEqualsTest() {
+		IntHistogram h = new IntHistogram(10, 1, 10);
+
+		// Set some values
+		h.addValue(3);
+		h.addValue(3);
+		h.addValue(3);
+
+		// Be conservative in case of alternate implementations
+		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 3) < 0.001);
+		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 8) > 0.01);
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new junit.framework.JUnit4TestAdapter(IntHistogramTest.class);
+	}
+}
@@ -126,6 +126,56 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that sums are accumulated without overflowing an int
+   */
+  @Test public void avgLargeValues() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE - 2,
+                    2, Integer.MIN_VALUE,
+                    2, Integer.MIN_VALUE });
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE - 1, 2, Integer.MIN_VALUE }), it);
+  }
+
+  /**
+   * Test the approximate operators over groups small enough for their
+   * sketches to be exact, and merging the sketches of two aggregators
+   */
+  @Test public void mergeApproximate() throws Exception {
+    IntegerAggregator distinct = new IntegerAggregator(0, Type.INT_TYPE, 1,
+        Aggregator.Op.APPROX_COUNT_DISTINCT);
+    IntegerAggregator median = new IntegerAggregator(0, Type.INT_TYPE, 1,
+        Aggregator.Op.APPROX_QUANTILE);
+    IntegerAggregator other = new IntegerAggregator(0, Type.INT_TYPE, 1,
+        Aggregator.Op.APPROX_COUNT_DISTINCT);
+    scan1.open();
+    for (int i = 0; scan1.hasNext(); i++) {
+      Tuple t = scan1.next();
+      median.mergeTupleIntoGroup(t);
+      // the tuples are split between two aggregators, one of them twice
+      distinct.mergeTupleIntoGroup(t);
+      if (i % 2 == 0)
+        other.mergeTupleIntoGroup(t);
+    }
+    distinct.merge(other);
+    DbIterator it = distinct.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 3, 3, 3, 5, 1 }), it);
+    it = median.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 4, 3, 4, 5, 7 }), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for DbIterator behaviour
    */
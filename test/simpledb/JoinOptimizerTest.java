@@ -0,0 +1,297 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+    private LogicalPlan lp;
+    private HashMap<String, TableStats> stats;
+    private HashMap<String, Double> selectivities;
+    private List<ArrayList<ArrayList<Integer>>> tuples;
+
+    /**
+     * Create tables t0 .. t(n-1) with the given numbers of rows, and their statistics.
+     * Row j of table i is ((7j + i) % 5, j % 50), so that plans do not vary between runs.
+     */
+    private void createTables(int[] rows) throws Exception {
+        lp = new LogicalPlan();
+        stats = new HashMap<String, TableStats>();
+        selectivities = new HashMap<String, Double>();
+        tuples = new ArrayList<ArrayList<ArrayList<Integer>>>();
+        for (int i = 0; i < rows.length; i++) {
+            tuples.add(new ArrayList<ArrayList<Integer>>());
+            for (int j = 0; j < rows[i]; j++)
+                tuples.get(i).add(new ArrayList<Integer>(Arrays.asList((7 * j + i) % 5, j % 50)));
+            File temp = File.createTempFile("table", ".dat");
+            temp.deleteOnExit();
+            HeapFileEncoder.convert(tuples.get(i), temp, BufferPool.getPageSize(), 2);
+            HeapFile f = Utility.openHeapFile(2, "c", temp);
+            lp.addScan(f.getId(), "t" + i);
+            stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1000));
+            selectivities.put("t" + i, 1.0);
+        }
+    }
+
+    /**
+     * Check that order contains the joins, and joins two separate sets of tables at each step.
+     * @return true if some step joins two sets of several tables
+     */
+    private static boolean validateOrder(Vector<LogicalJoinNode> joins, Vector<LogicalJoinNode> order,
+            boolean leftDeep) {
+        boolean bushy = false;
+        assertEquals(joins.size(), order.size());
+        for (LogicalJoinNode j : joins)
+            assertTrue(order.contains(j));
+        Map<String, Set<String>> joined = new HashMap<String, Set<String>>();
+        for (LogicalJoinNode j : order) {
+            Set<String> s1 = joined.containsKey(j.t1Alias) ? joined.get(j.t1Alias)
+                    : new HashSet<String>(Collections.singleton(j.t1Alias));
+            Set<String> s2 = joined.containsKey(j.t2Alias) ? joined.get(j.t2Alias)
+                    : new HashSet<String>(Collections.singleton(j.t2Alias));
+            assertNotSame(s1, s2);
+            bushy |= s1.size() > 1 && s2.size() > 1;
+            s1.addAll(s2);
+            for (String alias : s1)
+                joined.put(alias, s1);
+        }
+        assertFalse(leftDeep && bushy);
+        return bushy;
+    }
+
+    /** Return true if some join in the plan joins the results of two other joins. */
+    private static boolean hasBushyJoin(DbIterator it) {
+        if (!(it instanceof Operator))
+            return false;
+        DbIterator[] children = ((Operator) it).getChildren();
+        if (it instanceof Join && hasJoin(children[0]) && hasJoin(children[1]))
+            return true;
+        for (DbIterator child : children) {
+            if (hasBushyJoin(child))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean hasJoin(DbIterator it) {
+        if (it instanceof Join || it instanceof IndexNestedLoopJoin)
+            return true;
+        if (!(it instanceof Operator))
+            return false;
+        for (DbIterator child : ((Operator) it).getChildren()) {
+            if (hasJoin(child))
+                return true;
+        }
+        return false;
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    @After public void resetMaxDpJoins() {
+        JoinOptimizer.setMaxDpJoins(JoinOptimizer.DEFAULT_MAX_DP_JOINS);
+    }
+
+    @Test public void estimateTableJoinCardinality() {
+        Map<String, TableStats> none = new HashMap<String, TableStats>();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        assertEquals(100, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "x", "y", 100, 1000, true, true, none, ids));
+        assertEquals(1000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "x", "y", 100, 1000, true, false, none, ids));
+        assertEquals(100, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "x", "y", 100, 1000, false, true, none, ids));
+        assertEquals(1000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "x", "y", 100, 1000, false, false, none, ids));
+        assertEquals(30000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.LESS_THAN,
+                "a", "b", "x", "y", 100, 1000, false, false, none, ids));
+        assertEquals(Integer.MAX_VALUE, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.GREATER_THAN,
+                "a", "b", "x", "y", 1000000, 1000000, false, false, none, ids));
+    }
+
+    /** A 16 table chain is ordered by dynamic programming, or greedily past maxDpJoins. */
+    @Test public void orderChain() throws Exception {
+        int[] rows = new int[16];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = 20 + (i * 37) % 200;
+        createTables(rows);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 0; i + 1 < rows.length; i++)
+            joins.add(new LogicalJoinNode("t" + i, "t" + (i + 1), "c0", "c1", Predicate.Op.EQUALS));
+
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        validateOrder(joins, order, false);
+
+        JoinOptimizer.setMaxDpJoins(4);
+        order = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+        validateOrder(joins, order, false);
+    }
+
+    /** Every table of a star is joined to the center, however the joins are ordered. */
+    @Test public void orderStar() throws Exception {
+        createTables(new int[]{2000, 10, 500, 30, 1000});
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < 5; i++)
+            joins.add(new LogicalJoinNode("t" + i, "t0", "c0", "c0", Predicate.Op.EQUALS));
+        for (int maxDpJoins : new int[]{JoinOptimizer.DEFAULT_MAX_DP_JOINS, 0}) {
+            JoinOptimizer.setMaxDpJoins(maxDpJoins);
+            Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+            // no two joins share only dimension tables
+            validateOrder(joins, order, true);
+        }
+    }
+
+    /** Joining two selective pairs of a chain and then their results is cheaper than any left-deep order. */
+    @Test public void orderBushy() throws Exception {
+        createTables(new int[]{300, 40, 200, 60});
+        selectivities.put("t0", 0.01);
+        selectivities.put("t2", 0.01);
+        selectivities.put("t3", 0.1);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("t0", "t1", "c0", "c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t1", "t2", "c1", "c1", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t2", "t3", "c0", "c0", Predicate.Op.EQUALS));
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+        assertTrue(validateOrder(joins, order, false));
+    }
+
+    /** The planner instantiates a bushy join order, which returns the same tuples as a greedy order. */
+    @Test public void physicalPlans() throws Exception {
+        createTables(new int[]{300, 40, 200, 60});
+        int expected = 0;
+        for (ArrayList<Integer> a : tuples.get(0)) {
+            for (ArrayList<Integer> b : tuples.get(1)) {
+                for (ArrayList<Integer> c : tuples.get(2)) {
+                    for (ArrayList<Integer> d : tuples.get(3)) {
+                        if (a.get(1) == 1 && b.get(1) < 5 && d.get(1) < 5 && a.get(0).equals(b.get(0))
+                                && b.get(1).equals(c.get(1)) && c.get(0).equals(d.get(0)))
+                            expected++;
+                    }
+                }
+            }
+        }
+        assertTrue(expected > 0);
+        for (int maxDpJoins : new int[]{JoinOptimizer.DEFAULT_MAX_DP_JOINS, 0}) {
+            JoinOptimizer.setMaxDpJoins(maxDpJoins);
+            LogicalPlan plan = new LogicalPlan();
+            for (int i = 0; i < 4; i++)
+                plan.addScan(lp.getTableId("t" + i), "t" + i);
+            plan.addFilter("t0.c1", Predicate.Op.EQUALS, "1");
+            plan.addFilter("t1.c1", Predicate.Op.LESS_THAN, "5");
+            plan.addFilter("t3.c1", Predicate.Op.LESS_THAN, "5");
+            plan.addJoin("t0.c0", "t1.c0", Predicate.Op.EQUALS);
+            plan.addJoin("t1.c1", "t2.c1", Predicate.Op.EQUALS);
+            plan.addJoin("t2.c0", "t3.c0", Predicate.Op.EQUALS);
+            plan.addProjectField("t0.c0", null);
+            TransactionId tid = new TransactionId();
+            DbIterator it = plan.physicalPlan(tid, stats, false);
+            if (maxDpJoins > 0)
+                assertTrue(hasBushyJoin(it));
+            int count = 0;
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+            assertEquals(expected, count);
+        }
+    }
+
+    /** A join between two tables that are already joined through others is applied as a filter. */
+    @Test public void physicalPlanCycle() throws Exception {
+        createTables(new int[]{60, 40, 50});
+        int expected = 0;
+        for (ArrayList<Integer> a : tuples.get(0)) {
+            for (ArrayList<Integer> b : tuples.get(1)) {
+                for (ArrayList<Integer> c : tuples.get(2)) {
+                    if (a.get(0).equals(b.get(0)) && b.get(1).equals(c.get(1)) && c.get(0) < a.get(0))
+                        expected++;
+                }
+            }
+        }
+        assertTrue(expected > 0);
+        for (int maxDpJoins : new int[]{JoinOptimizer.DEFAULT_MAX_DP_JOINS, 0}) {
+            JoinOptimizer.setMaxDpJoins(maxDpJoins);
+            LogicalPlan plan = new LogicalPlan();
+            for (int i = 0; i < 3; i++)
+                plan.addScan(lp.getTableId("t" + i), "t" + i);
+            plan.addJoin("t0.c0", "t1.c0", Predicate.Op.EQUALS);
+            plan.addJoin("t1.c1", "t2.c1", Predicate.Op.EQUALS);
+            plan.addJoin("t2.c0", "t0.c0", Predicate.Op.LESS_THAN);
+            plan.addProjectField("t0.c1", null);
+            TransactionId tid = new TransactionId();
+            assertEquals(expected, count(plan.physicalPlan(tid, stats, false)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** A bushy plan for a chain with an extra join across it applies that join as well. */
+    @Test public void physicalPlanBushyCycle() throws Exception {
+        createTables(new int[]{300, 40, 200, 60});
+        int expected = 0;
+        for (ArrayList<Integer> a : tuples.get(0)) {
+            for (ArrayList<Integer> b : tuples.get(1)) {
+                for (ArrayList<Integer> c : tuples.get(2)) {
+                    for (ArrayList<Integer> d : tuples.get(3)) {
+                        if (a.get(1) < 3 && b.get(1) < 5 && d.get(1) < 5 && a.get(0).equals(b.get(0))
+                                && b.get(1).equals(c.get(1)) && c.get(0).equals(d.get(0))
+                                && a.get(0) > c.get(0))
+                            expected++;
+                    }
+                }
+            }
+        }
+        assertTrue(expected > 0);
+        for (int maxDpJoins : new int[]{JoinOptimizer.DEFAULT_MAX_DP_JOINS, 0}) {
+            JoinOptimizer.setMaxDpJoins(maxDpJoins);
+            LogicalPlan plan = new LogicalPlan();
+            for (int i = 0; i < 4; i++)
+                plan.addScan(lp.getTableId("t" + i), "t" + i);
+            plan.addFilter("t0.c1", Predicate.Op.LESS_THAN, "3");
+            plan.addFilter("t1.c1", Predicate.Op.LESS_THAN, "5");
+            plan.addFilter("t3.c1", Predicate.Op.LESS_THAN, "5");
+            plan.addJoin("t0.c0", "t1.c0", Predicate.Op.EQUALS);
+            plan.addJoin("t1.c1", "t2.c1", Predicate.Op.EQUALS);
+            plan.addJoin("t2.c0", "t3.c0", Predicate.Op.EQUALS);
+            plan.addJoin("t0.c0", "t2.c0", Predicate.Op.GREATER_THAN);
+            plan.addProjectField("t0.c0", null);
+            TransactionId tid = new TransactionId();
+            DbIterator it = plan.physicalPlan(tid, stats, false);
+            if (maxDpJoins > 0)
+                assertTrue(hasBushyJoin(it));
+            assertEquals(expected, count(it));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void maxDpJoinsBound() {
+        JoinOptimizer.setMaxDpJoins(JoinOptimizer.MAX_DP_JOINS + 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
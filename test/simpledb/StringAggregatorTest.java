@@ -53,6 +53,25 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test String.mergeTupleIntoGroup() and iterator() over an
+   * APPROX_COUNT_DISTINCT of repeated values
+   */
+  @Test public void mergeApproxCountDistinct() throws Exception {
+    StringAggregator agg = new StringAggregator(0, Type.INT_TYPE, 1,
+        Aggregator.Op.APPROX_COUNT_DISTINCT);
+    for (int pass = 0; pass < 2; pass++) {
+      scan1.open();
+      while (scan1.hasNext())
+        agg.mergeTupleIntoGroup(scan1.next());
+      scan1.close();
+    }
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 3, 3, 3, 5, 1 }), it);
+  }
+
   /**
    * Test StringAggregator.iterator() for DbIterator behaviour
    */
@@ -167,6 +167,29 @@ public class TupleDescTest extends SimpleDbTestBase {
         assertFalse(intString.equals(singleInt2));
     }
 
+    /**
+     * Unit test for the immutability of TupleDesc, TupleDesc.getFieldOffset() and TupleDesc.hashCode()
+     */
+    @Test public void precomputed() {
+        Type[] types = new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+        String[] names = new String[]{"a", "b", "a"};
+        TupleDesc td = new TupleDesc(types, names);
+        names[0] = "c";
+        types[0] = Type.STRING_TYPE;
+        assertEquals("a", td.getFieldName(0));
+        assertEquals(Type.INT_TYPE, td.getFieldType(0));
+
+        assertEquals(0, td.fieldNameToIndex("a"));
+        assertEquals(1, td.fieldNameToIndex("b"));
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getFieldOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getFieldOffset(2));
+
+        TupleDesc unnamed = new TupleDesc(td.getFieldTypeArr());
+        assertEquals(td, unnamed);
+        assertEquals(td.hashCode(), unnamed.hashCode());
+    }
+
     /**
      * JUnit suite target
      */
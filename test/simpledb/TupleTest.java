@@ -1,6 +1,8 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +59,39 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.setInt(), Tuple.getInt() and Tuple.merge()
+     */
+    @Test public void unboxedFields() {
+        TupleDesc td1 = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        TupleDesc td2 = Utility.getTupleDesc(2);
+        Tuple t1 = new Tuple(td1);
+        t1.setInt(0, 7);
+        StringField s = new StringField("seven", Type.STRING_LEN);
+        t1.setField(1, s);
+        Tuple t2 = new Tuple(td2);
+        t2.setField(0, new IntField(-3));
+        assertNull(t2.getField(1));
+
+        assertEquals(new IntField(7), t1.getField(0));
+        assertEquals(-3, t2.getInt(0));
+
+        TupleDesc merged = TupleDesc.merge(td1, td2);
+        Tuple t = Tuple.merge(t1, t2, merged);
+        assertSame(merged, t.getTupleDesc());
+        assertEquals(7, t.getInt(0));
+        assertSame(s, t.getField(1));
+        assertEquals(new IntField(-3), t.getField(2));
+        assertNull(t.getField(3));
+        assertEquals("7\tseven\t-3\tnull", t.toString());
+
+        Tuple copy = new Tuple(td2);
+        copy.setField(0, t, 2);
+        copy.setField(1, t, 0);
+        assertEquals(-3, copy.getInt(0));
+        assertEquals(7, copy.getInt(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,6 +10,8 @@ import simpledb.*;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
@@ -113,6 +116,83 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /** A grouped aggregate with more groups than fit in memory spills them and still agrees. */
+    @Test public void testSpill() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 3000, 1 << 20, null, createdTuples);
+        Aggregator.Op[] ops = {Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.COUNT, Aggregator.Op.AVG};
+        for (Aggregator.Op op : ops) {
+            TransactionId tid = new TransactionId();
+            Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, op, 50);
+            SystemTestUtil.matchTuples(ag, aggregate(createdTuples, op, 1, 0));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** ParallelAggregate over partitions of a table agrees with a serial aggregate. */
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 5000, MAX_VALUE, null, createdTuples);
+        Aggregator.Op[] ops = {Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.COUNT, Aggregator.Op.AVG};
+        for (Aggregator.Op op : ops) {
+            for (int groupColumn : new int[]{0, Aggregator.NO_GROUPING}) {
+                TransactionId tid = new TransactionId();
+                SeqScan[] scans = SeqScan.partition(tid, table.getId(), "", null, null, 4);
+                assertEquals(4, scans.length);
+                ParallelAggregate ag = new ParallelAggregate(scans, 1, groupColumn, op);
+                SystemTestUtil.matchTuples(ag, aggregate(createdTuples, op, 1, groupColumn));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    /** The approximate aggregates of a table, serial and parallel, are within their error bounds. */
+    @Test public void testApproximate() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20000, 1 << 20, null, createdTuples);
+        int[] values = new int[createdTuples.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = createdTuples.get(i).get(1);
+        Arrays.sort(values);
+        int distinct = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1])
+                distinct++;
+        }
+
+        for (int partitions : new int[]{1, 4}) {
+            TransactionId tid = new TransactionId();
+            SeqScan[] scans = SeqScan.partition(tid, table.getId(), "", null, null, partitions);
+            int estimate = singleResult(new ParallelAggregate(scans, 1, Aggregator.NO_GROUPING,
+                    Aggregator.Op.APPROX_COUNT_DISTINCT));
+            assertEquals(distinct, estimate, distinct * 0.1);
+            for (double q : new double[]{0.5, 0.99}) {
+                scans = SeqScan.partition(tid, table.getId(), "", null, null, partitions);
+                int v = singleResult(new ParallelAggregate(scans, 1, Aggregator.NO_GROUPING,
+                        Aggregator.Op.APPROX_QUANTILE, q));
+                // the fraction of the values that are at most v
+                int rank = 0;
+                while (rank < values.length && values[rank] <= v)
+                    rank++;
+                assertEquals(q, (double) rank / values.length, 0.03);
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    private static int singleResult(DbIterator it) throws DbException, TransactionAbortedException {
+        it.open();
+        int v = ((IntField) it.next().getField(0)).getValue();
+        assertEquals(false, it.hasNext());
+        it.close();
+        return v;
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
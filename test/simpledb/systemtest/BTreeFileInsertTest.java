@@ -6,6 +6,7 @@ import simpledb.*;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.After;
 import org.junit.Before;
@@ -278,6 +279,109 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		
 	}
 
+	@Test
+	public void testConcurrentInserts() throws Exception {
+		// several writer threads insert into one index while a reader scans it repeatedly
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		final BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+		Database.resetBufferPool(1000);
+
+		final int THREADS = 4;
+		final int TUPLES_PER_THREAD = 3000;
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final AtomicBoolean done = new AtomicBoolean(false);
+
+		Thread[] writers = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int thread = i;
+			writers[i] = new Thread() {
+				public void run() {
+					try {
+						TransactionId wtid = new TransactionId();
+						for (int j = 0; j < TUPLES_PER_THREAD; j++) {
+							// interleave the keys of the threads so they contend for the same leaves
+							int key = j * THREADS + thread;
+							Database.getBufferPool().insertTuple(wtid, empty.getId(),
+									BTreeUtility.getBTreeTuple(key, 2));
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+		}
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					TransactionId rtid = new TransactionId();
+					while (!done.get()) {
+						DbFileIterator fit = empty.iterator(rtid);
+						fit.open();
+						int prev = -1;
+						while (fit.hasNext()) {
+							int value = ((IntField) fit.next().getField(0)).getValue();
+							if (value < prev)
+								throw new AssertionError("scan out of order: " + value + " after " + prev);
+							prev = value;
+						}
+						fit.close();
+					}
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}
+		};
+
+		reader.start();
+		for (Thread w : writers)
+			w.start();
+		for (Thread w : writers)
+			w.join();
+		done.set(true);
+		reader.join();
+		if (!errors.isEmpty())
+			throw new AssertionError(errors.get(0));
+
+		BTreeChecker.checkRep(empty, tid, new HashMap<PageId, Page>(), true);
+
+		// every key was inserted exactly once
+		DbFileIterator fit = empty.iterator(tid);
+		fit.open();
+		int expected = 0;
+		while (fit.hasNext()) {
+			assertEquals(expected, ((IntField) fit.next().getField(0)).getValue());
+			expected++;
+		}
+		fit.close();
+		assertEquals(THREADS * TUPLES_PER_THREAD, expected);
+	}
+
+	@Test
+	public void testScanSnapshotKeepsRecordIds() throws Exception {
+		// a leaf with free slots, so the insert below shifts its tuples instead of splitting it
+		BTreeFile file = BTreeUtility.createRandomBTreeFile(2, 100, null, null, 0);
+		ArrayList<RecordId> before = new ArrayList<RecordId>();
+		DbFileIterator fit = file.iterator(tid);
+		fit.open();
+		while (fit.hasNext())
+			before.add(fit.next().getRecordId());
+		fit.close();
+
+		fit = file.iterator(tid);
+		fit.open();
+		ArrayList<Tuple> scanned = new ArrayList<Tuple>();
+		scanned.add(fit.next());
+		// moves every tuple of the leaf one slot along
+		Database.getBufferPool().insertTuple(tid, file.getId(), BTreeUtility.getBTreeTuple(Integer.MIN_VALUE, 2));
+		while (scanned.size() < before.size())
+			scanned.add(fit.next());
+		fit.close();
+		for (int i = 0; i < before.size(); i++)
+			assertEquals(before.get(i), scanned.get(i).getRecordId());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
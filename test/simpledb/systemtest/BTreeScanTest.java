@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Iterator;
@@ -282,6 +283,60 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Returns true if the plan rooted at it contains an IndexScan. */
+    private static boolean usesIndex(DbIterator it) {
+        if (it instanceof IndexScan)
+            return true;
+        if (it instanceof Operator) {
+            for (DbIterator child : ((Operator) it).getChildren()) {
+                if (usesIndex(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** Test that the planner answers a selective key predicate with an IndexScan, and a non-selective one with a SeqScan. */
+    @Test public void testPlannerIndexSelection() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int keyField = 0;
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, keyField);
+        BTreeFile table = new BTreeFile(f.getFile(), keyField, Utility.getTupleDesc(2, "c"));
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(table, name);
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        // a point lookup on the key should use the index
+        int key = tuples.get(r.nextInt(tuples.size())).get(keyField);
+        ArrayList<ArrayList<Integer>> tuplesFiltered = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tup : tuples) {
+            if (tup.get(keyField) == key)
+                tuplesFiltered.add(tup);
+        }
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Op.EQUALS, Integer.toString(key));
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(usesIndex(plan));
+        SystemTestUtil.matchTuples(plan, tuplesFiltered);
+
+        // a predicate that matches every tuple is cheaper to answer with a scan
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Op.GREATER_THAN_OR_EQ, "0");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(usesIndex(plan));
+        SystemTestUtil.matchTuples(plan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
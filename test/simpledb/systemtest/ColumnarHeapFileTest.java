@@ -0,0 +1,115 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ColumnarHeapFileTest extends SimpleDbTestBase {
+    private static final Random r = new Random();
+    private static final int COLUMNS = 10;
+
+    /** Creates a columnar heap file with the given number of random rows and adds it to the catalog. */
+    private static ColumnarHeapFile createColumnarFile(int rows, ArrayList<ArrayList<Integer>> tuples)
+            throws IOException {
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < COLUMNS; j++)
+                tuple.add(r.nextInt(1 << 20) - (1 << 19));
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertToColumnar(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        ColumnarHeapFile cf = new ColumnarHeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    /** A converted file holds the same tuples, and projected scans return the right columns. */
+    @Test public void testConvertAndScan() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        ColumnarHeapFile cf = createColumnarFile(2000, tuples);
+        assertTrue(cf.numPages() > 1);
+        SystemTestUtil.matchTuples(cf, tuples);
+
+        ArrayList<ArrayList<Integer>> projected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            ArrayList<Integer> p = new ArrayList<Integer>();
+            p.add(tuple.get(7));
+            p.add(tuple.get(2));
+            projected.add(p);
+        }
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "t", new int[]{7, 2});
+        assertEquals(2, scan.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(scan, projected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts and deletes through the buffer pool reach the disk, and pages survive a round trip. */
+    @Test public void testInsertAndDelete() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        ColumnarHeapFile cf = createColumnarFile(300, tuples);
+        TransactionId tid = new TransactionId();
+
+        // delete every tuple with an even first field
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                toDelete.add(t);
+        }
+        it.close();
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) % 2 != 0)
+                remaining.add(tuple);
+        }
+
+        // refill the freed slots and append new pages
+        for (int i = 0; i < 1000; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int j = 0; j < COLUMNS; j++)
+                row.add(i * COLUMNS + j);
+            Tuple t = new Tuple(cf.getTupleDesc());
+            for (int j = 0; j < COLUMNS; j++)
+                t.setField(j, new IntField(row.get(j)));
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+            remaining.add(row);
+            if (i % 50 == 0)
+                Database.getBufferPool().flushAllPages();
+        }
+        SystemTestUtil.matchTuples(cf, tid, remaining);
+
+        // the page data written to disk parses back into the same tuples
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(cf.getId(), 0), Permissions.READ_ONLY);
+        PaxPage copy = new PaxPage(page.getId(), page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        java.util.Iterator<Tuple> a = page.iterator(), b = copy.iterator();
+        while (a.hasNext())
+            assertEquals(SystemTestUtil.tupleToList(a.next()), SystemTestUtil.tupleToList(b.next()));
+        assertFalse(b.hasNext());
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(cf, remaining);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ColumnarHeapFileTest.class);
+    }
+}
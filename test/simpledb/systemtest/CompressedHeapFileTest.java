@@ -0,0 +1,179 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private static final Random r = new Random();
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE}, new String[]{"time", "kind", "city"});
+    private static final String[] CITIES = {"boston", "cambridge", "somerville", "", "medford"};
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("compressed", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** Reads every tuple of f as a sorted list of strings. */
+    private static ArrayList<String> contents(DbFile f, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> result = new ArrayList<String>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            result.add(it.next().toString());
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private static Tuple tuple(int time, int kind, String city) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(time));
+        t.setField(1, new IntField(kind));
+        t.setField(2, new StringField(city, Type.STRING_LEN));
+        return t;
+    }
+
+    /** A redundant table compresses several-fold and reads back unchanged. */
+    @Test public void testConvertAndScan() throws IOException, DbException, TransactionAbortedException {
+        File text = tempFile(".txt");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        int time = 1000000;
+        for (int i = 0; i < 5000; i++) {
+            time += r.nextInt(5);
+            bw.write(time + "," + (i / 300) + "," + CITIES[r.nextInt(CITIES.length)] + "\n");
+        }
+        bw.close();
+        File heap = tempFile(".dat");
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), 3, TD.getFieldTypeArr());
+        File packed = tempFile(".dat");
+        HeapFileEncoder.convertToCompressed(heap, packed, BufferPool.getPageSize(), TD.getFieldTypeArr());
+        assertTrue(packed.length() * 10 < heap.length());
+
+        HeapFile hf = new HeapFile(heap, TD);
+        HeapFile cf = new HeapFile(packed, TD, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        assertTrue(cf.isCompressed());
+        assertEquals(hf.numPages(), cf.numPages());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(contents(hf, tid), contents(cf, tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Pages written through the buffer pool are compressed on disk and survive reopening the file. */
+    @Test public void testInsertDeleteAndReopen() throws IOException, DbException, TransactionAbortedException {
+        File f = tempFile(".dat");
+        HeapFile cf = new HeapFile(f, TD, true);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = i % 500 == 0 ? tuple(Integer.MIN_VALUE + i, Integer.MAX_VALUE, "x")
+                    : tuple(i, r.nextInt(3), CITIES[r.nextInt(CITIES.length)]);
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+            inserted.add(t);
+            if (i % 50 == 0)
+                Database.getBufferPool().flushAllPages();
+        }
+        for (int i = 0; i < inserted.size(); i += 3) {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+            if (i % 150 == 0)
+                Database.getBufferPool().flushAllPages();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        ArrayList<String> expected = contents(cf, tid);
+        assertEquals(2000, expected.size());
+
+        // a new HeapFile rebuilds the page directory from the file
+        String name = SystemTestUtil.getUUID();
+        HeapFile reopened = new HeapFile(f, TD, true);
+        Database.getCatalog().addTable(reopened, name);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(cf.numPages(), reopened.numPages());
+        assertEquals(expected, contents(reopened, tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A page that outgrows its record keeps a readable copy if writing it is cut off while it moves. */
+    @Test public void testMovedPageSurvivesCrash() throws IOException, DbException {
+        HeapFile cf = new HeapFile(tempFile(".dat"), TD, true);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        byte[] small = HeapPage.createEmptyPageData();
+        HeapPage page = new HeapPage(new HeapPageId(cf.getId(), 0), small);
+        for (int i = 0; i < 20; i++)
+            page.insertTuple(tuple(i, r.nextInt(3), CITIES[r.nextInt(CITIES.length)]));
+        byte[] big = page.getPageData();
+
+        File f = tempFile(".dat");
+        CompressedPageFile pages = new CompressedPageFile(f, TD.getFieldTypeArr(), BufferPool.getPageSize());
+        pages.writePage(0, small);
+        long firstRecordEnd = pages.diskSize();
+        pages.writePage(0, big);
+        assertTrue(pages.diskSize() > firstRecordEnd);
+        pages.close();
+
+        // failing before the old record is marked dead: the new one wins
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.writeInt(0);
+        raf.close();
+        pages = new CompressedPageFile(f, TD.getFieldTypeArr(), BufferPool.getPageSize());
+        assertArrayEquals(big, pages.readPage(0));
+        pages.close();
+
+        // failing while the new record is appended: the old one is kept
+        raf = new RandomAccessFile(f, "rw");
+        raf.setLength(firstRecordEnd + 20);
+        raf.close();
+        pages = new CompressedPageFile(f, TD.getFieldTypeArr(), BufferPool.getPageSize());
+        assertEquals(1, pages.numPages());
+        assertArrayEquals(small, pages.readPage(0));
+        pages.close();
+    }
+
+    /** A table marked compressed in the schema file is opened as a compressed HeapFile. */
+    @Test public void testLoadSchema() throws IOException {
+        File dir = tempFile(".dir");
+        assertTrue(dir.delete() && dir.mkdir());
+        File schema = new File(dir, "catalog.txt");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(schema));
+        bw.write("plain (a int, b string)\n");
+        bw.write("packed (a int, b string) compressed\n");
+        bw.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        HeapFile plain = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("plain"));
+        HeapFile packed = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("packed"));
+        assertFalse(plain.isCompressed());
+        assertTrue(packed.isCompressed());
+        new File(dir, "plain.dat").delete();
+        new File(dir, "packed.dat").delete();
+        schema.delete();
+        dir.delete();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class DistinctTest extends SimpleDbTestBase {
+
+    private static List<List<Integer>> values(DbIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<List<Integer>>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            List<Integer> row = new ArrayList<Integer>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                row.add(((IntField) t.getField(i)).getValue());
+            result.add(row);
+        }
+        return result;
+    }
+
+    private static void validateDistinct(ArrayList<ArrayList<Integer>> tuples, List<List<Integer>> result) {
+        Set<List<Integer>> expected = new HashSet<List<Integer>>(tuples);
+        assertEquals(expected.size(), result.size());
+        assertEquals(expected, new HashSet<List<Integer>>(result));
+    }
+
+    /** Distinct returns each distinct tuple once, in the order they are first seen when nothing spills. */
+    @Test public void testInMemory() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 30, null, tuples);
+        TransactionId tid = new TransactionId();
+        Distinct distinct = new Distinct(new SeqScan(tid, table.getId(), ""));
+        distinct.open();
+        List<List<Integer>> result = values(distinct);
+        validateDistinct(tuples, result);
+        List<List<Integer>> firstSeen = new ArrayList<List<Integer>>(
+                new LinkedHashSet<List<Integer>>(tuples));
+        assertEquals(firstSeen, result);
+        distinct.rewind();
+        assertEquals(result, values(distinct));
+        distinct.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Tuples past the memory budget are spilled and still made distinct. */
+    @Test public void testSpilled() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 30000, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (int maxTuples : new int[]{1, 50, 1000}) {
+            Distinct distinct = new Distinct(new SeqScan(tid, table.getId(), ""), maxTuples);
+            distinct.open();
+            List<List<Integer>> result = values(distinct);
+            validateDistinct(tuples, result);
+            distinct.rewind();
+            assertEquals(new HashSet<List<Integer>>(result), new HashSet<List<Integer>>(values(distinct)));
+            distinct.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner makes the projected tuples distinct before ordering them. */
+    @Test public void testPlanner() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 200, null, tuples, "c");
+        TransactionId tid = new TransactionId();
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            expected.add(t.get(1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c1", null);
+        lp.setDistinct(true);
+        lp.addOrderBy("t.c1", true);
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Distinct);
+        plan.open();
+        List<List<Integer>> result = values(plan);
+        plan.close();
+        assertEquals(expected.size(), result.size());
+        Iterator<Integer> it = expected.iterator();
+        for (List<Integer> row : result)
+            assertEquals(it.next(), row.get(0));
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c1", null);
+        lp.setDistinct(true);
+        lp.addOrderBy("t.c0", true);
+        try {
+            lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DistinctTest.class);
+    }
+}
@@ -1,7 +1,14 @@
 package simpledb.systemtest;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.HashMap;
 import static org.junit.Assert.*;
+
+import org.junit.Test;
+
 import simpledb.*;
 
 public class FilterTest extends FilterBase {
@@ -22,6 +29,46 @@ public class FilterTest extends FilterBase {
         return resultCount;
     }
 
+    /** A filter on a column that the projected scan returns at another index than the table is planned. */
+    @Test public void testPlannerProjectedFilter() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, new String[]{"name", "x"});
+        File text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        int expected = 0;
+        for (int i = 0; i < 200; i++) {
+            bw.write("n" + i + "," + (i % 100) + "\n");
+            if (i % 100 > 40)
+                expected++;
+        }
+        bw.close();
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), 2, td.getFieldTypeArr());
+        HeapFile f = new HeapFile(heap, td);
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(f, name);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.x", Predicate.Op.GREATER_THAN, "40");
+        lp.addProjectField("t.x", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertEquals(1, plan.getTupleDesc().numFields());
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            assertTrue(((IntField) plan.next().getField(0)).getValue() > 40);
+            count++;
+        }
+        plan.close();
+        assertEquals(expected, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(FilterTest.class);
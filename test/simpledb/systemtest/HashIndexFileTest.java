@@ -0,0 +1,173 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+    private static final Random r = new Random();
+
+    /** Creates an empty hash index file keyed on its first column and adds it to the catalog. */
+    private static HashIndexFile createHashFile(String name) throws IOException {
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        HashIndexFile hf = new HashIndexFile(f, 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /** Inserts the given rows, flushing now and then since transactions never flush their pages. */
+    private static void insertRows(HashIndexFile hf, TransactionId tid, ArrayList<ArrayList<Integer>> rows)
+            throws IOException, DbException, TransactionAbortedException {
+        int n = 0;
+        for (ArrayList<Integer> row : rows) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(row.get(0)));
+            t.setField(1, new IntField(row.get(1)));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            if (++n % 20 == 0)
+                Database.getBufferPool().flushAllPages();
+        }
+        Database.getBufferPool().flushAllPages();
+    }
+
+    private static ArrayList<ArrayList<Integer>> matching(ArrayList<ArrayList<Integer>> rows, Op op, int key) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows) {
+            if (new IntField(row.get(0)).compare(op, new IntField(key)))
+                result.add(row);
+        }
+        return result;
+    }
+
+    private static ArrayList<ArrayList<Integer>> randomRows(int n, int maxKey) {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(r.nextInt(maxKey));
+            row.add(i);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /** Inserting enough tuples to split buckets and double the directory keeps every tuple reachable. */
+    @Test public void testInsertAndLookup() throws IOException, DbException, TransactionAbortedException {
+        HashIndexFile hf = createHashFile(SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> rows = randomRows(20000, 4000);
+        TransactionId tid = new TransactionId();
+        insertRows(hf, tid, rows);
+        assertTrue(hf.numPages() > 40);
+
+        SystemTestUtil.matchTuples(hf, tid, rows);
+        for (int i = 0; i < 200; i++) {
+            int key = r.nextInt(4100);
+            SystemTestUtil.matchTuples(new IndexScan(tid, hf.getId(), "t",
+                    new IndexPredicate(Op.EQUALS, new IntField(key))), matching(rows, Op.EQUALS, key));
+        }
+        // other predicates fall back to a scan of the whole file
+        int key = r.nextInt(4000);
+        SystemTestUtil.matchTuples(new IndexScan(tid, hf.getId(), "t",
+                new IndexPredicate(Op.LESS_THAN, new IntField(key))), matching(rows, Op.LESS_THAN, key));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Duplicates of one key cannot be split apart, so they go to overflow pages. */
+    @Test public void testDuplicateKeys() throws IOException, DbException, TransactionAbortedException {
+        HashIndexFile hf = createHashFile(SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> rows = randomRows(2000, 50);
+        for (int i = 0; i < 3000; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(7);
+            row.add(-i);
+            rows.add(row);
+        }
+        TransactionId tid = new TransactionId();
+        insertRows(hf, tid, rows);
+
+        SystemTestUtil.matchTuples(hf, tid, rows);
+        for (int key = 0; key < 50; key++) {
+            SystemTestUtil.matchTuples(new IndexScan(tid, hf.getId(), "t",
+                    new IndexPredicate(Op.EQUALS, new IntField(key))), matching(rows, Op.EQUALS, key));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Deleted tuples are no longer returned by lookups or scans. */
+    @Test public void testDelete() throws IOException, DbException, TransactionAbortedException {
+        HashIndexFile hf = createHashFile(SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> rows = randomRows(3000, 500);
+        TransactionId tid = new TransactionId();
+        insertRows(hf, tid, rows);
+
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0)
+                toDelete.add(t);
+        }
+        it.close();
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows) {
+            if (row.get(0) % 3 != 0)
+                remaining.add(row);
+        }
+        SystemTestUtil.matchTuples(hf, tid, remaining);
+        SystemTestUtil.matchTuples(new IndexScan(tid, hf.getId(), "t",
+                new IndexPredicate(Op.EQUALS, new IntField(3))), new ArrayList<ArrayList<Integer>>());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner answers an equality filter on the key of a hash index file with a lookup. */
+    @Test public void testPlannerUsesHashIndex() throws Exception {
+        String name = SystemTestUtil.getUUID();
+        HashIndexFile hf = createHashFile(name);
+        ArrayList<ArrayList<Integer>> rows = randomRows(10000, 2000);
+        TransactionId tid = new TransactionId();
+        insertRows(hf, tid, rows);
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1000));
+
+        int key = rows.get(r.nextInt(rows.size())).get(0);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", Op.EQUALS, Integer.toString(key));
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan instanceof Operator);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexScan);
+        SystemTestUtil.matchTuples(plan, matching(rows, Op.EQUALS, key));
+
+        // range filters cannot use the hash index
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", Op.LESS_THAN, "10");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof IndexScan);
+        SystemTestUtil.matchTuples(plan, matching(rows, Op.LESS_THAN, 10));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int MAX_VALUE = 500;
+
+    private ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+    private ArrayList<ArrayList<Integer>> innerTuples = new ArrayList<ArrayList<Integer>>();
+
+    /** Creates a heap file outer table and a B+ tree inner table keyed on its first column. */
+    private BTreeFile createTables(HeapFile[] outer, int outerRows, int innerRows)
+            throws IOException, DbException, TransactionAbortedException {
+        outer[0] = SystemTestUtil.createRandomHeapFile(COLUMNS, outerRows, MAX_VALUE, null, outerTuples, "a");
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(COLUMNS, innerRows, MAX_VALUE, null, innerTuples, 0);
+        BTreeFile inner = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(COLUMNS, "b"));
+        Database.getCatalog().addTable(inner, SystemTestUtil.getUUID());
+        return inner;
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedResults() {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : outerTuples) {
+            for (ArrayList<Integer> t2 : innerTuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /** Returns true if the plan rooted at it contains an IndexNestedLoopJoin. */
+    private static boolean usesIndexJoin(DbIterator it) {
+        if (it instanceof IndexNestedLoopJoin)
+            return true;
+        if (it instanceof Operator) {
+            for (DbIterator child : ((Operator) it).getChildren()) {
+                if (usesIndexJoin(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** Joins with batches smaller than the outer relation, so several sorted batches are probed. */
+    @Test public void testJoin() throws IOException, DbException, TransactionAbortedException {
+        HeapFile[] outer = new HeapFile[1];
+        BTreeFile inner = createTables(outer, 1000, 2000);
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, outer[0].getId(), "a");
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(tid, 0, ss, inner.getId(), "b", 64);
+        assertEquals("a.a0", join.getJoinField1Name());
+        assertEquals("b.b0", join.getJoinField2Name());
+        assertEquals(2 * COLUMNS, join.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(join, expectedResults());
+
+        // rewinding produces the same results again
+        join.open();
+        int count = 0;
+        while (join.hasNext()) {
+            join.next();
+            count++;
+        }
+        join.rewind();
+        while (join.hasNext()) {
+            join.next();
+            count--;
+        }
+        assertEquals(0, count);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test that the planner probes the index of an unfiltered B+ tree inner table. */
+    @Test public void testPlannerUsesIndexJoin() throws Exception {
+        HeapFile[] outer = new HeapFile[1];
+        BTreeFile inner = createTables(outer, 200, 2000);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer[0].getId(), "a");
+        lp.addScan(inner.getId(), "b");
+        lp.addJoin("a.a0", "b.b0", Predicate.Op.EQUALS);
+        lp.addProjectField("a.a0", null);
+        lp.addProjectField("a.a1", null);
+        lp.addProjectField("b.b0", null);
+        lp.addProjectField("b.b1", null);
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        assertTrue(usesIndexJoin(plan));
+        SystemTestUtil.matchTuples(plan, expectedResults());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test that the planner probes the index only if the optimizer costed the join that way. */
+    @Test public void testPlannerFollowsCost() throws Exception {
+        HeapFile[] outer = new HeapFile[1];
+        // with one inner tuple that costs nothing to scan, a nested loop
+        // join costs no more than probing the index
+        for (int innerRows : new int[]{2000, 1}) {
+            outerTuples.clear();
+            innerTuples.clear();
+            BTreeFile inner = createTables(outer, 200, innerRows);
+            HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+            stats.put(Database.getCatalog().getTableName(outer[0].getId()),
+                    new TableStats(outer[0].getId(), 1000));
+            stats.put(Database.getCatalog().getTableName(inner.getId()),
+                    new TableStats(inner.getId(), innerRows == 1 ? 0 : 1000));
+            try {
+                for (int maxDpJoins : new int[]{JoinOptimizer.DEFAULT_MAX_DP_JOINS, 0}) {
+                    JoinOptimizer.setMaxDpJoins(maxDpJoins);
+                    LogicalPlan lp = new LogicalPlan();
+                    lp.addScan(outer[0].getId(), "a");
+                    lp.addScan(inner.getId(), "b");
+                    lp.addJoin("a.a0", "b.b0", Predicate.Op.EQUALS);
+                    lp.addProjectField("a.a0", null);
+                    lp.addProjectField("a.a1", null);
+                    lp.addProjectField("b.b0", null);
+                    lp.addProjectField("b.b1", null);
+
+                    TransactionId tid = new TransactionId();
+                    DbIterator plan = lp.physicalPlan(tid, stats, false);
+                    assertEquals(innerRows > 1, usesIndexJoin(plan));
+                    SystemTestUtil.matchTuples(plan, expectedResults());
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+            } finally {
+                JoinOptimizer.setMaxDpJoins(JoinOptimizer.DEFAULT_MAX_DP_JOINS);
+            }
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
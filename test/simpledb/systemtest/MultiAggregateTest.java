@@ -0,0 +1,160 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+    private static final int[] GFIELDS = {0, 1};
+    private static final int[] AFIELDS = {2, 2, 3, 3, 2};
+    private static final Aggregator.Op[] AOPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG};
+
+    /** Computes the expected result of aggregating tuples by gfields. */
+    private static ArrayList<ArrayList<Integer>> aggregate(ArrayList<ArrayList<Integer>> tuples, int[] gfields) {
+        return aggregate(tuples, gfields, AFIELDS, AOPS);
+    }
+
+    /** Computes the expected result of aggregating fields afields of tuples with aops by gfields. */
+    private static ArrayList<ArrayList<Integer>> aggregate(ArrayList<ArrayList<Integer>> tuples, int[] gfields,
+                                                           int[] afields, Aggregator.Op[] aops) {
+        LinkedHashMap<List<Integer>, ArrayList<ArrayList<Integer>>> groups =
+                new LinkedHashMap<List<Integer>, ArrayList<ArrayList<Integer>>>();
+        for (ArrayList<Integer> t : tuples) {
+            List<Integer> key = new ArrayList<Integer>();
+            for (int g : gfields)
+                key.add(t.get(g));
+            if (!groups.containsKey(key))
+                groups.put(key, new ArrayList<ArrayList<Integer>>());
+            groups.get(key).add(t);
+        }
+        ArrayList<ArrayList<Integer>> results = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<List<Integer>, ArrayList<ArrayList<Integer>>> e : groups.entrySet()) {
+            ArrayList<Integer> result = new ArrayList<Integer>(e.getKey());
+            for (int i = 0; i < aops.length; i++) {
+                long sum = 0;
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+                for (ArrayList<Integer> t : e.getValue()) {
+                    int v = t.get(afields[i]);
+                    sum += v;
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+                int n = e.getValue().size();
+                switch (aops[i]) {
+                    case SUM: result.add((int) sum); break;
+                    case COUNT: result.add(n); break;
+                    case MIN: result.add(min); break;
+                    case MAX: result.add(max); break;
+                    default: result.add((int) (sum / n));
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private void validate(int maxValue, int[] gfields, int maxGroups)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, 3000, maxValue, null, tuples);
+        TransactionId tid = new TransactionId();
+        MultiAggregate ag = new MultiAggregate(new SeqScan(tid, table.getId(), ""),
+                gfields, AFIELDS, AOPS, maxGroups);
+        assertEquals(gfields.length + AOPS.length, ag.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(ag, aggregate(tuples, gfields));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Several aggregates grouped by two fields are computed in one pass. */
+    @Test public void testGroupByTwoFields() throws IOException, DbException, TransactionAbortedException {
+        validate(8, GFIELDS, SpillingAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /** Without grouping there is a single result tuple. */
+    @Test public void testNoGrouping() throws IOException, DbException, TransactionAbortedException {
+        validate(1000, new int[0], SpillingAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /** Groups that do not fit in memory are spilled and still aggregated correctly. */
+    @Test public void testSpill() throws IOException, DbException, TransactionAbortedException {
+        validate(100, GFIELDS, 20);
+    }
+
+    /** The planner computes several aggregates with a single MultiAggregate. */
+    @Test public void testPlanner() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, 3000, 8, null, tuples, "c");
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        String[] ops = {"sum", "count", "min", "max", "avg"};
+        for (int i = 0; i < ops.length; i++) {
+            lp.addProjectField("t.c" + AFIELDS[i], ops[i]);
+            lp.addAggregate(ops[i], "t.c" + AFIELDS[i], "t.c0");
+        }
+        lp.addGroupBy("t.c1");
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof MultiAggregate);
+        SystemTestUtil.matchTuples(plan, aggregate(tuples, GFIELDS));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** StreamAggregate over tuples sorted on the group-by field agrees with MultiAggregate. */
+    @Test public void testStreamAggregate() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, 3000, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        int[] g = {0};
+        StreamAggregate ag = new StreamAggregate(new OrderBy(0, true, new SeqScan(tid, table.getId(), "")),
+                g, AFIELDS, AOPS);
+        SystemTestUtil.matchTuples(ag, aggregate(tuples, g));
+        ag = new StreamAggregate(new SeqScan(tid, table.getId(), ""), new int[0], AFIELDS, AOPS);
+        SystemTestUtil.matchTuples(ag, aggregate(tuples, new int[0]));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner streams the aggregate when an IndexScan returns tuples in group order. */
+    @Test public void testPlannerStreams() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, 1000, null, tuples, 0);
+        BTreeFile table = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(table, name);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "20");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", "sum");
+        lp.addProjectField("t.c1", "count");
+        lp.addAggregate("sum", "t.c1", "t.c0");
+        lp.addAggregate("count", "t.c1", "t.c0");
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof StreamAggregate);
+
+        ArrayList<ArrayList<Integer>> matching = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 20)
+                matching.add(t);
+        }
+        SystemTestUtil.matchTuples(plan, aggregate(matching, new int[]{0}, new int[]{1, 1},
+                new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT}));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MultiAggregateTest.class);
+    }
+}
@@ -0,0 +1,212 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SampleScanTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public int readCount = 0;
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public synchronized Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    /** Returns the first field of each tuple of it, and adds the page numbers of the tuples to pages. */
+    private static List<Integer> values(DbIterator it, Set<Integer> pages)
+            throws DbException, TransactionAbortedException {
+        List<Integer> values = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            values.add(((IntField) t.getField(0)).getValue());
+            if (pages != null)
+                pages.add(t.getRecordId().getPageId().pageNumber());
+        }
+        return values;
+    }
+
+    /** A SYSTEM sample reads exactly its pages, and returns every tuple on them. */
+    @Test public void testReadsOnlySampledPages() throws IOException, DbException, TransactionAbortedException {
+        final int PAGES = 50;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        SampleScan sample = new SampleScan(tid, table.getId(), "t", 0.1, 42);
+        assertEquals(5, sample.sampledPages());
+        assertEquals(0.1, sample.fraction(), 1e-9);
+        Set<Integer> pages = new HashSet<Integer>();
+        sample.open();
+        List<Integer> sampled = values(sample, pages);
+        sample.close();
+        assertEquals(5, pages.size());
+        assertEquals(5, table.readCount);
+
+        // the same tuples as a full scan returns from those pages
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        List<Integer> expected = new ArrayList<Integer>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (pages.contains(t.getRecordId().getPageId().pageNumber()))
+                expected.add(((IntField) t.getField(0)).getValue());
+        }
+        scan.close();
+        assertEquals(expected, sampled);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The same seed gives the same sample, and a rewound sample returns the same tuples. */
+    @Test public void testRepeatable() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (SampleScan.Method method : SampleScan.Method.values()) {
+            SampleScan a = new SampleScan(tid, table.getId(), "t", null, 0.3, method, 7);
+            SampleScan b = new SampleScan(tid, table.getId(), "t", null, 0.3, method, 7);
+            a.open();
+            b.open();
+            List<Integer> first = values(a, null);
+            assertEquals(first, values(b, null));
+            a.rewind();
+            assertEquals(first, values(a, null));
+            a.close();
+            b.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** COUNT and SUM over a sample estimate those of the whole table within their error bounds. */
+    @Test public void testAggregateEstimates() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null, tuples);
+        long sum = 0;
+        for (ArrayList<Integer> t : tuples)
+            sum += t.get(1);
+        TransactionId tid = new TransactionId();
+
+        Aggregate count = new Aggregate(new SampleScan(tid, table.getId(), "t", 1, 3), 1,
+                Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        count.open();
+        assertEquals(tuples.size(), ((IntField) count.next().getField(0)).getValue());
+        assertEquals(0, count.standardError(null), 0);
+        count.close();
+
+        for (long seed = 0; seed < 3; seed++) {
+            Aggregate agg = new Aggregate(new SampleScan(tid, table.getId(), "t", 0.25, seed), 1,
+                    Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            assertEquals(0.25, agg.sampleFraction(), 0.02);
+            agg.open();
+            int estimate = ((IntField) agg.next().getField(0)).getValue();
+            double error = agg.standardError(null);
+            agg.close();
+            assertTrue(error > 0);
+            assertEquals(sum, estimate, 4 * error + sum * 0.01);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner reads a sampled table with a SampleScan. */
+    @Test public void testPlanner() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples, "c");
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t", 0.2, 11);
+        lp.addProjectField("t.c1", "count");
+        lp.addAggregate("count", "t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        DbIterator expected = new Aggregate(new SampleScan(tid, table.getId(), "t", 0.2, 11), 1,
+                Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        plan.open();
+        expected.open();
+        assertEquals(expected.next().getField(0), plan.next().getField(0));
+        plan.close();
+        expected.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Runs plan and returns the int fields of its single result tuple. */
+    private static int[] result(DbIterator plan) throws DbException, TransactionAbortedException {
+        plan.open();
+        Tuple t = plan.next();
+        assertFalse(plan.hasNext());
+        plan.close();
+        int[] values = new int[t.getTupleDesc().numFields()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = ((IntField) t.getField(i)).getValue();
+        return values;
+    }
+
+    /** Several aggregates over a sample, computed together, are scaled as a single one is. */
+    @Test public void testPlannerSeveralAggregates() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples, "c");
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t", 0.5, 5);
+        lp.addProjectField("t.c1", "sum");
+        lp.addProjectField("t.c0", "count");
+        lp.addAggregate("sum", "t.c1", null);
+        lp.addAggregate("count", "t.c0", null);
+        int[] estimates = result(lp.physicalPlan(tid, new HashMap<String, TableStats>(), false));
+        int sum = result(new Aggregate(new SampleScan(tid, table.getId(), "t", 0.5, 5), 1,
+                Aggregator.NO_GROUPING, Aggregator.Op.SUM))[0];
+        int count = result(new Aggregate(new SampleScan(tid, table.getId(), "t", 0.5, 5), 0,
+                Aggregator.NO_GROUPING, Aggregator.Op.COUNT))[0];
+        assertArrayEquals(new int[]{sum, count}, estimates);
+        assertEquals(tuples.size(), count, tuples.size() * 0.2);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** COUNT over a join with a sampled table is scaled by the sampling fraction. */
+    @Test public void testPlannerJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, 10, null, tuples, "c");
+        ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(1, 5, 10, null, small, "d");
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t", 0.5, 5);
+        lp.addScan(other.getId(), "u");
+        lp.addJoin("t.c0", "u.d0", Predicate.Op.EQUALS);
+        lp.addProjectField("t.c1", "count");
+        lp.addAggregate("count", "t.c1", null);
+        int estimate = result(lp.physicalPlan(tid, new HashMap<String, TableStats>(), false))[0];
+
+        SampleScan sample = new SampleScan(tid, table.getId(), "t", 0.5, 5);
+        DbIterator join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), sample,
+                new SeqScan(tid, other.getId(), "u"));
+        int rows = 0;
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+            rows++;
+        }
+        join.close();
+        assertEquals(Math.round(rows / sample.fraction()), estimate);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SampleScanTest.class);
+    }
+}
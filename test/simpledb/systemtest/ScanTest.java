@@ -68,6 +68,31 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test that a SeqScan over a subset of the columns only returns those columns. */
+    @Test public void testProjectedScan() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 2000, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table", new int[]{3, 1});
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("table." + f.getTupleDesc().getFieldName(3), td.getFieldName(0));
+        assertEquals("table." + f.getTupleDesc().getFieldName(1), td.getFieldName(1));
+
+        scan.open();
+        for (ArrayList<Integer> expected : tuples) {
+            assertTrue(scan.hasNext());
+            Tuple t = scan.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals(expected.get(3), SystemTestUtil.tupleToList(t).get(0));
+            assertEquals(expected.get(1), SystemTestUtil.tupleToList(t).get(1));
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */
@@ -105,6 +130,128 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that a sequential scan reads pages ahead in the background, reading each page once. */
+    @Test public void testReadAhead() throws IOException, DbException, TransactionAbortedException {
+        /** Counts readPage operations and the ones made by other threads than the scan. */
+        class InstrumentedHeapFile extends HeapFile {
+            public InstrumentedHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) throws NoSuchElementException {
+                synchronized (this) {
+                    readCount += 1;
+                    if (Thread.currentThread() != scanThread)
+                        backgroundCount += 1;
+                }
+                return super.readPage(pid);
+            }
+
+            public int readCount = 0;
+            public int backgroundCount = 0;
+            public Thread scanThread = Thread.currentThread();
+        }
+
+        final int PAGES = 40;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        SystemTestUtil.matchTuples(table, tuples);
+        synchronized (table) {
+            assertEquals(PAGES, table.readCount);
+            assertTrue(table.backgroundCount > 0);
+        }
+    }
+
+    /** Verifies that a scan with a range predicate skips the pages whose zone map rules them out. */
+    @Test public void testZoneMapSkipsPages() throws IOException, DbException, TransactionAbortedException {
+        /** Counts the number of readPage operations. */
+        class InstrumentedHeapFile extends HeapFile {
+            public InstrumentedHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) throws NoSuchElementException {
+                synchronized (this) {
+                    readCount += 1;
+                }
+                return super.readPage(pid);
+            }
+
+            public int readCount = 0;
+        }
+
+        // the first column increases with the row number, like a load time
+        final int PAGES = 20;
+        final int PER_PAGE = 504;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < PER_PAGE * PAGES; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(r.nextInt(1000));
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        assertEquals(PAGES, table.numPages());
+
+        // the first scan summarizes every page
+        SystemTestUtil.matchTuples(table, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        synchronized (table) {
+            table.readCount = 0;
+        }
+
+        int low = PER_PAGE * 17 + 3;
+        int high = PER_PAGE * 18 + 10;
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) >= low && tuple.get(0) < high)
+                expected.add(tuple);
+        }
+        Predicate[] preds = new Predicate[]{
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(low)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(high))};
+        TransactionId tid = new TransactionId();
+        DbIterator scan = new SeqScan(tid, table.getId(), "t", null, preds);
+        for (Predicate p : preds)
+            scan = new Filter(p, scan);
+        SystemTestUtil.matchTuples(scan, expected);
+        synchronized (table) {
+            assertEquals(2, table.readCount);
+        }
+
+        // an inserted tuple widens the summary of the page it lands on
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(5));
+        t.setField(1, new IntField(-1));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(PAGES, t.getRecordId().getPageId().pageNumber());
+        Predicate eq = new Predicate(0, Predicate.Op.EQUALS, new IntField(5));
+        expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(tuples.get(5));
+        expected.add(SystemTestUtil.tupleToList(t));
+        SystemTestUtil.matchTuples(new Filter(eq, new SeqScan(tid, table.getId(), "t", null,
+                new Predicate[]{eq})), expected);
+
+        // deleting it shrinks the summary again
+        Database.getBufferPool().deleteTuple(tid, t);
+        int[] range = table.getZoneMap().getRange(PAGES, 0);
+        assertTrue(range[0] > range[1]);
+        expected.remove(1);
+        SystemTestUtil.matchTuples(new Filter(eq, new SeqScan(tid, table.getId(), "t", null,
+                new Predicate[]{eq})), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
@@ -0,0 +1,152 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int MAX_VALUE = 20;
+
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+
+    /** Creates an index on the given columns of f and registers it in the catalog. */
+    private SecondaryIndex createIndex(HeapFile f, int[] keyFields) throws IOException {
+        File indexFile = File.createTempFile("index", ".dat");
+        indexFile.deleteOnExit();
+        SecondaryIndex index = new SecondaryIndex(indexFile, f.getId(), keyFields);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+        return index;
+    }
+
+    /** Returns the tuples of f whose columns 1 and 2 equal a and b, read through the index. */
+    private static HashSet<ArrayList<Integer>> indexLookup(SecondaryIndex index, TransactionId tid,
+            int a, int b) throws DbException, TransactionAbortedException {
+        HashSet<ArrayList<Integer>> result = new HashSet<ArrayList<Integer>>();
+        DbFileIterator it = index.iterator(tid, new IntField(a), new IntField(b));
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return result;
+    }
+
+    private HashSet<ArrayList<Integer>> expected(int a, int b) {
+        HashSet<ArrayList<Integer>> result = new HashSet<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == a && t.get(2) == b)
+                result.add(t);
+        }
+        return result;
+    }
+
+    /** Tuples are distinct enough that a HashSet comparison is meaningful. */
+    private void checkAll(SecondaryIndex index, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        for (int a = 0; a < MAX_VALUE; a += 3) {
+            for (int b = 0; b < MAX_VALUE; b += 2)
+                assertEquals(expected(a, b), indexLookup(index, tid, a, b));
+        }
+    }
+
+    /** Builds a composite index over existing rows and looks up full keys and key prefixes. */
+    @Test public void testBuildAndLookup() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, MAX_VALUE, null, tuples);
+        SecondaryIndex index = createIndex(f, new int[]{1, 2});
+
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        checkAll(index, tid);
+
+        int count = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == 7)
+                count++;
+        }
+        assertEquals(count, index.lookup(tid, new IntField(7)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts and deletes through the buffer pool keep the index in step with the table. */
+    @Test public void testMaintainedOnWrites() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, MAX_VALUE, null, tuples);
+        SecondaryIndex index = createIndex(f, new int[]{1, 2});
+
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+
+        // insert new rows
+        for (int i = 0; i < 300; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(MAX_VALUE + i);
+            row.add(i % MAX_VALUE);
+            row.add((i * 7) % MAX_VALUE);
+            Tuple t = new Tuple(f.getTupleDesc());
+            for (int j = 0; j < COLUMNS; j++)
+                t.setField(j, new IntField(row.get(j)));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            tuples.add(row);
+        }
+        checkAll(index, tid);
+
+        // delete every row whose second column is even
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(1)).getValue() % 2 == 0)
+                toDelete.add(t);
+        }
+        it.close();
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) % 2 != 0)
+                remaining.add(t);
+        }
+        tuples = remaining;
+        checkAll(index, tid);
+        assertTrue(index.lookup(tid, new IntField(4)).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A delete that the table rejects leaves the tuple's index entry in place. */
+    @Test public void testFailedDeleteKeepsEntry() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, MAX_VALUE, null, tuples);
+        SecondaryIndex index = createIndex(f, new int[]{1, 2});
+        TransactionId tid = new TransactionId();
+
+        // an entry for an empty slot on the last page, which the table cannot delete
+        HeapPageId pid = new HeapPageId(f.getId(), f.numPages() - 1);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        int slot = 0;
+        while (page.isSlotUsed(slot))
+            slot++;
+        Tuple t = new Tuple(f.getTupleDesc());
+        for (int j = 0; j < COLUMNS; j++)
+            t.setField(j, new IntField(MAX_VALUE + j));
+        t.setRecordId(new RecordId(pid, slot));
+        index.insertEntry(tid, t);
+        try {
+            Database.getBufferPool().deleteTuple(tid, t);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+        assertEquals(1, index.lookup(tid, new IntField(MAX_VALUE + 1), new IntField(MAX_VALUE + 2)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
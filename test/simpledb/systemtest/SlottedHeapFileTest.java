@@ -0,0 +1,156 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final Random r = new Random();
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, new String[]{"id", "name"});
+
+    private static String randomString(int maxLen) {
+        StringBuilder sb = new StringBuilder();
+        int len = r.nextInt(maxLen + 1);
+        for (int i = 0; i < len; i++)
+            sb.append((char) ('a' + r.nextInt(26)));
+        return sb.toString();
+    }
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("slotted", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** Reads every tuple of f as an id -> name map. */
+    private static HashMap<Integer, String> contents(DbFile f, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        HashMap<Integer, String> result = new HashMap<Integer, String>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(result.put(((IntField) t.getField(0)).getValue(),
+                    ((StringField) t.getField(1)).getValue()));
+        }
+        it.close();
+        return result;
+    }
+
+    /** Short strings take several times fewer pages than on a heap file, and read back unchanged. */
+    @Test public void testConvertFromHeapFile() throws IOException, DbException, TransactionAbortedException {
+        HashMap<Integer, String> rows = new HashMap<Integer, String>();
+        File text = tempFile(".txt");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < 3000; i++) {
+            String name = randomString(8);
+            rows.put(i, name);
+            bw.write(i + "," + name + "\n");
+        }
+        bw.close();
+        File heap = tempFile(".dat");
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), 2, TD.getFieldTypeArr());
+        File slotted = tempFile(".dat");
+        HeapFileEncoder.convertToSlotted(heap, slotted, BufferPool.getPageSize(), TD.getFieldTypeArr());
+
+        HeapFile hf = new HeapFile(heap, TD);
+        SlottedHeapFile sf = new SlottedHeapFile(slotted, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        assertTrue(hf.numPages() >= 5 * sf.numPages());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(rows, contents(hf, tid));
+        assertEquals(rows, contents(sf, tid));
+
+        // a projected scan of the second field skips over the first
+        SeqScan scan = new SeqScan(tid, sf.getId(), "t", new int[]{1});
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            assertTrue(rows.containsValue(((StringField) t.getField(0)).getValue()));
+            n++;
+        }
+        scan.close();
+        assertEquals(rows.size(), n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Space freed by deletes is reused by inserts of strings of other lengths. */
+    @Test public void testInsertAndDelete() throws IOException, DbException, TransactionAbortedException {
+        File f = tempFile(".dat");
+        SlottedHeapFile sf = new SlottedHeapFile(f, TD);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+
+        HashMap<Integer, String> rows = new HashMap<Integer, String>();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = new Tuple(TD);
+            String name = randomString(Type.STRING_LEN);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(name, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+            rows.put(i, name);
+            if (i % 50 == 0)
+                Database.getBufferPool().flushAllPages();
+        }
+        Database.getBufferPool().flushAllPages();
+        int pages = sf.numPages();
+        assertEquals(rows, contents(sf, tid));
+
+        // delete half of the rows, then insert as many bytes of strings again
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                toDelete.add(t);
+        }
+        it.close();
+        int freed = 0;
+        for (Tuple t : toDelete) {
+            freed += ((StringField) t.getField(1)).getValue().length();
+            rows.remove(((IntField) t.getField(0)).getValue());
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().flushAllPages();
+        for (int i = 2000; freed > Type.STRING_LEN; i++) {
+            String name = randomString(Type.STRING_LEN / 2) + randomString(Type.STRING_LEN / 2);
+            freed -= name.length();
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(name, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+            rows.put(i, name);
+            if (i % 50 == 0)
+                Database.getBufferPool().flushAllPages();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(sf.numPages() <= pages + 1);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(rows, contents(sf, tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
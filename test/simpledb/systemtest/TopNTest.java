@@ -0,0 +1,103 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    private static List<Tuple> tuples(DbIterator it) throws DbException, TransactionAbortedException {
+        List<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    /** TopN returns the first n tuples of an OrderBy, ties in the same order. */
+    @Test public void testMatchesOrderBy() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> created = new ArrayList<ArrayList<Integer>>();
+        // few distinct values, so there are many ties
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 50, null, created);
+        TransactionId tid = new TransactionId();
+        for (boolean asc : new boolean[]{true, false}) {
+            List<Tuple> sorted = tuples(new OrderBy(0, asc, new SeqScan(tid, table.getId(), "")));
+            for (int n : new int[]{0, 1, 100, 5000, 6000}) {
+                List<Tuple> top = tuples(new TopN(0, asc, n, new SeqScan(tid, table.getId(), "")));
+                List<Tuple> expected = sorted.subList(0, Math.min(n, sorted.size()));
+                assertEquals(expected.size(), top.size());
+                for (int i = 0; i < top.size(); i++)
+                    assertEquals(expected.get(i).getRecordId(), top.get(i).getRecordId());
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Limit stops pulling from a join once it has returned enough tuples. */
+    @Test public void testLimitStopsJoin() throws IOException, DbException, TransactionAbortedException {
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 1000, 10, null, null);
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 1000, 10, null, null);
+        TransactionId tid = new TransactionId();
+        final int[] pulled = {0};
+        Filter outer = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                new SeqScan(tid, t1.getId(), "a")) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+                pulled[0]++;
+                return super.fetchNext();
+            }
+        };
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), outer,
+                new SeqScan(tid, t2.getId(), "b"));
+        assertEquals(5, tuples(new Limit(5, join)).size());
+        assertTrue(pulled[0] < 1000);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The planner answers ORDER BY ... LIMIT with a TopN, and LIMIT alone with a Limit. */
+    @Test public void testPlanner() throws Exception {
+        ArrayList<ArrayList<Integer>> created = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 100000, null, created, "c");
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c1", null);
+        lp.addOrderBy("t.c1", false);
+        lp.addLimit(10);
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+        List<ArrayList<Integer>> sorted = new ArrayList<ArrayList<Integer>>(created);
+        Collections.sort(sorted, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                return b.get(1).compareTo(a.get(1));
+            }
+        });
+        List<Tuple> top = tuples(plan);
+        assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); i++)
+            assertEquals(new IntField(sorted.get(i).get(1)), top.get(i).getField(0));
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c0", null);
+        lp.addLimit(7);
+        plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        assertTrue(plan instanceof Limit);
+        assertEquals(7, tuples(plan).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TopNTest.class);
+    }
+}